@@ -0,0 +1,370 @@
+import bench.RayWorkload;
+
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+/**
+ * The workloads run by the JMH benchmarks in the bench package. They live in the default package so that they can use
+ * the ray tracer directly.
+ *
+ * All random inputs are generated from a fixed seed when the workload is created, so every run measures the same rays.
+ */
+public class BenchmarkWorkloads {
+    private static final long SEED = 42;
+
+    /**
+     * Creates a workload
+     * @param name One of sphere-castRay, sphere-intersect, rect-castRay, rect-intersect, camera-rays, closest-hit,
+     *             shadow-rays, frame or progressive-pass
+     * @param scene The scene from the SceneLibrary. Not used by the single primitive workloads.
+     * @param width The width of the image in pixels
+     * @param height The height of the image in pixels
+     * @param threads The number of rendering threads. Only used by the frame and progressive-pass workloads.
+     */
+    public static RayWorkload create(String name, String scene, int width, int height, int threads) {
+        switch (name) {
+            case "sphere-castRay":
+                return new ShapeCastRay(new Sphere(new Vector3D(0, 0, 0), 1), 1.5);
+            case "sphere-intersect":
+                return new ShapeIntersect(new Sphere(new Vector3D(0, 0, 0), 1), 1.5);
+            case "rect-castRay":
+                return new ShapeCastRay(makeSquare(), 2);
+            case "rect-intersect":
+                return new ShapeIntersect(makeSquare(), 2);
+            case "camera-rays":
+                return new CameraRays(makeRenderer(scene, width, height, 1));
+            case "closest-hit":
+                return new ClosestHit(makeRenderer(scene, width, height, 1));
+            case "shadow-rays":
+                return new ShadowRays(makeRenderer(scene, width, height, 1));
+            case "frame":
+                return new Frame(makeRenderer(scene, width, height, threads));
+            case "progressive-pass":
+                return new ProgressivePass(makeRenderer(scene, width, height, threads));
+            default:
+                throw new IllegalArgumentException("Unknown workload: " + name);
+        }
+    }
+
+    /**
+     * Chooses the intersection kernels used by the workloads, see IntersectionKernels. They are chosen once per JVM, so
+     * this has to be called before the first workload is created. JMH runs every parameter combination in a JVM of its
+     * own.
+     * @param kernels scalar, or vector for the Vector API kernels
+     * @throws IllegalStateException If the kernels cannot be used, e.g. the vector ones were not compiled
+     */
+    public static void useKernels(String kernels) {
+        if (!kernels.equals("scalar") && !kernels.equals("vector")) {
+            throw new IllegalArgumentException("Unknown kernels: " + kernels);
+        }
+        boolean vector = kernels.equals("vector");
+        System.setProperty("raytracer.vectorKernels", Boolean.toString(vector));
+        IntersectionKernels used = IntersectionKernels.get();
+        if (used instanceof ScalarIntersectionKernels == vector) {
+            throw new IllegalStateException("Cannot use the " + kernels + " kernels, using " + used.getDescription());
+        }
+    }
+
+    private static Renderer makeRenderer(String scene, int width, int height, int threads) {
+        Renderer renderer = new Renderer(threads);
+        SceneLibrary.setUpScene(scene, renderer, width, height);
+        renderer.buildAccelerationStructures();
+        return renderer;
+    }
+
+    // A 2x2 square in the z = 0 plane, centered at the origin
+    private static RectFace makeSquare() {
+        return new RectFace(new Vector3D(-1, 1, 0), new Vector3D(1, 1, 0), new Vector3D(-1, -1, 0));
+    }
+
+    // Rays from (0, 0, 10) towards random points of the z = 0 plane within targetExtent of the origin
+    private static Ray[] makeRaysTowardsOrigin(double targetExtent) {
+        Random random = new Random(SEED);
+        Vector3D origin = new Vector3D(0, 0, 10);
+        Ray[] rays = new Ray[RayWorkload.BATCH_SIZE];
+        for (int i = 0; i < rays.length; ++i) {
+            Vector3D target = new Vector3D(
+                    (2 * random.nextDouble() - 1) * targetExtent,
+                    (2 * random.nextDouble() - 1) * targetExtent,
+                    0);
+            rays[i] = Ray.makeRayFromTwoPoints(origin, target);
+        }
+        return rays;
+    }
+
+    // Random pixel coordinates (x, y pairs) of a width x height image
+    private static double[] makePixelCoordinates(int width, int height) {
+        Random random = new Random(SEED);
+        double[] pixels = new double[2 * RayWorkload.BATCH_SIZE];
+        for (int i = 0; i < RayWorkload.BATCH_SIZE; ++i) {
+            pixels[2 * i] = random.nextDouble() * width;
+            pixels[2 * i + 1] = random.nextDouble() * height;
+        }
+        return pixels;
+    }
+
+    /**
+     * Casts rays at a single shape with the allocating castRay API
+     */
+    private static class ShapeCastRay implements RayWorkload {
+        private final Shape3D shape;
+        private final Ray[] rays;
+
+        ShapeCastRay(Shape3D shape, double targetExtent) {
+            this.shape = shape;
+            this.rays = makeRaysTowardsOrigin(targetExtent);
+        }
+
+        @Override
+        public long run() {
+            long hits = 0;
+            for (Ray ray : rays) {
+                if (shape.castRay(ray) != null) {
+                    ++hits;
+                }
+            }
+            return hits;
+        }
+
+        @Override
+        public long getCameraRaysPerRun() {
+            return 0;
+        }
+    }
+
+    /**
+     * Casts rays at a single shape with the hit record API
+     */
+    private static class ShapeIntersect implements RayWorkload {
+        private final Shape3D shape;
+        private final Ray[] rays;
+        private final HitRecord record = new HitRecord();
+
+        ShapeIntersect(Shape3D shape, double targetExtent) {
+            this.shape = shape;
+            this.rays = makeRaysTowardsOrigin(targetExtent);
+        }
+
+        @Override
+        public long run() {
+            long hits = 0;
+            for (Ray ray : rays) {
+                record.reset();
+                if (shape.intersect(ray, 0, record.t, record)) {
+                    ++hits;
+                }
+            }
+            return hits;
+        }
+
+        @Override
+        public long getCameraRaysPerRun() {
+            return 0;
+        }
+    }
+
+    /**
+     * Generates camera rays through random points of the image
+     */
+    private static class CameraRays implements RayWorkload {
+        private final Renderer renderer;
+        private final double[] pixels;
+
+        CameraRays(Renderer renderer) {
+            this.renderer = renderer;
+            this.pixels = makePixelCoordinates(renderer.getCamera().getWidth(), renderer.getCamera().getHeight());
+        }
+
+        @Override
+        public long run() {
+            long result = 0;
+            Camera camera = renderer.getCamera();
+            for (int i = 0; i < BATCH_SIZE; ++i) {
+                Ray ray = camera.getRayForPixel(pixels[2 * i], pixels[2 * i + 1]);
+                result += Double.doubleToRawLongBits(ray.unitDirection.x);
+            }
+            return result;
+        }
+
+        @Override
+        public long getCameraRaysPerRun() {
+            return BATCH_SIZE;
+        }
+
+        @Override
+        public void close() {
+            renderer.getTileScheduler().close();
+        }
+    }
+
+    /**
+     * Finds the closest solid along camera rays through random points of the image
+     */
+    private static class ClosestHit implements RayWorkload {
+        private final Renderer renderer;
+        private final Ray[] rays = new Ray[BATCH_SIZE];
+        private final HitRecord record = new HitRecord();
+
+        ClosestHit(Renderer renderer) {
+            this.renderer = renderer;
+            double[] pixels = makePixelCoordinates(renderer.getCamera().getWidth(), renderer.getCamera().getHeight());
+            for (int i = 0; i < BATCH_SIZE; ++i) {
+                rays[i] = renderer.getCamera().getRayForPixel(pixels[2 * i], pixels[2 * i + 1]);
+            }
+        }
+
+        @Override
+        public long run() {
+            long hits = 0;
+            for (Ray ray : rays) {
+                record.reset();
+                if (renderer.solidsHierarchy.intersect(ray, 0, record)) {
+                    ++hits;
+                }
+            }
+            return hits;
+        }
+
+        @Override
+        public long getCameraRaysPerRun() {
+            return 0;
+        }
+
+        @Override
+        public void close() {
+            renderer.getTileScheduler().close();
+        }
+    }
+
+    /**
+     * Casts shadow rays from the points seen by the camera towards random points of the light sources. Like in the
+     * Renderer, the rays from one point towards one light are traced together as a RayPacket of
+     * RenderSettings.INITIAL_LIGHT_SAMPLES rays.
+     */
+    private static class ShadowRays implements RayWorkload {
+        private static final int PACKET_SIZE = RenderSettings.INITIAL_LIGHT_SAMPLES;
+
+        private final Renderer renderer;
+        private final RayPacket packet = new RayPacket(IntersectionKernels.get().getLaneCount());
+        // The origin of every packet. The last one may be smaller, so that the batch holds exactly BATCH_SIZE rays.
+        private final Vector3D[] origins = new Vector3D[(BATCH_SIZE + PACKET_SIZE - 1) / PACKET_SIZE];
+        private final Vector3D[] directions = new Vector3D[BATCH_SIZE];
+        private final double[] distances = new double[BATCH_SIZE];
+
+        ShadowRays(Renderer renderer) {
+            this.renderer = renderer;
+            Camera camera = renderer.getCamera();
+            Random random = new Random(SEED);
+            HitRecord record = new HitRecord();
+            int count = 0;
+            while (count < origins.length) {
+                Ray cameraRay = camera.getRayForPixel(
+                        random.nextDouble() * camera.getWidth(), random.nextDouble() * camera.getHeight());
+                record.reset();
+                if (!renderer.solidsHierarchy.intersect(cameraRay, 0, record)) {
+                    continue;
+                }
+                Vector3D point = record.getPoint(cameraRay);
+                origins[count] = point;
+                LightSource light = renderer.lightSources.get(count % renderer.lightSources.size());
+                RectFace lightShape = light.getShape();
+                for (int i = count * PACKET_SIZE; i < Math.min((count + 1) * PACKET_SIZE, BATCH_SIZE); ++i) {
+                    Vector3D lightPoint = lightShape.getWorldPointAt(
+                            random.nextDouble() * lightShape.getWidth(), random.nextDouble() * lightShape.getHeight());
+                    distances[i] = point.distance(lightPoint);
+                    directions[i] = Vector3D.subtract(lightPoint, point, new Vector3D()).multiplyInPlace(1 / distances[i]);
+                }
+                ++count;
+            }
+        }
+
+        @Override
+        public long run() {
+            long occluded = 0;
+            for (int p = 0; p < origins.length; ++p) {
+                int first = p * PACKET_SIZE;
+                int size = Math.min(PACKET_SIZE, BATCH_SIZE - first);
+                packet.reset(size);
+                for (int i = 0; i < size; ++i) {
+                    // Same minimum distance as the shadow rays of the Renderer
+                    packet.set(i, origins[p], directions[first + i], 2 * Renderer.MINIMUM_RAY_LENGTH,
+                            distances[first + i]);
+                }
+                renderer.solidsHierarchy.occlude(packet);
+                occluded += size - packet.getUnoccludedCount();
+            }
+            return occluded;
+        }
+
+        @Override
+        public long getCameraRaysPerRun() {
+            return 0;
+        }
+
+        @Override
+        public void close() {
+            renderer.getTileScheduler().close();
+        }
+    }
+
+    /**
+     * Renders a whole frame at full quality, the way the Scene does outside of progressive mode
+     */
+    private static class Frame implements RayWorkload {
+        private final Renderer renderer;
+        private final RenderSettings settings = RenderSettings.makeDefault();
+        private final BufferedImage canvas;
+
+        Frame(Renderer renderer) {
+            this.renderer = renderer;
+            this.canvas = new BufferedImage(
+                    renderer.getCamera().getWidth(), renderer.getCamera().getHeight(), BufferedImage.TYPE_INT_RGB);
+        }
+
+        @Override
+        public long run() {
+            renderer.render(canvas, settings);
+            return canvas.getRGB(canvas.getWidth() / 2, canvas.getHeight() / 2);
+        }
+
+        @Override
+        public long getCameraRaysPerRun() {
+            return (long) canvas.getWidth() * canvas.getHeight();
+        }
+
+        @Override
+        public void close() {
+            renderer.getTileScheduler().close();
+        }
+    }
+
+    /**
+     * Adds a single pass to an accumulation buffer, the way the Scene does in progressive mode
+     */
+    private static class ProgressivePass implements RayWorkload {
+        private final Renderer renderer;
+        private final RenderSettings settings = new RenderSettings(1, 0);
+        private final AccumulationBuffer buffer;
+
+        ProgressivePass(Renderer renderer) {
+            this.renderer = renderer;
+            this.buffer = new AccumulationBuffer(renderer.getCamera().getWidth(), renderer.getCamera().getHeight());
+        }
+
+        @Override
+        public long run() {
+            renderer.renderPass(buffer, settings);
+            return buffer.getPassCount();
+        }
+
+        @Override
+        public long getCameraRaysPerRun() {
+            return (long) buffer.getWidth() * buffer.getHeight();
+        }
+
+        @Override
+        public void close() {
+            renderer.getTileScheduler().close();
+        }
+    }
+}
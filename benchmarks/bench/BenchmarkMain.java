@@ -0,0 +1,34 @@
+package bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the usual JMH command line options, always adding the GC profiler so that the allocation
+ * rate (gc.alloc.rate.norm is bytes per operation) is reported next to the ray throughput.
+ *
+ * Examples:
+ *   java -jar target/benchmarks.jar                          all benchmarks
+ *   java -jar target/benchmarks.jar TraversalBenchmark       only the scene traversal ones
+ *   java -jar target/benchmarks.jar FrameBenchmark -p threads=1 -p resolution=400x300
+ */
+public class BenchmarkMain {
+    public static void main(String[] args) throws RunnerException {
+        CommandLineOptions commandLineOptions;
+        try {
+            commandLineOptions = new CommandLineOptions(args);
+        } catch (CommandLineOptionException e) {
+            System.err.println("Error parsing command line: " + e.getMessage());
+            System.exit(1);
+            return;
+        }
+        new Runner(new OptionsBuilder()
+                .parent(commandLineOptions)
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
@@ -0,0 +1,63 @@
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Whole frames: a full quality render, or a single progressive pass, of a scene at several resolutions and thread
+ * counts. The primary result is frames per second; the cameraRays counter reports the camera rays per second, which
+ * can be compared across resolutions.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class FrameBenchmark {
+    @Param({"frame", "progressive-pass"})
+    public String workload;
+
+    @Param({"2spheres", "9spheres"})
+    public String scene;
+
+    @Param({"200x150", "400x300", "800x600"})
+    public String resolution;
+
+    @Param({"1", "4", "8"})
+    public int threads;
+
+    private RayWorkload frames;
+
+    /**
+     * Counts the camera rays of the measured frames. JMH reports OPERATIONS counters per second.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class RayCounter {
+        public long cameraRays;
+
+        @Setup(Level.Iteration)
+        public void clean() {
+            cameraRays = 0;
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        String[] size = resolution.split("x");
+        frames = RayWorkload.create(workload, scene, Integer.parseInt(size[0]), Integer.parseInt(size[1]), threads);
+    }
+
+    @TearDown
+    public void tearDown() {
+        frames.close();
+    }
+
+    @Benchmark
+    public long renderFrame(RayCounter counter) {
+        counter.cameraRays += frames.getCameraRaysPerRun();
+        return frames.run();
+    }
+}
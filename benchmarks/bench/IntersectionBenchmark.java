@@ -0,0 +1,38 @@
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Intersection of single primitives, for both the allocating castRay API and the hit record API. Every invocation casts
+ * RayWorkload.BATCH_SIZE rays, so the reported ops/s are rays per second.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IntersectionBenchmark {
+    @Param({"sphere-castRay", "sphere-intersect", "rect-castRay", "rect-intersect"})
+    public String workload;
+
+    private RayWorkload rays;
+
+    @Setup
+    public void setUp() {
+        rays = RayWorkload.create(workload, null, 0, 0, 1);
+    }
+
+    @TearDown
+    public void tearDown() {
+        rays.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RayWorkload.BATCH_SIZE)
+    public long castRays() {
+        return rays.run();
+    }
+}
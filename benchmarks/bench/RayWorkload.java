@@ -0,0 +1,56 @@
+package bench;
+
+/**
+ * A piece of ray tracing work measured by the benchmarks.
+ *
+ * JMH does not accept benchmarks in the default package, and code in a named package cannot refer to the classes of the
+ * ray tracer, which all live in the default package. So the workloads are implemented next to the ray tracer (see
+ * BenchmarkWorkloads) behind this interface, and the JMH benchmarks only call them through it.
+ */
+public interface RayWorkload extends AutoCloseable {
+    /**
+     * Number of rays cast by one call to run() for the per-ray workloads
+     */
+    int BATCH_SIZE = 4096;
+
+    /**
+     * Does one batch of work
+     * @return A value depending on every result of the batch, so that the JIT cannot drop any of the work
+     */
+    long run();
+
+    /**
+     * Returns the number of rays shot from the camera by one call to run()
+     */
+    long getCameraRaysPerRun();
+
+    /**
+     * Releases the threads of the workload, if it has any
+     */
+    @Override
+    default void close() {}
+
+    /**
+     * Creates a workload with BenchmarkWorkloads.create
+     */
+    static RayWorkload create(String name, String scene, int width, int height, int threads) {
+        try {
+            return (RayWorkload) Class.forName("BenchmarkWorkloads")
+                    .getMethod("create", String.class, String.class, int.class, int.class, int.class)
+                    .invoke(null, name, scene, width, height, threads);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Could not create workload " + name, e);
+        }
+    }
+
+    /**
+     * Chooses the intersection kernels with BenchmarkWorkloads.useKernels, before the first workload is created
+     */
+    static void useKernels(String kernels) {
+        try {
+            Class.forName("BenchmarkWorkloads").getMethod("useKernels", String.class).invoke(null, kernels);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Could not use the " + kernels + " kernels", e);
+        }
+    }
+}
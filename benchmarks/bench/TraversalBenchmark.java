@@ -0,0 +1,47 @@
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single threaded ray throughput against whole scenes: generating camera rays, finding the closest solid through the
+ * bounding volume hierarchy, and shadow rays from visible points towards the light sources. Every invocation handles
+ * RayWorkload.BATCH_SIZE rays, so the reported ops/s are rays per second. Both the scalar and the Vector API
+ * intersection kernels are measured.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class TraversalBenchmark {
+    @Param({"camera-rays", "closest-hit", "shadow-rays"})
+    public String workload;
+
+    @Param({"2spheres", "9spheres"})
+    public String scene;
+
+    @Param({"scalar", "vector"})
+    public String kernels;
+
+    private RayWorkload rays;
+
+    @Setup
+    public void setUp() {
+        RayWorkload.useKernels(kernels);
+        rays = RayWorkload.create(workload, scene, 400, 300, 1);
+    }
+
+    @TearDown
+    public void tearDown() {
+        rays.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RayWorkload.BATCH_SIZE)
+    public long castRays() {
+        return rays.run();
+    }
+}
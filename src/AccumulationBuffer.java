@@ -0,0 +1,124 @@
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Per-pixel sums of light intensity accumulated over multiple rendering passes. Displaying the mean of all passes
+ * instead of a single pass lets the image converge while the camera stays in place.
+ *
+ * Different threads may add samples concurrently, as long as they add them to different pixels.
+ */
+public class AccumulationBuffer {
+    private final int width, height;
+    // Red, green and blue sums of every pixel, row by row
+    private final double[] sums;
+    private int passCount;
+
+    public AccumulationBuffer(int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.sums = new double[3 * width * height];
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Returns the number of completed passes, i.e. the number of samples accumulated in every pixel
+     */
+    public int getPassCount() {
+        return passCount;
+    }
+
+    /**
+     * Adds a sample to the provided pixel
+     */
+    public void add(int x, int y, LightIntensity sample) {
+        int i = 3 * (y * width + x);
+        sums[i] += sample.red;
+        sums[i + 1] += sample.green;
+        sums[i + 2] += sample.blue;
+    }
+
+    /**
+     * Marks the end of a pass. Every pixel should have received exactly one sample since the previous pass ended.
+     */
+    public void finishPass() {
+        passCount++;
+    }
+
+    /**
+     * Discards all of the accumulated samples
+     */
+    public void reset() {
+        Arrays.fill(sums, 0);
+        passCount = 0;
+    }
+
+    /**
+     * Writes the mean of all accumulated samples of the provided pixel to out
+     * @return out
+     */
+    public LightIntensity getMean(int x, int y, LightIntensity out) {
+        if (passCount == 0) {
+            return out.setZero();
+        }
+        int i = 3 * (y * width + x);
+        double factor = 1.0 / passCount;
+        out.red = sums[i] * factor;
+        out.green = sums[i + 1] * factor;
+        out.blue = sums[i + 2] * factor;
+        return out;
+    }
+
+    /**
+     * Draws the mean of the accumulated samples to the provided image
+     * @param canvas The image to draw to. Needs to be at least as big as the buffer.
+     * @param whiteIntensity The intensity mapped to full brightness, see LightIntensity.translateToRGB
+     */
+    public void resolve(BufferedImage canvas, double whiteIntensity) {
+        LightIntensity mean = new LightIntensity();
+        for (int y = 0; y < height; ++y) {
+            for (int x = 0; x < width; ++x) {
+                Color pixelColor = getMean(x, y, mean).translateToRGB(whiteIntensity);
+                canvas.setRGB(x, y, pixelColor.getRGB());
+            }
+        }
+    }
+
+    /**
+     * Writes the mean of the accumulated samples to a Portable Float Map file. Unlike an RGB image, the file keeps the
+     * full range of the light intensities. PFM stores rows from the bottom up, which matches the way the canvas is
+     * displayed (row 0 at the bottom).
+     */
+    public void writePfm(File file) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            // A negative scale means the floats are little-endian
+            out.writeBytes("PF\n" + width + " " + height + "\n-1.0\n");
+            ByteBuffer row = ByteBuffer.allocate(3 * width * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            LightIntensity mean = new LightIntensity();
+            for (int y = 0; y < height; ++y) {
+                row.clear();
+                for (int x = 0; x < width; ++x) {
+                    getMean(x, y, mean);
+                    row.putFloat((float) mean.red);
+                    row.putFloat((float) mean.green);
+                    row.putFloat((float) mean.blue);
+                }
+                out.write(row.array());
+            }
+        }
+    }
+}
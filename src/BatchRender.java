@@ -0,0 +1,258 @@
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Renders a scene to image files without opening any windows, so that it can run on machines without a display.
+ *
+ * Usage: BatchRender [options]
+ *   --scene NAME            Scene from the SceneLibrary, or the path of a scene file (default 2spheres)
+ *   --width N               Width of the image in pixels (default 800)
+ *   --height N              Height of the image in pixels (default 600)
+ *   --samples N             Jittered samples per pixel (default 16)
+ *   --adaptive N            Render once with adaptive anti-aliasing instead: one sample through the center of every
+ *                           pixel, and up to N more on edges. Ignores --samples.
+ *   --light-samples N       Maximum shadow rays per light source at every diffuse hit (default 30)
+ *   --light-batch N         Shadow rays are shot in batches of N, stopping once the estimate is good enough. 0 always
+ *                           shoots the maximum (default 6)
+ *   --indirect-samples N    Monte Carlo samples for indirect light at every diffuse hit (default 0)
+ *   --max-depth N           Maximum number of bounces of a path (default 8). Paths past 3 bounces end randomly,
+ *                           depending on how much light they still carry.
+ *   --irradiance-cache E    Interpolate indirect light from cached records within error E, 0 samples every hit
+ *                           (default 0.2)
+ *   --caustic-photons N     Photons shot at refractive solids to find their caustics, 0 disables them (default 0).
+ *                           Not used with --indirect-samples, whose rays find the caustics as well.
+ *   --sampler NAME          random, stratified, halton or sobol (default sobol)
+ *   --threads N             Number of rendering threads (default: number of processors)
+ *   --output FILE           The PNG file to write (default render.png)
+ *   --hdr FILE              Also write the raw light intensities to a Portable Float Map file
+ *   --workers HOST:PORT,... Render the tiles on RenderWorker processes instead of in this one
+ *   --local-workers N       Start N RenderWorker processes on this machine and render on them, each with --threads
+ *                           threads. For testing the distributed rendering.
+ *
+ * Run with -Draytracer.stats.log=true to print the statistics of every pass.
+ */
+public class BatchRender {
+    private static final String USAGE =
+            "Usage: BatchRender [--scene NAME] [--width N] [--height N] [--samples N] [--adaptive N] [--light-samples N]\n" +
+            "                   [--light-batch N] [--indirect-samples N] [--max-depth N] [--irradiance-cache E]\n" +
+            "                   [--caustic-photons N] [--sampler NAME] [--threads N] [--output FILE.png] [--hdr FILE.pfm]\n" +
+            "                   [--workers HOST:PORT,... | --local-workers N]";
+
+    public static void main(String[] args) throws IOException {
+        // Nothing below needs a display. Setting this before touching any AWT class also skips initializing the
+        // windowing toolkit.
+        System.setProperty("java.awt.headless", "true");
+
+        String sceneName = "2spheres";
+        int width = 800, height = 600;
+        int samplesPerPixel = 16;
+        boolean adaptive = false;
+        RenderSettings settings = RenderSettings.makeDefault();
+        int threads = Runtime.getRuntime().availableProcessors();
+        String output = "render.png";
+        String hdrOutput = null;
+        List<InetSocketAddress> workers = new ArrayList<>();
+        int localWorkers = 0;
+
+        try {
+            for (int i = 0; i < args.length; i += 2) {
+                if (i + 1 >= args.length) {
+                    throw new IllegalArgumentException("Missing value for " + args[i]);
+                }
+                String value = args[i + 1];
+                switch (args[i]) {
+                    case "--scene":
+                        sceneName = value;
+                        break;
+                    case "--width":
+                        width = parsePositive(args[i], value);
+                        break;
+                    case "--height":
+                        height = parsePositive(args[i], value);
+                        break;
+                    case "--samples":
+                        samplesPerPixel = parsePositive(args[i], value);
+                        break;
+                    case "--light-samples":
+                        settings.lightSamplesPerLight = parsePositive(args[i], value);
+                        break;
+                    case "--light-batch":
+                        settings.initialLightSamples = parseNonNegative(args[i], value);
+                        break;
+                    case "--indirect-samples":
+                        settings.monteCarloSamples = parseNonNegative(args[i], value);
+                        break;
+                    case "--max-depth":
+                        settings.maxTraceDepth = parseNonNegative(args[i], value);
+                        break;
+                    case "--irradiance-cache":
+                        settings.irradianceCacheError = parseNonNegativeDouble(args[i], value);
+                        break;
+                    case "--caustic-photons":
+                        settings.causticPhotons = parseNonNegative(args[i], value);
+                        break;
+                    case "--sampler":
+                        settings.sampler = Sampler.Type.valueOf(value.toUpperCase());
+                        break;
+                    case "--threads":
+                        threads = parsePositive(args[i], value);
+                        break;
+                    case "--output":
+                        output = value;
+                        break;
+                    case "--adaptive":
+                        adaptive = true;
+                        settings.antialiasingSamples = parseNonNegative(args[i], value);
+                        break;
+                    case "--hdr":
+                        hdrOutput = value;
+                        break;
+                    case "--workers":
+                        for (String address : value.split(",")) {
+                            workers.add(parseAddress(address));
+                        }
+                        break;
+                    case "--local-workers":
+                        localWorkers = parsePositive(args[i], value);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown option " + args[i]);
+                }
+            }
+            if (adaptive && hdrOutput != null) {
+                throw new IllegalArgumentException("--hdr needs progressive passes, it cannot be used with --adaptive");
+            }
+            if (adaptive && (!workers.isEmpty() || localWorkers > 0)) {
+                throw new IllegalArgumentException("Workers render progressive passes, they cannot be used with --adaptive");
+            }
+            if (!workers.isEmpty() && localWorkers > 0) {
+                throw new IllegalArgumentException("--workers and --local-workers cannot be used together");
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            System.exit(1);
+            return;
+        }
+
+        long start = System.nanoTime();
+        Renderer renderer = new Renderer(threads);
+        SceneLibrary.setUpScene(sceneName, renderer, width, height);
+        boolean distributed = !workers.isEmpty() || localWorkers > 0;
+        RenderWorker.LocalProcesses localProcesses = null;
+        if (localWorkers > 0) {
+            localProcesses = new RenderWorker.LocalProcesses(localWorkers, threads);
+            workers = localProcesses.getAddresses();
+        } else if (!distributed) {
+            // Scene files come compiled
+            if (!renderer.isCompiled()) {
+                renderer.buildAccelerationStructures();
+            }
+            renderer.getStats().registerMBean("batch");
+        }
+        long setUpDone = System.nanoTime();
+
+        BufferedImage canvas = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        AccumulationBuffer buffer = new AccumulationBuffer(width, height);
+        long cameraSamples;
+        String distributionSummary = null;
+        if (distributed) {
+            // The workers set up the scene on their own, this process only needs its camera and exposure
+            RenderCoordinator coordinator = new RenderCoordinator(workers);
+            try {
+                buffer = coordinator.render(new RenderJob(sceneName, renderer.getCamera(), samplesPerPixel, settings));
+            } finally {
+                if (localProcesses != null) {
+                    localProcesses.close();
+                }
+            }
+            buffer.resolve(canvas, 1.0 / renderer.getExposure());
+            cameraSamples = (long) width * height * samplesPerPixel;
+            distributionSummary = coordinator.getLastSummary();
+        } else if (adaptive) {
+            renderer.render(canvas, settings);
+            cameraSamples = renderer.getStats().getPrimaryRays();
+        } else {
+            for (int pass = 0; pass < samplesPerPixel; ++pass) {
+                renderer.renderPass(buffer, settings);
+            }
+            buffer.resolve(canvas, 1.0 / renderer.getExposure());
+            cameraSamples = (long) width * height * samplesPerPixel;
+        }
+        long renderDone = System.nanoTime();
+
+        ImageIO.write(flipVertically(canvas), "png", new File(output));
+        if (hdrOutput != null) {
+            buffer.writePfm(new File(hdrOutput));
+        }
+        long writeDone = System.nanoTime();
+
+        double renderSeconds = (renderDone - setUpDone) / 1e9;
+        String sampling = adaptive
+                ? String.format("adaptive anti-aliasing (up to %d more samples on edges)", settings.antialiasingSamples)
+                : samplesPerPixel + " samples per pixel";
+        System.out.printf("Scene %s, %dx%d, %s, %d light samples (batches of %d), %d indirect samples, max depth %d, %s sampler, %d threads%n",
+                sceneName, width, height, sampling, settings.lightSamplesPerLight, settings.initialLightSamples,
+                settings.monteCarloSamples, settings.maxTraceDepth, settings.sampler.name().toLowerCase(),
+                threads);
+        System.out.printf("Set up: %.1f ms, render: %.1f ms, writing: %.1f ms, total: %.1f ms%n",
+                (setUpDone - start) / 1e6, (renderDone - setUpDone) / 1e6, (writeDone - renderDone) / 1e6,
+                (writeDone - start) / 1e6);
+        System.out.printf("%.0f camera samples per second%n", cameraSamples / renderSeconds);
+        if (distributed) {
+            System.out.println("Distributed: " + distributionSummary);
+        } else {
+            System.out.println("Last pass: " + renderer.getStats().getSummary());
+        }
+
+        renderer.getTileScheduler().close();
+    }
+
+    private static InetSocketAddress parseAddress(String address) {
+        int colon = address.lastIndexOf(':');
+        if (colon <= 0) {
+            throw new IllegalArgumentException("Worker addresses need to be HOST:PORT, not " + address);
+        }
+        return new InetSocketAddress(address.substring(0, colon), Integer.parseInt(address.substring(colon + 1)));
+    }
+
+    private static int parsePositive(String option, String value) {
+        int result = Integer.parseInt(value);
+        if (result < 1) {
+            throw new IllegalArgumentException(option + " needs to be >= 1");
+        }
+        return result;
+    }
+
+    private static int parseNonNegative(String option, String value) {
+        int result = Integer.parseInt(value);
+        if (result < 0) {
+            throw new IllegalArgumentException(option + " needs to be >= 0");
+        }
+        return result;
+    }
+
+    private static double parseNonNegativeDouble(String option, String value) {
+        double result = Double.parseDouble(value);
+        if (!(result >= 0) || Double.isInfinite(result)) {
+            throw new IllegalArgumentException(option + " needs to be a number >= 0");
+        }
+        return result;
+    }
+
+    // The renderer's row 0 is the bottom of the image (see Scene.paintComponent), image files start from the top
+    private static BufferedImage flipVertically(BufferedImage image) {
+        BufferedImage result = new BufferedImage(image.getWidth(), image.getHeight(), image.getType());
+        for (int y = 0; y < image.getHeight(); ++y) {
+            for (int x = 0; x < image.getWidth(); ++x) {
+                result.setRGB(x, image.getHeight() - 1 - y, image.getRGB(x, y));
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,171 @@
+/**
+ * An axis aligned bounding box. Used by the acceleration structures to quickly discard the parts of the scene that a
+ * ray cannot possibly hit.
+ */
+public class BoundingBox {
+    public double minX, minY, minZ;
+    public double maxX, maxY, maxZ;
+
+    /**
+     * Creates an empty box - one that contains no points. Expanding it by any point or box gives that point or box.
+     */
+    public BoundingBox() {
+        minX = minY = minZ = Double.POSITIVE_INFINITY;
+        maxX = maxY = maxZ = Double.NEGATIVE_INFINITY;
+    }
+
+    /**
+     * @param min The corner of the box with the smallest coordinates
+     * @param max The corner of the box with the largest coordinates
+     */
+    public BoundingBox(Vector3D min, Vector3D max) {
+        minX = min.getX();
+        minY = min.getY();
+        minZ = min.getZ();
+        maxX = max.getX();
+        maxY = max.getY();
+        maxZ = max.getZ();
+    }
+
+    /**
+     * Grows this box so that it contains the provided point
+     */
+    public void expand(Vector3D p) {
+        minX = Math.min(minX, p.getX());
+        minY = Math.min(minY, p.getY());
+        minZ = Math.min(minZ, p.getZ());
+        maxX = Math.max(maxX, p.getX());
+        maxY = Math.max(maxY, p.getY());
+        maxZ = Math.max(maxZ, p.getZ());
+    }
+
+    /**
+     * Grows this box so that it contains the provided box
+     */
+    public void expand(BoundingBox other) {
+        minX = Math.min(minX, other.minX);
+        minY = Math.min(minY, other.minY);
+        minZ = Math.min(minZ, other.minZ);
+        maxX = Math.max(maxX, other.maxX);
+        maxY = Math.max(maxY, other.maxY);
+        maxZ = Math.max(maxZ, other.maxZ);
+    }
+
+    /**
+     * Grows this box so that it contains the point with the provided coordinates
+     */
+    public void expand(double x, double y, double z) {
+        minX = Math.min(minX, x);
+        minY = Math.min(minY, y);
+        minZ = Math.min(minZ, z);
+        maxX = Math.max(maxX, x);
+        maxY = Math.max(maxY, y);
+        maxZ = Math.max(maxZ, z);
+    }
+
+    public boolean isEmpty() {
+        return minX > maxX || minY > maxY || minZ > maxZ;
+    }
+
+    /**
+     * Returns the minimum coordinate of the box along the given axis (0 - x, 1 - y, 2 - z)
+     */
+    public double getMin(int axis) {
+        switch (axis) {
+            case 0:
+                return minX;
+            case 1:
+                return minY;
+            case 2:
+                return minZ;
+        }
+        throw new IllegalArgumentException("Axis out of bounds");
+    }
+
+    /**
+     * Returns the maximum coordinate of the box along the given axis (0 - x, 1 - y, 2 - z)
+     */
+    public double getMax(int axis) {
+        switch (axis) {
+            case 0:
+                return maxX;
+            case 1:
+                return maxY;
+            case 2:
+                return maxZ;
+        }
+        throw new IllegalArgumentException("Axis out of bounds");
+    }
+
+    /**
+     * Returns the center of the box along the given axis (0 - x, 1 - y, 2 - z)
+     */
+    public double getCenter(int axis) {
+        return 0.5 * (getMin(axis) + getMax(axis));
+    }
+
+    /**
+     * Returns the surface area of the box. The surface area heuristic uses it as the probability of a random ray
+     * hitting the box. An empty box has no surface.
+     */
+    public double surfaceArea() {
+        if (isEmpty()) {
+            return 0;
+        }
+        double dx = maxX - minX;
+        double dy = maxY - minY;
+        double dz = maxZ - minZ;
+        return 2 * (dx * dy + dy * dz + dz * dx);
+    }
+
+    /**
+     * Finds the distance along the ray at which it enters this box (slab test).
+     * @param ray The tested ray
+     * @param maxDistance Intersections further than this distance are not interesting to the caller
+     * @return The distance from the ray origin to the entry point (0 if the origin is inside the box), or
+     *         Double.POSITIVE_INFINITY if the ray misses the box within maxDistance
+     */
+    public double getEntryDistance(Ray ray, double maxDistance) {
+        return getEntryDistance(
+                ray.origin.x, ray.origin.y, ray.origin.z,
+                ray.unitDirection.x, ray.unitDirection.y, ray.unitDirection.z,
+                maxDistance);
+    }
+
+    /**
+     * Same as getEntryDistance(Ray, double), for a ray given by the components of its origin and direction
+     */
+    public double getEntryDistance(double ox, double oy, double oz, double dx, double dy, double dz, double maxDistance) {
+        double tNear = 0;
+        double tFar = maxDistance;
+
+        // Division by a zero component gives an infinity, which makes the slab test work for axis-parallel rays. The
+        // comparisons are written so that a NaN (0 * infinity) never shrinks the interval.
+        double invD = 1.0 / dx;
+        double t0 = (minX - ox) * invD;
+        double t1 = (maxX - ox) * invD;
+        if (t0 > t1) { double tmp = t0; t0 = t1; t1 = tmp; }
+        if (t0 > tNear) tNear = t0;
+        if (t1 < tFar) tFar = t1;
+
+        invD = 1.0 / dy;
+        t0 = (minY - oy) * invD;
+        t1 = (maxY - oy) * invD;
+        if (t0 > t1) { double tmp = t0; t0 = t1; t1 = tmp; }
+        if (t0 > tNear) tNear = t0;
+        if (t1 < tFar) tFar = t1;
+
+        invD = 1.0 / dz;
+        t0 = (minZ - oz) * invD;
+        t1 = (maxZ - oz) * invD;
+        if (t0 > t1) { double tmp = t0; t0 = t1; t1 = tmp; }
+        if (t0 > tNear) tNear = t0;
+        if (t1 < tFar) tFar = t1;
+
+        // Flat boxes (e.g. around the walls) have tNear == tFar up to rounding, so allow for a tiny error
+        if (tNear > tFar * (1 + 1e-9) + 1e-12) {
+            return Double.POSITIVE_INFINITY;
+        }
+        return tNear;
+    }
+}
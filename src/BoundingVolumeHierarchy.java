@@ -0,0 +1,621 @@
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounding volume hierarchy over the solids of a scene. Every node stores a box containing all of the solids below
+ * it, so a ray that misses the box can skip the whole subtree. This makes finding the closest solid roughly
+ * logarithmic in the number of solids instead of linear.
+ *
+ * The tree is built top-down using binned surface area heuristic (SAH) splits. The two halves of every split are built
+ * in parallel on the worker threads of a TileScheduler.
+ *
+ * Once the tree is built, the scene is compiled: the solids are copied into the flat arrays of PackedPrimitives in the
+ * order of the leaves, and every leaf just stores its range of the arrays. The IntersectionKernels test a ray against
+ * all spheres (or faces) of a leaf at once, and only the closest hit is looked up as a Solid.
+ */
+public class BoundingVolumeHierarchy {
+    // Nodes with at most this many solids may become leaves
+    private static final int MAX_LEAF_SIZE = 4;
+    // Number of buckets the centroids are sorted into when evaluating the SAH
+    private static final int SAH_BINS = 16;
+    // Relative costs of visiting a node and intersecting a solid, used by the SAH
+    private static final double TRAVERSAL_COST = 1.0;
+    private static final double INTERSECTION_COST = 1.0;
+    // Subtrees smaller than this are built on the current thread - forking them would cost more than it saves
+    private static final int PARALLEL_BUILD_THRESHOLD = 256;
+
+    /**
+     * A single node of the hierarchy. Inner nodes have two children, leaves have a list of solids.
+     */
+    static class Node {
+        BoundingBox bounds;
+        Node left, right;
+        Solid[] solids;
+        // The ranges of the arrays of PackedPrimitives holding the solids of a leaf
+        int sphereStart, sphereEnd;
+        int rectStart, rectEnd;
+        int otherStart, otherEnd;
+
+        boolean isLeaf() {
+            return solids != null;
+        }
+    }
+
+    private final IntersectionKernels kernels = IntersectionKernels.get();
+    private final Node root;
+    private final PackedPrimitives primitives;
+    private final int solidCount;
+    // The traversal stack of every thread. A traversal pushes both children of a node and pops one, so the stack never
+    // holds more nodes than the tree is deep, plus one.
+    private final ThreadLocal<Node[]> traversalStacks;
+    // Counts the solids tested against rays, if set
+    private LongAdder intersectionTestCounter;
+
+    /**
+     * Builds a hierarchy over the provided solids. The list is not modified and later changes to it are not reflected
+     * in the hierarchy.
+     * @param scheduler The scheduler on whose worker threads the tree is built
+     */
+    public BoundingVolumeHierarchy(List<Solid> solids, TileScheduler scheduler) {
+        this(buildTree(solids, scheduler), solids.size());
+    }
+
+    // Compiles a tree built earlier, see readTree
+    private BoundingVolumeHierarchy(Node root, int solidCount) {
+        this.root = root;
+        this.solidCount = solidCount;
+        List<Node> leaves = new ArrayList<>();
+        collectLeaves(root, leaves);
+        primitives = new PackedPrimitives(leaves, kernels.getLaneCount());
+        int stackCapacity = getDepth(root) + 1;
+        traversalStacks = ThreadLocal.withInitial(() -> new Node[stackCapacity]);
+    }
+
+    private static Node buildTree(List<Solid> solids, TileScheduler scheduler) {
+        Solid[] solidArray = solids.toArray(new Solid[0]);
+        BoundingBox[] boxes = new BoundingBox[solidArray.length];
+        double[] centroids = new double[3 * solidArray.length];
+        int[] order = new int[solidArray.length];
+        for (int i = 0; i < solidArray.length; ++i) {
+            boxes[i] = solidArray[i].getBoundingBox();
+            for (int axis = 0; axis < 3; ++axis) {
+                centroids[3 * i + axis] = boxes[i].getCenter(axis);
+            }
+            order[i] = i;
+        }
+
+        if (solidArray.length == 0) {
+            Node root = new Node();
+            root.bounds = new BoundingBox();
+            root.solids = new Solid[0];
+            return root;
+        }
+        return scheduler.invoke(new BuildTask(solidArray, boxes, centroids, order, 0, solidArray.length));
+    }
+
+    /**
+     * Writes the tree in preorder: every node starts with a byte that tells whether it is a leaf, and its bounds.
+     * Leaves go on with the number and the indices of their solids, inner nodes with their two children. The packed
+     * arrays are not written, since they depend on the lane count of the machine and are quick to fill again.
+     * @param solidIndices The index of every solid of the hierarchy, as passed to readTree
+     */
+    void writeTree(DataOutput out, Map<Solid, Integer> solidIndices) throws IOException {
+        writeNode(out, root, solidIndices);
+    }
+
+    private static void writeNode(DataOutput out, Node node, Map<Solid, Integer> solidIndices) throws IOException {
+        out.writeBoolean(node.isLeaf());
+        BoundingBox bounds = node.bounds;
+        out.writeDouble(bounds.minX);
+        out.writeDouble(bounds.minY);
+        out.writeDouble(bounds.minZ);
+        out.writeDouble(bounds.maxX);
+        out.writeDouble(bounds.maxY);
+        out.writeDouble(bounds.maxZ);
+        if (node.isLeaf()) {
+            out.writeInt(node.solids.length);
+            for (Solid solid : node.solids) {
+                out.writeInt(solidIndices.get(solid));
+            }
+        } else {
+            writeNode(out, node.left, solidIndices);
+            writeNode(out, node.right, solidIndices);
+        }
+    }
+
+    /**
+     * Reads a tree written by writeTree and compiles it, which is much faster than building it again
+     * @param solids The solids, by the indices the tree was written with
+     * @throws IllegalArgumentException If the tree refers to solids that do not exist
+     */
+    static BoundingVolumeHierarchy readTree(ByteBuffer in, Solid[] solids) {
+        return new BoundingVolumeHierarchy(readNode(in, solids), solids.length);
+    }
+
+    private static Node readNode(ByteBuffer in, Solid[] solids) {
+        Node node = new Node();
+        boolean leaf = in.get() != 0;
+        node.bounds = new BoundingBox();
+        node.bounds.minX = in.getDouble();
+        node.bounds.minY = in.getDouble();
+        node.bounds.minZ = in.getDouble();
+        node.bounds.maxX = in.getDouble();
+        node.bounds.maxY = in.getDouble();
+        node.bounds.maxZ = in.getDouble();
+        if (leaf) {
+            int count = in.getInt();
+            if (count < 0 || count > solids.length) {
+                throw new IllegalArgumentException("Invalid leaf size " + count);
+            }
+            node.solids = new Solid[count];
+            for (int i = 0; i < count; ++i) {
+                int index = in.getInt();
+                if (index < 0 || index >= solids.length) {
+                    throw new IllegalArgumentException("Invalid solid index " + index);
+                }
+                node.solids[i] = solids[index];
+            }
+        } else {
+            node.left = readNode(in, solids);
+            node.right = readNode(in, solids);
+        }
+        return node;
+    }
+
+    // Lists the leaves from left to right, so that neighbouring leaves get neighbouring ranges of the arrays
+    private static void collectLeaves(Node node, List<Node> leaves) {
+        if (node.isLeaf()) {
+            leaves.add(node);
+        } else {
+            collectLeaves(node.left, leaves);
+            collectLeaves(node.right, leaves);
+        }
+    }
+
+    // The number of edges on the longest path from the node down to a leaf
+    private static int getDepth(Node node) {
+        return node.isLeaf() ? 0 : 1 + Math.max(getDepth(node.left), getDepth(node.right));
+    }
+
+    /**
+     * Returns the number of solids in the hierarchy
+     */
+    public int size() {
+        return solidCount;
+    }
+
+    /**
+     * Returns the bounding box of the whole scene
+     */
+    public BoundingBox getBounds() {
+        return root.bounds;
+    }
+
+    /**
+     * Returns the material with the given index, see HitRecord.material
+     */
+    public Material getMaterial(int index) {
+        return primitives.materials[index];
+    }
+
+    /**
+     * Makes the traversals add the number of solids they test against rays to the provided counter. Pass null to stop
+     * counting.
+     */
+    public void setIntersectionTestCounter(LongAdder counter) {
+        this.intersectionTestCounter = counter;
+    }
+
+    /**
+     * Finds the closest solid hit by the ray further than tMin from its origin. Only hits closer than record.t are
+     * reported, so a freshly reset record finds the closest hit overall.
+     * @param ray The ray to cast
+     * @param tMin The minimum distance of a reported intersection from the ray origin
+     * @param record Receives the closest hit
+     * @return true if a solid was hit (closer than record.t was when the method was called)
+     */
+    public boolean intersect(Ray ray, double tMin, HitRecord record) {
+        boolean hitAnything = false;
+        int tests = 0;
+
+        Node[] stack = traversalStacks.get();
+        int stackSize = 0;
+        stack[stackSize++] = root;
+
+        while (stackSize > 0) {
+            Node node = stack[--stackSize];
+
+            // The closest hit may have moved since this node was pushed
+            if (node.bounds.getEntryDistance(ray, record.t) == Double.POSITIVE_INFINITY) {
+                continue;
+            }
+
+            if (node.isLeaf()) {
+                tests += node.solids.length;
+                hitAnything |= intersectLeaf(node, ray, tMin, record);
+                continue;
+            }
+
+            double leftDistance = node.left.bounds.getEntryDistance(ray, record.t);
+            double rightDistance = node.right.bounds.getEntryDistance(ray, record.t);
+
+            // Push the further child first, so that the closer one is visited first and can shrink record.t
+            if (leftDistance <= rightDistance) {
+                if (rightDistance != Double.POSITIVE_INFINITY) stack[stackSize++] = node.right;
+                if (leftDistance != Double.POSITIVE_INFINITY) stack[stackSize++] = node.left;
+            } else {
+                if (leftDistance != Double.POSITIVE_INFINITY) stack[stackSize++] = node.left;
+                if (rightDistance != Double.POSITIVE_INFINITY) stack[stackSize++] = node.right;
+            }
+        }
+        countTests(tests);
+        return hitAnything;
+    }
+
+    /**
+     * Checks whether any solid is hit by the ray between minDistance and maxDistance from its origin. The traversal
+     * stops at the first such solid, whichever it is, which makes this much cheaper than castRay for shadow rays. The
+     * Renderer traces its shadow rays in packets with occlude instead; this is the query for a single ray.
+     * @param ray The ray to cast
+     * @param minDistance Hits closer than this to the ray origin are ignored
+     * @param maxDistance Hits further than this from the ray origin are ignored
+     * @return true if something blocks the ray within the provided segment
+     */
+    public boolean isOccluded(Ray ray, double minDistance, double maxDistance) {
+        int tests = 0;
+        Node[] stack = traversalStacks.get();
+        int stackSize = 0;
+        stack[stackSize++] = root;
+
+        while (stackSize > 0) {
+            Node node = stack[--stackSize];
+            if (node.bounds.getEntryDistance(ray, maxDistance) == Double.POSITIVE_INFINITY) {
+                continue;
+            }
+
+            if (node.isLeaf()) {
+                tests += node.solids.length;
+                if (isLeafOccluding(node, ray, minDistance, maxDistance)) {
+                    countTests(tests);
+                    return true;
+                }
+                continue;
+            }
+
+            stack[stackSize++] = node.right;
+            stack[stackSize++] = node.left;
+        }
+        countTests(tests);
+        return false;
+    }
+
+    /**
+     * Finds out which rays of the packet are blocked by a solid within their segments, and marks them as occluded. The
+     * rays share a single traversal: a node is visited if any of the rays that are not occluded yet enters its box, and
+     * the traversal stops once all rays are occluded.
+     */
+    public void occlude(RayPacket packet) {
+        long tests = 0;
+        Node[] stack = traversalStacks.get();
+        int stackSize = 0;
+        stack[stackSize++] = root;
+
+        while (stackSize > 0 && packet.getUnoccludedCount() > 0) {
+            Node node = stack[--stackSize];
+            if (!isEnteredByPacket(node.bounds, packet)) {
+                continue;
+            }
+
+            if (node.isLeaf()) {
+                tests += (long) node.solids.length * packet.getUnoccludedCount();
+                occludeByLeaf(node, packet);
+                continue;
+            }
+
+            stack[stackSize++] = node.right;
+            stack[stackSize++] = node.left;
+        }
+        if (intersectionTestCounter != null) {
+            intersectionTestCounter.add(tests);
+        }
+    }
+
+    /**
+     * Tests the packet against a single primitive, and marks the rays it blocks as occluded. Meant for a primitive
+     * that blocked a similar packet before - if it blocks all of the rays again, no traversal is needed at all.
+     * @param occluder A primitive returned by RayPacket.getOccluder after occlude was called with this hierarchy
+     */
+    public void occludeByPrimitive(RayPacket packet, int occluder) {
+        int sphereCount = primitives.spheres.length;
+        int rectCount = primitives.rects.length;
+        if (occluder < sphereCount) {
+            kernels.occludeBySphere(packet, primitives, occluder);
+        } else if (occluder < sphereCount + rectCount) {
+            kernels.occludeByRect(packet, primitives, occluder - sphereCount);
+        } else {
+            occludeByOther(packet, occluder - sphereCount - rectCount);
+        }
+        if (intersectionTestCounter != null) {
+            intersectionTestCounter.add(packet.getCount());
+        }
+    }
+
+    // The kernels find the closest sphere and the closest face of the leaf, then only the closer of them is recorded
+    private boolean intersectLeaf(Node leaf, Ray ray, double tMin, HitRecord record) {
+        boolean hitAnything = false;
+        // record.t shrinks with every hit, so only closer solids can overwrite the record
+        int sphere = kernels.findClosestSphere(primitives, leaf.sphereStart, leaf.sphereEnd, ray, tMin, record.t);
+        if (sphere >= 0) {
+            primitives.recordSphereHit(sphere, ray, tMin, record);
+            hitAnything = true;
+        }
+        int rect = kernels.findClosestRect(primitives, leaf.rectStart, leaf.rectEnd, ray, tMin, record.t);
+        if (rect >= 0) {
+            primitives.recordRectHit(rect, ray, record);
+            hitAnything = true;
+        }
+        for (int i = leaf.otherStart; i < leaf.otherEnd; ++i) {
+            if (primitives.others[i].intersect(ray, tMin, record.t, record)) {
+                record.material = primitives.otherMaterial[i];
+                hitAnything = true;
+            }
+        }
+        return hitAnything;
+    }
+
+    private boolean isLeafOccluding(Node leaf, Ray ray, double minDistance, double maxDistance) {
+        if (kernels.hitsAnySphere(primitives, leaf.sphereStart, leaf.sphereEnd, ray, minDistance, maxDistance)
+                || kernels.hitsAnyRect(primitives, leaf.rectStart, leaf.rectEnd, ray, minDistance, maxDistance)) {
+            return true;
+        }
+        for (int i = leaf.otherStart; i < leaf.otherEnd; ++i) {
+            if (primitives.others[i].intersectsSegment(ray, minDistance, maxDistance)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // The primitives are numbered for RayPacket.occluder: first the spheres, then the faces, then the other solids
+    private void occludeByLeaf(Node leaf, RayPacket packet) {
+        int sphereCount = primitives.spheres.length;
+        int rectCount = primitives.rects.length;
+        for (int i = leaf.sphereStart; i < leaf.sphereEnd && packet.getUnoccludedCount() > 0; ++i) {
+            int unoccluded = packet.getUnoccludedCount();
+            kernels.occludeBySphere(packet, primitives, i);
+            if (packet.getUnoccludedCount() < unoccluded) {
+                packet.occluder = i;
+            }
+        }
+        for (int i = leaf.rectStart; i < leaf.rectEnd && packet.getUnoccludedCount() > 0; ++i) {
+            int unoccluded = packet.getUnoccludedCount();
+            kernels.occludeByRect(packet, primitives, i);
+            if (packet.getUnoccludedCount() < unoccluded) {
+                packet.occluder = sphereCount + i;
+            }
+        }
+        for (int i = leaf.otherStart; i < leaf.otherEnd && packet.getUnoccludedCount() > 0; ++i) {
+            int unoccluded = packet.getUnoccludedCount();
+            occludeByOther(packet, i);
+            if (packet.getUnoccludedCount() < unoccluded) {
+                packet.occluder = sphereCount + rectCount + i;
+            }
+        }
+    }
+
+    private void occludeByOther(RayPacket packet, int i) {
+        Solid solid = primitives.others[i];
+        for (int r = 0; r < packet.getCount(); ++r) {
+            if (!packet.occluded[r] && solid.intersectsSegment(packet.getRay(r), packet.minDistance[r], packet.maxDistance[r])) {
+                packet.markOccluded(r);
+            }
+        }
+    }
+
+    private static boolean isEnteredByPacket(BoundingBox box, RayPacket packet) {
+        for (int r = 0; r < packet.getCount(); ++r) {
+            if (!packet.occluded[r] && box.getEntryDistance(
+                    packet.originX[r], packet.originY[r], packet.originZ[r],
+                    packet.directionX[r], packet.directionY[r], packet.directionZ[r],
+                    packet.maxDistance[r]) != Double.POSITIVE_INFINITY) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Adds the tests of a single traversal at once, instead of touching the shared counter for every solid
+    private void countTests(int tests) {
+        if (intersectionTestCounter != null) {
+            intersectionTestCounter.add(tests);
+        }
+    }
+
+    /**
+     * Builds the subtree for solids order[start..end). Every task only reorders its own range of the order array, so
+     * the two halves of a split can be built concurrently.
+     */
+    @SuppressWarnings("serial") // Tasks are never serialized
+    private static class BuildTask extends RecursiveTask<Node> {
+        private final Solid[] solids;
+        private final BoundingBox[] boxes;
+        private final double[] centroids;
+        private final int[] order;
+        private final int start, end;
+
+        BuildTask(Solid[] solids, BoundingBox[] boxes, double[] centroids, int[] order, int start, int end) {
+            this.solids = solids;
+            this.boxes = boxes;
+            this.centroids = centroids;
+            this.order = order;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected Node compute() {
+            Node node = new Node();
+            node.bounds = new BoundingBox();
+            BoundingBox centroidBounds = new BoundingBox();
+            for (int i = start; i < end; ++i) {
+                int id = order[i];
+                node.bounds.expand(boxes[id]);
+                centroidBounds.expand(centroids[3 * id], centroids[3 * id + 1], centroids[3 * id + 2]);
+            }
+
+            int count = end - start;
+            int mid = count > 1 ? findSahSplit(node.bounds, centroidBounds) : -1;
+            if (mid < 0) {
+                if (count <= MAX_LEAF_SIZE) {
+                    return makeLeaf(node);
+                }
+                // No split is worth it according to the SAH, but the leaf would be too big. Split by the median
+                // instead.
+                mid = splitAtMedian(centroidBounds);
+            }
+
+            BuildTask leftTask = new BuildTask(solids, boxes, centroids, order, start, mid);
+            BuildTask rightTask = new BuildTask(solids, boxes, centroids, order, mid, end);
+            if (count > PARALLEL_BUILD_THRESHOLD) {
+                rightTask.fork();
+                node.left = leftTask.compute();
+                node.right = rightTask.join();
+            } else {
+                node.left = leftTask.compute();
+                node.right = rightTask.compute();
+            }
+            return node;
+        }
+
+        private Node makeLeaf(Node node) {
+            node.solids = new Solid[end - start];
+            for (int i = start; i < end; ++i) {
+                node.solids[i - start] = solids[order[i]];
+            }
+            return node;
+        }
+
+        /**
+         * Evaluates the SAH cost of splitting the range at bin boundaries along every axis, and partitions the range
+         * according to the cheapest one.
+         * @return The index at which the range was split, or -1 if keeping a leaf is cheaper than any split
+         */
+        private int findSahSplit(BoundingBox bounds, BoundingBox centroidBounds) {
+            int count = end - start;
+            double parentArea = bounds.surfaceArea();
+            double bestCost = count <= MAX_LEAF_SIZE ? INTERSECTION_COST * count : Double.POSITIVE_INFINITY;
+            int bestAxis = -1;
+            int bestBin = -1;
+
+            int[] binCounts = new int[SAH_BINS];
+            BoundingBox[] binBounds = new BoundingBox[SAH_BINS];
+            double[] rightAreas = new double[SAH_BINS];
+            for (int axis = 0; axis < 3; ++axis) {
+                double axisMin = centroidBounds.getMin(axis);
+                double axisExtent = centroidBounds.getMax(axis) - axisMin;
+                if (axisExtent <= 0) {
+                    // All centroids lie in one plane perpendicular to this axis
+                    continue;
+                }
+
+                Arrays.fill(binCounts, 0);
+                for (int b = 0; b < SAH_BINS; ++b) {
+                    binBounds[b] = new BoundingBox();
+                }
+                for (int i = start; i < end; ++i) {
+                    int id = order[i];
+                    int b = getBin(centroids[3 * id + axis], axisMin, axisExtent);
+                    binCounts[b]++;
+                    binBounds[b].expand(boxes[id]);
+                }
+
+                // Sweep from the right to get the area of everything right of each boundary...
+                BoundingBox rightBox = new BoundingBox();
+                for (int b = SAH_BINS - 1; b > 0; --b) {
+                    rightBox.expand(binBounds[b]);
+                    rightAreas[b] = rightBox.surfaceArea();
+                }
+                // ...and from the left to evaluate every boundary
+                BoundingBox leftBox = new BoundingBox();
+                int leftCount = 0;
+                for (int b = 0; b < SAH_BINS - 1; ++b) {
+                    leftBox.expand(binBounds[b]);
+                    leftCount += binCounts[b];
+                    int rightCount = count - leftCount;
+                    if (leftCount == 0 || rightCount == 0) {
+                        continue;
+                    }
+                    double cost = TRAVERSAL_COST + INTERSECTION_COST *
+                            (leftBox.surfaceArea() * leftCount + rightAreas[b + 1] * rightCount) / parentArea;
+                    if (cost < bestCost) {
+                        bestCost = cost;
+                        bestAxis = axis;
+                        bestBin = b;
+                    }
+                }
+            }
+
+            if (bestAxis < 0) {
+                return -1;
+            }
+
+            // Partition the range so that solids in bins <= bestBin come first
+            double axisMin = centroidBounds.getMin(bestAxis);
+            double axisExtent = centroidBounds.getMax(bestAxis) - axisMin;
+            int i = start;
+            int j = end - 1;
+            while (i <= j) {
+                if (getBin(centroids[3 * order[i] + bestAxis], axisMin, axisExtent) <= bestBin) {
+                    ++i;
+                } else {
+                    swap(i, j);
+                    --j;
+                }
+            }
+            return i;
+        }
+
+        /**
+         * Sorts the range along the longest axis of the centroid bounds and returns its middle.
+         */
+        private int splitAtMedian(BoundingBox centroidBounds) {
+            int axis = 0;
+            double longestExtent = -1;
+            for (int a = 0; a < 3; ++a) {
+                double extent = centroidBounds.getMax(a) - centroidBounds.getMin(a);
+                if (extent > longestExtent) {
+                    longestExtent = extent;
+                    axis = a;
+                }
+            }
+            final int sortAxis = axis;
+            Integer[] range = new Integer[end - start];
+            for (int i = start; i < end; ++i) {
+                range[i - start] = order[i];
+            }
+            Arrays.sort(range, (a, b) -> Double.compare(centroids[3 * a + sortAxis], centroids[3 * b + sortAxis]));
+            for (int i = start; i < end; ++i) {
+                order[i] = range[i - start];
+            }
+            return start + (end - start) / 2;
+        }
+
+        private int getBin(double centroid, double axisMin, double axisExtent) {
+            int bin = (int) ((centroid - axisMin) / axisExtent * SAH_BINS);
+            return Math.min(Math.max(bin, 0), SAH_BINS - 1);
+        }
+
+        private void swap(int i, int j) {
+            int tmp = order[i];
+            order[i] = order[j];
+            order[j] = tmp;
+        }
+    }
+}
@@ -1,5 +1,3 @@
-import javafx.geometry.Point3D;
-
 /**
  * Box is the class that utilizes the RectFace class objects in order to populate the background and surroundings of our scenes.
  * Our scene is often referred to as the "Cornell Box", in where a simple rectangular box is set up with a square planar light source
@@ -22,11 +20,11 @@ public class Box {
      * @param topRightFront The vector that maps to a vertex with a positive x, positive y, and positive z components.
      * @param bottomLeftFront The vector that maps to a vertex with a negative x, negative y, and positive z component.
      */
-    public Box(Point3D topLeftFront, Point3D topLeftBack, Point3D topRightFront, Point3D bottomLeftFront) {
-        Point3D topRightBack = topLeftBack.add(topRightFront.subtract(topLeftFront));
-        Point3D bottomRightFront = bottomLeftFront.add(topRightFront.subtract(topLeftFront));
-        Point3D bottomRightBack = bottomRightFront.add(topLeftBack.subtract(topLeftFront));
-        Point3D bottomLeftBack = bottomLeftFront.add(topLeftBack.subtract(topLeftFront));
+    public Box(Vector3D topLeftFront, Vector3D topLeftBack, Vector3D topRightFront, Vector3D bottomLeftFront) {
+        Vector3D topRightBack = topLeftBack.add(topRightFront.subtract(topLeftFront));
+        Vector3D bottomRightFront = bottomLeftFront.add(topRightFront.subtract(topLeftFront));
+        Vector3D bottomRightBack = bottomRightFront.add(topLeftBack.subtract(topLeftFront));
+        Vector3D bottomLeftBack = bottomLeftFront.add(topLeftBack.subtract(topLeftFront));
 
         //Given these 8 vectors, we can now create 6 faces for the box.
         front = new RectFace(topLeftFront, topRightFront, bottomLeftFront);
@@ -1,19 +1,18 @@
-import javafx.geometry.Point3D;
-
-
 /**
- * Camera represents a two dimensional view of the 3D world. Since this camera is used mostly for ray-tracing, it does
- * not need to provide functionality such as transforming 3D points into 2D points - instead it returns rays for
- * specific pixels.
+ * Camera represents a two dimensional view of the 3D world. Since this camera is used mostly for ray-tracing, it
+ * returns rays for specific pixels. The opposite direction - finding the pixel at which a 3D point is seen - is only
+ * needed for reusing the pixels of earlier frames, see getPixelForPoint.
  */
 public class Camera {
-    private Point3D lookingAt;
-    private Point3D cameraPoint;
-    private Point3D upDirection;
+    private Vector3D lookingAt;
+    private Vector3D cameraPoint;
+    private Vector3D upDirection;
     private double horizontalAngleOfView;
     private int width;
     private int height;
     PerspectiveCanvas canvas;
+    // Incremented on every change of the camera, so that renderers can tell when their cached results are stale
+    private int revision;
 
     /**
      * @param cameraPoint Location of the camera/eye of the observer
@@ -26,20 +25,35 @@ public class Camera {
      * @param width The width of the resultant perspective plane in pixels
      * @param height The height of the resultant perspective plane in pixels
      */
-    public Camera(Point3D cameraPoint, Point3D lookingAt, Point3D upDir, double horizontalAngleOfView, int width, int height) {
+    public Camera(Vector3D cameraPoint, Vector3D lookingAt, Vector3D upDir, double horizontalAngleOfView, int width, int height) {
         this.cameraPoint = cameraPoint;
         this.lookingAt = lookingAt;
         this.horizontalAngleOfView = horizontalAngleOfView;
         this.width = width;
         this.height = height;
 
-        Point3D canvasNormal = calculateCanvasNormal();
+        Vector3D canvasNormal = calculateCanvasNormal();
         upDirection = GeometryHelpers.projectVectorOntoPlane(upDir, canvasNormal).normalize();
 
         refreshCanvas();
     }
 
-    private Point3D calculateCanvasNormal() {
+    /**
+     * Creates a copy of the camera, which keeps the current view when the original moves
+     */
+    public Camera(Camera other) {
+        // The vectors are replaced rather than modified when the camera moves, so they can be shared
+        this.cameraPoint = other.cameraPoint;
+        this.lookingAt = other.lookingAt;
+        this.upDirection = other.upDirection;
+        this.horizontalAngleOfView = other.horizontalAngleOfView;
+        this.width = other.width;
+        this.height = other.height;
+        this.canvas = other.canvas;
+        this.revision = other.revision;
+    }
+
+    private Vector3D calculateCanvasNormal() {
         return lookingAt.subtract(cameraPoint);
     }
 
@@ -56,6 +70,7 @@ public class Camera {
     }
 
     private void refreshCanvas() {
+        revision++;
         canvas = new PerspectiveCanvas(
                 cameraPoint, lookingAt, upDirection, horizontalAngleOfView, (double) width / height);
     }
@@ -67,18 +82,88 @@ public class Camera {
      * @return A ray from the eye of the observer through the specified pixel.
      */
     public Ray getRayForPixel(int x, int y) {
-        Point3D pointOnCanvas = canvas.getWorldPointFromCanvasCoord(
-                (double) (x) / width, (double) y / height);
+        return getRayForPixel((double) x, (double) y);
+    }
+
+    /**
+     * Returns the ray from the eye of the observer that goes through the specified point on the perspective plane.
+     * Pixel (x, y) covers the coordinates from x to x+1 and from y to y+1, so fractional coordinates can be used to
+     * shoot multiple rays through one pixel.
+     * @param x The x coordinate on the perspective plane in pixels
+     * @param y The y coordinate on the perspective plane in pixels
+     * @return A ray from the eye of the observer through the specified point.
+     */
+    public Ray getRayForPixel(double x, double y) {
+        Vector3D pointOnCanvas = canvas.getWorldPointFromCanvasCoord(x / width, y / height);
         return Ray.makeRayFromTwoPoints(cameraPoint, pointOnCanvas);
     }
 
+    /**
+     * Finds the point of the image at which a point of the world is seen, the inverse of getRayForPixel
+     * @param point The point of the world
+     * @param pixel Receives the x and y coordinates in pixels, which may be outside of the image
+     * @return False if the point is behind the camera, in which case pixel is left untouched
+     */
+    public boolean getPixelForPoint(Vector3D point, double[] pixel) {
+        if (!canvas.getCanvasCoordFromWorldPoint(cameraPoint, point, pixel)) {
+            return false;
+        }
+        pixel[0] *= width;
+        pixel[1] *= height;
+        return true;
+    }
+
+    /**
+     * Returns a number that changes every time the camera is moved, rotated or resized
+     */
+    public int getRevision() {
+        return revision;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Returns the angle of view of a single pixel, in radians. A surface at distance d from the camera is covered by
+     * pixels of width d * getPixelAngle().
+     */
+    public double getPixelAngle() {
+        return horizontalAngleOfView / width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
     /**
      * @return The position of the observer
      */
-    public Point3D getPosition() {
+    public Vector3D getPosition() {
         return cameraPoint;
     }
 
+    /**
+     * @return The point towards which the observer is oriented
+     */
+    public Vector3D getLookingAt() {
+        return lookingAt;
+    }
+
+    /**
+     * @return The upwards direction, perpendicular to the line of sight
+     */
+    public Vector3D getUpDirection() {
+        return upDirection;
+    }
+
+    /**
+     * @return The horizontal angle of view in radians
+     */
+    public double getHorizontalAngleOfView() {
+        return horizontalAngleOfView;
+    }
+
     /**
      * Rotates the camera along the horizontal axis (around the vertical axis). The rotation is to the right.
      * @param angle The angle of rotation in radians.
@@ -94,8 +179,8 @@ public class Camera {
      * @param angle The angle of rotation in radians.
      */
     public void rotateVertical(double angle) {
-        Point3D canvasNormal = calculateCanvasNormal();
-        Point3D rotAxis = upDirection.crossProduct(canvasNormal);
+        Vector3D canvasNormal = calculateCanvasNormal();
+        Vector3D rotAxis = upDirection.crossProduct(canvasNormal);
         Transform3D transform = Transform3D.rotateCCWAroundAxis(cameraPoint, cameraPoint.add(rotAxis), angle);
 
         // Attach upDirection to lookingAt before rotation
@@ -111,7 +196,7 @@ public class Camera {
      * @param amount The amount of displacement in world coordinates
      */
     public void moveForward(double amount) {
-        Point3D displacement = calculateCanvasNormal().normalize().multiply(amount);
+        Vector3D displacement = calculateCanvasNormal().normalize().multiply(amount);
         lookingAt = lookingAt.add(displacement);
         cameraPoint = cameraPoint.add(displacement);
         refreshCanvas();
@@ -122,7 +207,7 @@ public class Camera {
      * @param amount The amount of displacement in world coordinates
      */
     public void moveBackward(double amount) {
-        Point3D displacement = calculateCanvasNormal().normalize().multiply(-amount);
+        Vector3D displacement = calculateCanvasNormal().normalize().multiply(-amount);
         lookingAt = lookingAt.add(displacement);
         cameraPoint = cameraPoint.add(displacement);
         refreshCanvas();
@@ -133,7 +218,7 @@ public class Camera {
      * @param amount The amount of displacement in world coordinates
      */
     public void moveLeft(double amount) {
-        Point3D displacement = canvas.getHorizontalVector().multiply(-amount);
+        Vector3D displacement = canvas.getHorizontalVector().multiply(-amount);
         lookingAt = lookingAt.add(displacement);
         cameraPoint = cameraPoint.add(displacement);
         refreshCanvas();
@@ -144,7 +229,7 @@ public class Camera {
      * @param amount The amount of displacement in world coordinates
      */
     public void moveRight(double amount) {
-        Point3D displacement = canvas.getHorizontalVector().multiply(amount);
+        Vector3D displacement = canvas.getHorizontalVector().multiply(amount);
         lookingAt = lookingAt.add(displacement);
         cameraPoint = cameraPoint.add(displacement);
         refreshCanvas();
@@ -0,0 +1,99 @@
+import java.util.Arrays;
+
+/**
+ * The first sample of every pixel of a frame, shot through the center of the pixel: its light, the distance to what
+ * it hit, and what it hit. Comparing a pixel with its neighbours tells whether an edge runs through it - the outline
+ * of a solid, a jump in depth, or a sharp change of color, like the border of a shadow. Only those pixels need more
+ * samples to be anti-aliased; everywhere else the center sample is as good as many.
+ *
+ * Different threads may set different pixels concurrently. The edges can only be looked for once all pixels are set.
+ */
+public class EdgeBuffer {
+    // Distances that differ by more than this fraction of the smaller one are an edge, even on the same solid
+    private static final double DEPTH_THRESHOLD = 0.1;
+
+    private final int width, height;
+    // The light of every pixel, red, green and blue one after another
+    private final double[] lights;
+    // The same light as it is displayed, clamped to [0, 1], for comparing colors the way they are seen
+    private final float[] colors;
+    private final double[] distances;
+    // The Solid or LightSource hit by the center ray of every pixel, or null
+    private final Object[] hitObjects;
+
+    public EdgeBuffer(int width, int height) {
+        this.width = width;
+        this.height = height;
+        lights = new double[3 * width * height];
+        colors = new float[3 * width * height];
+        distances = new double[width * height];
+        Arrays.fill(distances, Double.POSITIVE_INFINITY);
+        hitObjects = new Object[width * height];
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Stores the center sample of a pixel
+     * @param light The light found by the sample
+     * @param whiteIntensity The intensity displayed as white, see LightIntensity.translateToRGB
+     * @param distance The distance to what the sample hit, infinity if nothing
+     * @param hitObject What the sample hit, or null
+     */
+    public void set(int x, int y, LightIntensity light, double whiteIntensity, double distance, Object hitObject) {
+        int pixel = y * width + x;
+        lights[3 * pixel] = light.red;
+        lights[3 * pixel + 1] = light.green;
+        lights[3 * pixel + 2] = light.blue;
+        colors[3 * pixel] = (float) Math.min(1, light.red / whiteIntensity);
+        colors[3 * pixel + 1] = (float) Math.min(1, light.green / whiteIntensity);
+        colors[3 * pixel + 2] = (float) Math.min(1, light.blue / whiteIntensity);
+        distances[pixel] = distance;
+        hitObjects[pixel] = hitObject;
+    }
+
+    /**
+     * Writes the light of the center sample of a pixel to out
+     * @return out
+     */
+    public LightIntensity getLight(int x, int y, LightIntensity out) {
+        int pixel = y * width + x;
+        out.red = lights[3 * pixel];
+        out.green = lights[3 * pixel + 1];
+        out.blue = lights[3 * pixel + 2];
+        return out;
+    }
+
+    /**
+     * Checks whether an edge runs between the pixel and any of its four neighbours: they hit different objects, at
+     * very different distances, or their displayed colors differ by more than contrastThreshold in any channel
+     */
+    public boolean isEdge(int x, int y, double contrastThreshold) {
+        int pixel = y * width + x;
+        return (x > 0 && differ(pixel, pixel - 1, contrastThreshold))
+                || (x < width - 1 && differ(pixel, pixel + 1, contrastThreshold))
+                || (y > 0 && differ(pixel, pixel - width, contrastThreshold))
+                || (y < height - 1 && differ(pixel, pixel + width, contrastThreshold));
+    }
+
+    private boolean differ(int a, int b, double contrastThreshold) {
+        if (hitObjects[a] != hitObjects[b]) {
+            return true;
+        }
+        double near = Math.min(distances[a], distances[b]);
+        double far = Math.max(distances[a], distances[b]);
+        // Both infinite when nothing was hit, which is no edge
+        if (far - near > DEPTH_THRESHOLD * near) {
+            return true;
+        }
+        return Math.abs(colors[3 * a] - colors[3 * b]) > contrastThreshold
+                || Math.abs(colors[3 * a + 1] - colors[3 * b + 1]) > contrastThreshold
+                || Math.abs(colors[3 * a + 2] - colors[3 * b + 2]) > contrastThreshold;
+    }
+}
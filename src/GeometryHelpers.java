@@ -1,9 +1,6 @@
-import javafx.geometry.Point3D;
-
 import java.awt.*;
 import java.awt.geom.Ellipse2D;
 import java.awt.geom.Point2D;
-import java.util.Random;
 
 public class GeometryHelpers {
     /** Rotates a point about another point by a given angle
@@ -138,7 +135,7 @@ public class GeometryHelpers {
      * @param onto The vector onto which we are projecting.
      * @return The projected vector
      */
-    public static Point3D projectVectorOntoVector(Point3D toProject, Point3D onto) {
+    public static Vector3D projectVectorOntoVector(Vector3D toProject, Vector3D onto) {
         return onto.multiply(toProject.dotProduct(onto) / vectorLengthSquared(onto));
     }
 
@@ -148,14 +145,14 @@ public class GeometryHelpers {
      * @param planeNormal The normal vector of the plane onto which we are projecting
      * @return The projected vector
      */
-    public static Point3D projectVectorOntoPlane(Point3D toProject, Point3D planeNormal) {
+    public static Vector3D projectVectorOntoPlane(Vector3D toProject, Vector3D planeNormal) {
         return toProject.subtract(projectVectorOntoVector(toProject, planeNormal));
     }
 
     /**
      * Returns the squared length of the provided vector
      */
-    public static double vectorLengthSquared(Point3D v) {
+    public static double vectorLengthSquared(Vector3D v) {
         return v.dotProduct(v);
     }
 
@@ -165,26 +162,89 @@ public class GeometryHelpers {
      * @param normal The normal of the refracting surface
      * @param fromIndex Refractive index of the material from which we are transferring
      * @param toIndex Refractive index of the material to which we are transferring
-     * @return
+     * @return The direction of the refracted ray
+     */
+    public static Vector3D refract(Vector3D incidence, Vector3D normal, double fromIndex, double toIndex) {
+        return refract(incidence, normal, fromIndex, toIndex, new Vector3D());
+    }
+
+    /**
+     * Refract's a ray according to snell's law, writing the result to the provided vector instead of allocating one
+     * @param out The vector to which the direction of the refracted ray is written. May be the same as incidence.
+     * @return out
      */
-    public static Point3D refract(Point3D incidence, Point3D normal, double fromIndex, double toIndex) {
+    public static Vector3D refract(Vector3D incidence, Vector3D normal, double fromIndex, double toIndex, Vector3D out) {
         // Snell's law: sin(a1)/sin(a2) = index2/index1
         // Thanks to a dude on SO: https://stackoverflow.com/a/29758766
         double r = fromIndex/toIndex;
-        Point3D negNormal = new Point3D(0,0,0).subtract(normal);
-        double c = normal.dotProduct(incidence);
+        // The formula needs the cosine of the angle of incidence, measured against the normal on the side the ray
+        // comes from. Shapes report outward normals, so the normal is flipped when the ray leaves the shape.
+        double c = -Vector3D.dot(normal, incidence);
+        double side = 1;
+        if (c < 0) {
+            c = -c;
+            side = -1;
+        }
 
-        Point3D refracted = incidence.multiply(r).add(normal.multiply(r*c - Math.sqrt(1 - r*r*(1-c*c))));
-        return refracted.normalize();
+        // NaN past the critical angle (total internal reflection)
+        double normalFactor = side * (r*c - Math.sqrt(1 - r*r*(1-c*c)));
+        return out.set(
+                r * incidence.x + normalFactor * normal.x,
+                r * incidence.y + normalFactor * normal.y,
+                r * incidence.z + normalFactor * normal.z
+        ).normalizeInPlace();
     }
 
 
-    /*
-    * Randomizes three components for a vector and returns it to emulate random light rays in indirect diffuse.
-    * */
-    public static Point3D randVector() {
-        Point3D randVector = new Point3D(Math.random() - 0.5, Math.random() - 0.5, Math.random() - 0.5);
-        return randVector;
+    /**
+     * Turns a point of the unit square into a direction on the hemisphere around the normal, with directions close to
+     * the normal picked more often: the probability density is cos(angle to the normal) / PI, see
+     * cosineHemispherePdf. This matches the cosine in the light reflected by a diffuse surface, so every sample is
+     * worth the same, and evenly spread points still give evenly spread directions.
+     * @param normal The unit normal of the surface
+     * @param u Picks the angle around the normal, from 0 to 1
+     * @param v Picks the distance from the normal, from 0 to 1
+     * @return The unit direction
+     */
+    public static Vector3D sampleCosineHemisphere(Vector3D normal, double u, double v) {
+        // A uniform point on the unit disk, lifted up onto the hemisphere
+        double radius = Math.sqrt(v);
+        double phi = 2 * Math.PI * u;
+        double a = radius * Math.cos(phi);
+        double b = radius * Math.sin(phi);
+        double cosTheta = Math.sqrt(Math.max(0, 1 - v));
+
+        Vector3D tangent = new Vector3D();
+        Vector3D bitangent = new Vector3D();
+        buildOrthonormalBasis(normal, tangent, bitangent);
+        return new Vector3D(
+                a * tangent.x + b * bitangent.x + cosTheta * normal.x,
+                a * tangent.y + b * bitangent.y + cosTheta * normal.y,
+                a * tangent.z + b * bitangent.z + cosTheta * normal.z);
+    }
+
+    /**
+     * Finds two unit vectors perpendicular to the normal and to each other, such that tangent x bitangent = normal
+     * (Duff et al., "Building an Orthonormal Basis, Revisited"). The angle 0 of sampleCosineHemisphere points along
+     * the tangent.
+     * @param normal A unit vector
+     * @param tangent Receives the first vector
+     * @param bitangent Receives the second vector
+     */
+    public static void buildOrthonormalBasis(Vector3D normal, Vector3D tangent, Vector3D bitangent) {
+        double sign = Math.copySign(1.0, normal.z);
+        double p = -1 / (sign + normal.z);
+        double q = normal.x * normal.y * p;
+        tangent.set(1 + sign * normal.x * normal.x * p, sign * q, -sign * normal.x);
+        bitangent.set(q, sign + normal.y * normal.y * p, -normal.y);
+    }
+
+    /**
+     * Returns the probability density with which sampleCosineHemisphere picks a direction
+     * @param cosTheta The cosine of the angle between the direction and the normal
+     */
+    public static double cosineHemispherePdf(double cosTheta) {
+        return cosTheta > 0 ? cosTheta / Math.PI : 0;
     }
 
     /**
@@ -193,9 +253,22 @@ public class GeometryHelpers {
      * @param normal The normal of the reflecting surface
      * @return The reflected vector
      */
-    public static Point3D reflect(Point3D incidence, Point3D normal) {
-        return incidence.subtract(
-                incidence.subtract(GeometryHelpers.projectVectorOntoVector(incidence, normal)).multiply(2))
-                .multiply(-1);
+    public static Vector3D reflect(Vector3D incidence, Vector3D normal) {
+        return reflect(incidence, normal, new Vector3D());
+    }
+
+    /**
+     * Reflects the given vector through the given normal, writing the result to the provided vector instead of
+     * allocating one
+     * @param out The vector to which the reflected vector is written. May be the same as incidence.
+     * @return out
+     */
+    public static Vector3D reflect(Vector3D incidence, Vector3D normal, Vector3D out) {
+        // incidence - 2 * (projection of incidence onto the normal)
+        double factor = 2 * Vector3D.dot(incidence, normal) / Vector3D.dot(normal, normal);
+        return out.set(
+                incidence.x - factor * normal.x,
+                incidence.y - factor * normal.y,
+                incidence.z - factor * normal.z);
     }
 }
@@ -0,0 +1,38 @@
+/**
+ * Takes the points from the Halton sequence in bases 2 and 3. Consecutive points of the sequence fill the square
+ * evenly, and every pixel sample continues where the previous one stopped, so the points of all passes together are
+ * spread evenly too.
+ *
+ * All pixels would see the same points, which shows up as patterns in the image, so the points are shifted by a random
+ * offset for every pixel and dimension (a Cranley-Patterson rotation).
+ */
+class HaltonSampler extends Sampler {
+    @Override
+    public void sample2D(int dimension, int i, int count) {
+        long index = sampleIndex * count + i;
+        long seed = scrambleSeed(dimension);
+        u = fraction(radicalInverse2(index) + (seed >>> 11) * 0x1p-53);
+        v = fraction(radicalInverse3(index) + (mix(seed) >>> 11) * 0x1p-53);
+    }
+
+    // Mirrors the binary digits of index around the point
+    private static double radicalInverse2(long index) {
+        return (Long.reverse(index) >>> 11) * 0x1p-53;
+    }
+
+    // Mirrors the ternary digits of index around the point
+    private static double radicalInverse3(long index) {
+        double result = 0;
+        double digitValue = 1.0 / 3;
+        while (index > 0) {
+            result += (index % 3) * digitValue;
+            index /= 3;
+            digitValue /= 3;
+        }
+        return result;
+    }
+
+    private static double fraction(double x) {
+        return x >= 1 ? x - 1 : x;
+    }
+}
@@ -0,0 +1,66 @@
+/**
+ * Describes the closest intersection found so far while casting a ray. Unlike IntersectionData, a HitRecord is meant to
+ * be reused: shapes fill it in only when they are hit closer than the current best, so finding the closest hit is a
+ * running minimum over the distance t. The world-space point is not stored - it is computed once for the final hit.
+ */
+public class HitRecord {
+    // Distance from the ray origin to the intersection. Infinity if nothing was hit yet.
+    public double t;
+    // Normal of the shape at the point of intersection
+    public final Vector3D normal = new Vector3D();
+    // Whether the ray hit the shape from the inside
+    public boolean inside;
+    public Shape3D shape;
+    // The solid that was hit, if the shape belongs to a solid
+    public Solid solid;
+    // Index of the material of the solid in the material table of the BVH, or -1 if not known
+    public int material;
+
+    public HitRecord() {
+        reset();
+    }
+
+    /**
+     * Forgets the current hit, so that the record can be used for casting another ray
+     * @return this
+     */
+    public HitRecord reset() {
+        t = Double.POSITIVE_INFINITY;
+        inside = false;
+        shape = null;
+        solid = null;
+        material = -1;
+        return this;
+    }
+
+    /**
+     * Checks whether anything was hit since the last reset
+     */
+    public boolean isHit() {
+        return t != Double.POSITIVE_INFINITY;
+    }
+
+    /**
+     * Computes the point of intersection
+     * @param ray The ray that was cast to fill this record
+     */
+    public Vector3D getPoint(Ray ray) {
+        return ray.getPointAtDistance(t);
+    }
+
+    /**
+     * Builds the IntersectionData for the recorded hit. The record can be reused afterwards.
+     * @param ray The ray that was cast to fill this record
+     */
+    public IntersectionData toIntersectionData(Ray ray) {
+        return new IntersectionData(getPoint(ray), inside, shape, new Vector3D(normal));
+    }
+
+    /**
+     * Builds the Solid.Intersection for the recorded hit. The record can be reused afterwards.
+     * @param ray The ray that was cast to fill this record
+     */
+    public Solid.Intersection toIntersection(Ray ray) {
+        return solid.new Intersection(toIntersectionData(ray), solid);
+    }
+}
@@ -1,5 +1,3 @@
-import javafx.geometry.Point3D;
-
 /**
  * The elementary step to any shading model requires as much information from the Intersection before preceding
  * further despite the depth of shading algorithm/optimizations utilized. Moreover, IntersectionData is a class
@@ -7,18 +5,28 @@ import javafx.geometry.Point3D;
  * @author Pietro
  */
 public class IntersectionData {
-    public Point3D pointOfIntersection;
+    public Vector3D pointOfIntersection;
     public boolean collidedInside;
     public Shape3D shape;
+    // Computed on the first call to getNormal, unless it was known when the intersection was found
+    private Vector3D normal;
 
-    public IntersectionData(Point3D pointOfIntersection, boolean collidedInside, Shape3D shape) {
+    public IntersectionData(Vector3D pointOfIntersection, boolean collidedInside, Shape3D shape) {
         this.pointOfIntersection = pointOfIntersection;
         this.collidedInside = collidedInside;
         this.shape = shape;
     }
 
-    public Point3D getNormal() {
-        return this.shape.getNormalAtPoint(this.pointOfIntersection);
+    public IntersectionData(Vector3D pointOfIntersection, boolean collidedInside, Shape3D shape, Vector3D normal) {
+        this(pointOfIntersection, collidedInside, shape);
+        this.normal = normal;
+    }
+
+    public Vector3D getNormal() {
+        if (normal == null) {
+            normal = this.shape.getNormalAtPoint(this.pointOfIntersection);
+        }
+        return normal;
     }
 
     public IntersectionData(){}
@@ -0,0 +1,85 @@
+/**
+ * Ray-primitive intersection tests working on PackedPrimitives and RayPackets instead of single shapes. There are two
+ * kinds of kernels: one ray against the spheres (or faces) start..end of the arrays - usually the range of a BVH leaf,
+ * and a packet of rays against a single primitive.
+ *
+ * The plain Java ScalarIntersectionKernels are used by default. The implementation using the incubating Vector API
+ * (VectorIntersectionKernels, in the vector directory) is only compiled by the vector-kernels and benchmarks Maven
+ * profiles, and only used with -Draytracer.vectorKernels=true if the jdk.incubator.vector module is available - the
+ * JVM has to be started with --add-modules jdk.incubator.vector. On JDK 17 it is slower than the scalar kernels (about
+ * 290 vs 220 ns per closest hit on 9spheres) and allocates, since some of its vectors are boxed. Both give exactly the
+ * same results as the intersect and intersectsSegment methods of Sphere and RectFace.
+ */
+abstract class IntersectionKernels {
+    private static final IntersectionKernels INSTANCE = load();
+
+    /**
+     * Returns the kernels chosen for this JVM
+     */
+    static IntersectionKernels get() {
+        return INSTANCE;
+    }
+
+    private static IntersectionKernels load() {
+        if (Boolean.getBoolean("raytracer.vectorKernels")) {
+            if (ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) {
+                System.err.println("Vector API kernels need --add-modules jdk.incubator.vector, using scalar kernels");
+                return new ScalarIntersectionKernels();
+            }
+            try {
+                // Loaded by name, since it is only compiled with the vector-kernels profile
+                return (IntersectionKernels) Class.forName("VectorIntersectionKernels")
+                        .getDeclaredConstructor().newInstance();
+            } catch (ClassNotFoundException e) {
+                System.err.println("Vector API kernels not compiled (vector-kernels profile), using scalar kernels");
+            } catch (ReflectiveOperationException | LinkageError e) {
+                System.err.println("Vector API kernels not available, using scalar kernels: " + e);
+            }
+        }
+        return new ScalarIntersectionKernels();
+    }
+
+    /**
+     * Returns the number of primitives (or rays) tested at once. The packed arrays are padded to a multiple of it.
+     */
+    abstract int getLaneCount();
+
+    /**
+     * Returns a short description of the kernels, e.g. "Vector API, 4 lanes"
+     */
+    abstract String getDescription();
+
+    /**
+     * Finds the closest of the spheres start..end hit by the ray between tMin and tMax
+     * @return The index of the sphere in the arrays, or -1 if none is hit
+     */
+    abstract int findClosestSphere(PackedPrimitives primitives, int start, int end, Ray ray, double tMin, double tMax);
+
+    /**
+     * Finds the closest of the faces start..end hit by the ray between tMin and tMax
+     * @return The index of the face in the arrays, or -1 if none is hit
+     */
+    abstract int findClosestRect(PackedPrimitives primitives, int start, int end, Ray ray, double tMin, double tMax);
+
+    /**
+     * Checks whether the ray hits any of the spheres start..end between minDistance and maxDistance
+     */
+    abstract boolean hitsAnySphere(PackedPrimitives primitives, int start, int end, Ray ray,
+                                    double minDistance, double maxDistance);
+
+    /**
+     * Checks whether the ray hits any of the faces start..end between minDistance and maxDistance
+     */
+    abstract boolean hitsAnyRect(PackedPrimitives primitives, int start, int end, Ray ray,
+                                  double minDistance, double maxDistance);
+
+    /**
+     * Marks the rays of the packet that hit sphere i within their segments as occluded
+     */
+    abstract void occludeBySphere(RayPacket packet, PackedPrimitives primitives, int i);
+
+    /**
+     * Marks the rays of the packet that hit face i within their segments as occluded
+     */
+    abstract void occludeByRect(RayPacket packet, PackedPrimitives primitives, int i);
+}
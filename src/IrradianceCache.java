@@ -0,0 +1,437 @@
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Remembers the indirect light computed at points of the scene, so that nearby diffuse hits can interpolate it instead
+ * of shooting a whole hemisphere of rays again (Ward's irradiance caching). Indirect light usually changes slowly over
+ * a surface, so a few records are enough to cover a whole wall.
+ *
+ * Every record stores the light at its point together with how fast it changes when the point moves or the normal
+ * turns (Ward and Heckbert's gradients), and a radius within which it can be used. The radius is the harmonic mean
+ * distance to the surfaces its rays hit - close to other objects, the light changes quickly.
+ *
+ * The records are kept in an octree. A record is stored on the deepest level whose nodes are at least as big as the
+ * area it covers, in every node of that level the area overlaps - at most eight. A lookup then only has to walk down
+ * the nodes containing the point. The cache is shared by all rendering threads: looking up records takes no locks,
+ * and inserting one replaces the record arrays of its nodes atomically. The children of a node are replaced the same
+ * way, which keeps lookups to a single volatile read per node.
+ *
+ * The records are in world space and do not depend on the camera, so they stay valid while the camera moves.
+ */
+public class IrradianceCache {
+    // Nodes below this depth are not split any further
+    private static final int MAX_DEPTH = 16;
+    // Limits of the radius of the records, as fractions of the size of the scene. Without a minimum, corners would be
+    // filled with tiny records. Without a maximum, records in open space would be used too far away.
+    private static final double MIN_RADIUS_FRACTION = 0.002;
+    private static final double MAX_RADIUS_FRACTION = 0.1;
+    // Records further in front of the point than this fraction of their radius are skipped, as they see a different
+    // part of the scene
+    private static final double MAX_DISTANCE_IN_FRONT = 0.05;
+
+    /**
+     * The indirect light at a single point, computed from a full hemisphere of rays. Created by createRecord.
+     */
+    public static class Record {
+        // The position and normal are copied into the record, as lookups test many records
+        final double x, y, z;
+        final double normalX, normalY, normalZ;
+        // The average radiance arriving at the point, which is the irradiance divided by PI. Multiplied by the
+        // diffuse reflectivity, it gives the reflected indirect light.
+        final LightIntensity irradiance;
+        // How far the record can be used, before multiplying by the maximum error
+        final double radius;
+        // The square of the distance within which the record can be used, which is the radius times the maximum error
+        final double reachSquared;
+        // Change of the irradiance when the normal is rotated and when the point is moved. Stored as the x, y and z
+        // components for red, then for green, then for blue.
+        final double[] rotationGradient;
+        final double[] translationGradient;
+
+        private Record(Vector3D position, Vector3D normal, LightIntensity irradiance, double radius, double maxError,
+                       double[] rotationGradient, double[] translationGradient) {
+            this.x = position.x;
+            this.y = position.y;
+            this.z = position.z;
+            this.normalX = normal.x;
+            this.normalY = normal.y;
+            this.normalZ = normal.z;
+            this.irradiance = irradiance;
+            this.radius = radius;
+            this.reachSquared = (maxError * radius) * (maxError * radius);
+            this.rotationGradient = rotationGradient;
+            this.translationGradient = translationGradient;
+        }
+
+        public LightIntensity getIrradiance() {
+            return irradiance;
+        }
+
+        public double getRadius() {
+            return radius;
+        }
+    }
+
+    /**
+     * The rays shot to compute a record. The hemisphere is split into thetaCount rings of equal projected area and
+     * phiCount sectors, and every cell gets one cosine distributed ray: the v coordinate of
+     * GeometryHelpers.sampleCosineHemisphere is (ring + jitter) / thetaCount and the u coordinate is
+     * (sector + jitter) / phiCount. Cell (ring, sector) is stored at index ring * phiCount + sector.
+     */
+    public static class HemisphereSamples {
+        final int thetaCount, phiCount;
+        final double[] u, v;
+        final double[] red, green, blue;
+        // Distance to the surface hit by the ray, infinity if it hit nothing
+        final double[] distance;
+
+        /**
+         * Splits about sampleCount rays into rings and sectors. Sectors are narrower than rings are deep, so the cells
+         * are roughly square.
+         */
+        public HemisphereSamples(int sampleCount) {
+            thetaCount = Math.max(1, (int) Math.round(Math.sqrt(sampleCount / Math.PI)));
+            phiCount = Math.max(1, (int) Math.round((double) sampleCount / thetaCount));
+            int cellCount = thetaCount * phiCount;
+            u = new double[cellCount];
+            v = new double[cellCount];
+            red = new double[cellCount];
+            green = new double[cellCount];
+            blue = new double[cellCount];
+            distance = new double[cellCount];
+        }
+
+        public int getCount() {
+            return u.length;
+        }
+
+        /**
+         * Places ray i in its cell, given a jitter point from [0, 1)^2. Returns the u coordinate to sample the
+         * hemisphere with, the v coordinate is getV(i).
+         */
+        public double placeSample(int i, double jitterU, double jitterV) {
+            u[i] = (i % phiCount + jitterU) / phiCount;
+            v[i] = (i / phiCount + jitterV) / thetaCount;
+            return u[i];
+        }
+
+        public double getV(int i) {
+            return v[i];
+        }
+
+        /**
+         * Stores what ray i found
+         */
+        public void setResult(int i, LightIntensity radiance, double distance) {
+            red[i] = radiance.red;
+            green[i] = radiance.green;
+            blue[i] = radiance.blue;
+            this.distance[i] = distance;
+        }
+    }
+
+    /**
+     * A cube of space. Children are created when the first record is inserted into them.
+     */
+    private static class Node {
+        final double centerX, centerY, centerZ, halfSize;
+        final AtomicReference<Record[]> records = new AtomicReference<>(new Record[0]);
+        // The eight children, some of them null. The array is never changed once published - adding a child replaces
+        // it. Null until the first child is added.
+        final AtomicReference<Node[]> children = new AtomicReference<>();
+
+        Node(double centerX, double centerY, double centerZ, double halfSize) {
+            this.centerX = centerX;
+            this.centerY = centerY;
+            this.centerZ = centerZ;
+            this.halfSize = halfSize;
+        }
+
+        int getChildIndex(Vector3D p) {
+            return (p.x >= centerX ? 1 : 0) | (p.y >= centerY ? 2 : 0) | (p.z >= centerZ ? 4 : 0);
+        }
+
+        // Whether the cube overlaps the cube around the point with the given half size
+        boolean overlaps(double x, double y, double z, double reach) {
+            double limit = halfSize + reach;
+            return Math.abs(x - centerX) <= limit && Math.abs(y - centerY) <= limit && Math.abs(z - centerZ) <= limit;
+        }
+
+        void add(Record record) {
+            while (true) {
+                Record[] current = records.get();
+                Record[] extended = new Record[current.length + 1];
+                System.arraycopy(current, 0, extended, 0, current.length);
+                extended[current.length] = record;
+                if (records.compareAndSet(current, extended)) {
+                    return;
+                }
+            }
+        }
+
+        Node getOrCreateChild(int index) {
+            double offset = halfSize / 2;
+            Node child = null;
+            while (true) {
+                Node[] current = children.get();
+                if (current != null && current[index] != null) {
+                    return current[index];
+                }
+                if (child == null) {
+                    child = new Node(
+                            centerX + ((index & 1) != 0 ? offset : -offset),
+                            centerY + ((index & 2) != 0 ? offset : -offset),
+                            centerZ + ((index & 4) != 0 ? offset : -offset),
+                            offset);
+                }
+                Node[] updated = current != null ? current.clone() : new Node[8];
+                updated[index] = child;
+                if (children.compareAndSet(current, updated)) {
+                    return child;
+                }
+            }
+        }
+    }
+
+    private final Node root;
+    private final double maxError;
+    private final double minRadius, maxRadius;
+    private final AtomicInteger size = new AtomicInteger();
+
+    /**
+     * Creates an empty cache
+     * @param sceneBounds The bounds of the solids of the scene
+     * @param maxError How far records are used: a record is used where its position, divided by its radius, plus its
+     *                 normal differ from the point's by less than this. Smaller values give more precise, but more
+     *                 records. Ward suggests 0.1 to 0.2.
+     */
+    public IrradianceCache(BoundingBox sceneBounds, double maxError) {
+        if (!(maxError > 0)) {
+            throw new IllegalArgumentException("The maximum error of the irradiance cache must be positive");
+        }
+        this.maxError = maxError;
+        double size = 1;
+        double centerX = 0, centerY = 0, centerZ = 0;
+        if (!sceneBounds.isEmpty()) {
+            size = Math.max(sceneBounds.maxX - sceneBounds.minX,
+                    Math.max(sceneBounds.maxY - sceneBounds.minY, sceneBounds.maxZ - sceneBounds.minZ));
+            size = Math.max(size, 1e-6);
+            centerX = (sceneBounds.minX + sceneBounds.maxX) / 2;
+            centerY = (sceneBounds.minY + sceneBounds.maxY) / 2;
+            centerZ = (sceneBounds.minZ + sceneBounds.maxZ) / 2;
+        }
+        root = new Node(centerX, centerY, centerZ, size / 2);
+        minRadius = MIN_RADIUS_FRACTION * size;
+        maxRadius = MAX_RADIUS_FRACTION * size;
+    }
+
+    public double getMaxError() {
+        return maxError;
+    }
+
+    /**
+     * Returns the number of records in the cache
+     */
+    public int size() {
+        return size.get();
+    }
+
+    /**
+     * Computes a record from the rays of a hemisphere, using Ward and Heckbert's formulas for the gradients. The
+     * radius is limited so that the translation gradient cannot change the irradiance by more than itself within it.
+     * @param position The point the rays were shot from
+     * @param normal The unit normal at the point, around which the rays were shot
+     */
+    public Record createRecord(Vector3D position, Vector3D normal, HemisphereSamples samples) {
+        int thetaCount = samples.thetaCount;
+        int phiCount = samples.phiCount;
+        int cellCount = thetaCount * phiCount;
+        Vector3D tangent = new Vector3D();
+        Vector3D bitangent = new Vector3D();
+        GeometryHelpers.buildOrthonormalBasis(normal, tangent, bitangent);
+        double[][] radiance = {samples.red, samples.green, samples.blue};
+
+        LightIntensity irradiance = LightIntensity.makeZero();
+        double inverseDistanceSum = 0;
+        double[] rotationGradient = new double[9];
+        for (int i = 0; i < cellCount; ++i) {
+            irradiance.red += samples.red[i];
+            irradiance.green += samples.green[i];
+            irradiance.blue += samples.blue[i];
+            inverseDistanceSum += 1 / samples.distance[i];
+
+            // Turning the normal towards a ray changes its cosine by tan(theta) times the angle, relative to the
+            // cosine the ray was picked with
+            double sinThetaSquared = samples.v[i];
+            double tanTheta = Math.sqrt(sinThetaSquared / Math.max(1e-6, 1 - sinThetaSquared));
+            double phi = 2 * Math.PI * samples.u[i];
+            double cosPhi = Math.cos(phi);
+            double sinPhi = Math.sin(phi);
+            // The direction in the tangent plane perpendicular to the ray
+            double px = cosPhi * bitangent.x - sinPhi * tangent.x;
+            double py = cosPhi * bitangent.y - sinPhi * tangent.y;
+            double pz = cosPhi * bitangent.z - sinPhi * tangent.z;
+            for (int c = 0; c < 3; ++c) {
+                double weight = tanTheta * radiance[c][i] / cellCount;
+                rotationGradient[3 * c] += weight * px;
+                rotationGradient[3 * c + 1] += weight * py;
+                rotationGradient[3 * c + 2] += weight * pz;
+            }
+        }
+        irradiance.multiplyInPlace(1.0 / cellCount);
+
+        double[] translationGradient = new double[9];
+        for (int k = 0; k < phiCount; ++k) {
+            // Between rings: moving towards the middle of the sector moves the ring borders of its nearby surfaces
+            double sectorPhi = 2 * Math.PI * (k + 0.5) / phiCount;
+            double ux = Math.cos(sectorPhi) * tangent.x + Math.sin(sectorPhi) * bitangent.x;
+            double uy = Math.cos(sectorPhi) * tangent.y + Math.sin(sectorPhi) * bitangent.y;
+            double uz = Math.cos(sectorPhi) * tangent.z + Math.sin(sectorPhi) * bitangent.z;
+            for (int j = 1; j < thetaCount; ++j) {
+                int cell = j * phiCount + k;
+                int inner = cell - phiCount;
+                double sinTheta = Math.sqrt((double) j / thetaCount);
+                double cosThetaSquared = 1 - (double) j / thetaCount;
+                double factor = 2 * Math.PI / phiCount * sinTheta * cosThetaSquared
+                        / Math.min(samples.distance[cell], samples.distance[inner]);
+                for (int c = 0; c < 3; ++c) {
+                    double change = factor * (radiance[c][cell] - radiance[c][inner]);
+                    translationGradient[3 * c] += change * ux;
+                    translationGradient[3 * c + 1] += change * uy;
+                    translationGradient[3 * c + 2] += change * uz;
+                }
+            }
+
+            // Between sectors: moving sideways across the border with the previous sector
+            double borderPhi = 2 * Math.PI * k / phiCount;
+            double vx = Math.cos(borderPhi) * bitangent.x - Math.sin(borderPhi) * tangent.x;
+            double vy = Math.cos(borderPhi) * bitangent.y - Math.sin(borderPhi) * tangent.y;
+            double vz = Math.cos(borderPhi) * bitangent.z - Math.sin(borderPhi) * tangent.z;
+            int previous = (k + phiCount - 1) % phiCount;
+            for (int j = 0; j < thetaCount; ++j) {
+                int cell = j * phiCount + k;
+                int neighbour = j * phiCount + previous;
+                double factor = (Math.sqrt((double) (j + 1) / thetaCount) - Math.sqrt((double) j / thetaCount))
+                        / Math.min(samples.distance[cell], samples.distance[neighbour]);
+                for (int c = 0; c < 3; ++c) {
+                    double change = factor * (radiance[c][cell] - radiance[c][neighbour]);
+                    translationGradient[3 * c] += change * vx;
+                    translationGradient[3 * c + 1] += change * vy;
+                    translationGradient[3 * c + 2] += change * vz;
+                }
+            }
+        }
+        // The formulas give the gradient of the irradiance, and the record stores it divided by PI
+        for (int i = 0; i < 9; ++i) {
+            translationGradient[i] /= Math.PI;
+        }
+
+        double radius = inverseDistanceSum > 0 ? cellCount / inverseDistanceSum : Double.POSITIVE_INFINITY;
+        double[] channels = {irradiance.red, irradiance.green, irradiance.blue};
+        for (int c = 0; c < 3; ++c) {
+            double gradientLength = Math.sqrt(translationGradient[3 * c] * translationGradient[3 * c]
+                    + translationGradient[3 * c + 1] * translationGradient[3 * c + 1]
+                    + translationGradient[3 * c + 2] * translationGradient[3 * c + 2]);
+            if (gradientLength > 0) {
+                radius = Math.min(radius, channels[c] / gradientLength);
+            }
+        }
+        radius = Math.min(Math.max(radius, minRadius), maxRadius);
+        return new Record(position, normal, irradiance, radius, maxError,
+                rotationGradient, translationGradient);
+    }
+
+    /**
+     * Adds a record to the cache. Can be called by several threads at once, also while others look records up.
+     * @return False if the area the record covers lies outside of the cache, in which case it is not stored
+     */
+    public boolean insert(Record record) {
+        double reach = maxError * record.radius;
+        if (!root.overlaps(record.x, record.y, record.z, reach)) {
+            return false;
+        }
+        insert(root, 0, record, reach);
+        size.incrementAndGet();
+        return true;
+    }
+
+    private void insert(Node node, int depth, Record record, double reach) {
+        // The children are at least as big as the area the record covers, so it is passed down to them
+        if (depth < MAX_DEPTH && node.halfSize / 2 >= reach) {
+            for (int i = 0; i < 8; ++i) {
+                double offset = node.halfSize / 2;
+                double childX = node.centerX + ((i & 1) != 0 ? offset : -offset);
+                double childY = node.centerY + ((i & 2) != 0 ? offset : -offset);
+                double childZ = node.centerZ + ((i & 4) != 0 ? offset : -offset);
+                double limit = offset + reach;
+                if (Math.abs(record.x - childX) <= limit && Math.abs(record.y - childY) <= limit
+                        && Math.abs(record.z - childZ) <= limit) {
+                    insert(node.getOrCreateChild(i), depth + 1, record, reach);
+                }
+            }
+        } else {
+            node.add(record);
+        }
+    }
+
+    /**
+     * Interpolates the records that are close enough to the point and face the same way, weighted by how close they
+     * are. The weight of a record drops to zero at the edge of the area it covers, so moving across it gives no seam.
+     * @param position The point of a diffuse surface
+     * @param normal The unit normal at the point
+     * @param result Receives the average radiance at the point, like Record.irradiance, if the point is covered
+     * @return Whether any record covers the point. The result is not touched if not.
+     */
+    public boolean lookup(Vector3D position, Vector3D normal, LightIntensity result) {
+        double red = 0, green = 0, blue = 0, weightSum = 0;
+        Node node = root;
+        while (node != null) {
+            for (Record record : node.records.get()) {
+                double dx = position.x - record.x;
+                double dy = position.y - record.y;
+                double dz = position.z - record.z;
+                double distanceSquared = dx * dx + dy * dy + dz * dz;
+                if (distanceSquared >= record.reachSquared) {
+                    continue;
+                }
+                // Skip records in front of the point, which may see light the point does not
+                double inFront = (dx * (normal.x + record.normalX) + dy * (normal.y + record.normalY)
+                        + dz * (normal.z + record.normalZ)) / 2;
+                if (inFront < -MAX_DISTANCE_IN_FRONT * record.radius) {
+                    continue;
+                }
+                double cosine = Vector3D.dot(normal.x, normal.y, normal.z, record.normalX, record.normalY, record.normalZ);
+                double error = Math.sqrt(distanceSquared) / record.radius + Math.sqrt(Math.max(0, 1 - cosine));
+                if (error >= maxError) {
+                    continue;
+                }
+                double weight = 1 / Math.max(error, 1e-6) - 1 / maxError;
+                // How much the normal is turned relative to the record's, as an axis scaled by the angle
+                double rx = record.normalY * normal.z - record.normalZ * normal.y;
+                double ry = record.normalZ * normal.x - record.normalX * normal.z;
+                double rz = record.normalX * normal.y - record.normalY * normal.x;
+                double[] rotation = record.rotationGradient;
+                double[] translation = record.translationGradient;
+                red += weight * (record.irradiance.red
+                        + rx * rotation[0] + ry * rotation[1] + rz * rotation[2]
+                        + dx * translation[0] + dy * translation[1] + dz * translation[2]);
+                green += weight * (record.irradiance.green
+                        + rx * rotation[3] + ry * rotation[4] + rz * rotation[5]
+                        + dx * translation[3] + dy * translation[4] + dz * translation[5]);
+                blue += weight * (record.irradiance.blue
+                        + rx * rotation[6] + ry * rotation[7] + rz * rotation[8]
+                        + dx * translation[6] + dy * translation[7] + dz * translation[8]);
+                weightSum += weight;
+            }
+            Node[] children = node.children.get();
+            node = children != null ? children[node.getChildIndex(position)] : null;
+        }
+        if (weightSum <= 0) {
+            return false;
+        }
+        result.red = Math.max(0, red / weightSum);
+        result.green = Math.max(0, green / weightSum);
+        result.blue = Math.max(0, blue / weightSum);
+        return true;
+    }
+}
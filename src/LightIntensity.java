@@ -92,6 +92,13 @@ public class LightIntensity {
         return red + green + blue < epsilon;
     }
 
+    /**
+     * Returns the largest of the three components
+     */
+    public double getMaximum() {
+        return Math.max(red, Math.max(green, blue));
+    }
+
     /**
      * Returns this LightIntensity with its components multiplied by the respective components of another LightIntensity
      */
@@ -103,6 +110,88 @@ public class LightIntensity {
         return result;
     }
 
+    // The methods below modify this LightIntensity instead of creating a new one. They are meant for accumulating light
+    // while tracing rays, where the immutable operations above would create millions of short-lived objects. All of
+    // them return this, so that they can be chained.
+
+    /**
+     * Copies the components of another LightIntensity into this one
+     */
+    public LightIntensity set(LightIntensity other) {
+        red = other.red;
+        green = other.green;
+        blue = other.blue;
+        return this;
+    }
+
+    /**
+     * Sets all components of this LightIntensity to zero
+     */
+    public LightIntensity setZero() {
+        red = green = blue = 0;
+        return this;
+    }
+
+    /**
+     * this += other
+     */
+    public LightIntensity addInPlace(LightIntensity other) {
+        red += other.red;
+        green += other.green;
+        blue += other.blue;
+        return this;
+    }
+
+    /**
+     * this *= factor
+     */
+    public LightIntensity multiplyInPlace(double factor) {
+        red *= factor;
+        green *= factor;
+        blue *= factor;
+        return this;
+    }
+
+    /**
+     * this *= other, where the multiplication is done component-wise
+     */
+    public LightIntensity multiplyInPlace(LightIntensity other) {
+        red *= other.red;
+        green *= other.green;
+        blue *= other.blue;
+        return this;
+    }
+
+    /**
+     * this += other * factor
+     */
+    public LightIntensity addScaled(LightIntensity other, double factor) {
+        red += other.red * factor;
+        green += other.green * factor;
+        blue += other.blue * factor;
+        return this;
+    }
+
+    /**
+     * this += a * b, where the multiplication is done component-wise
+     */
+    public LightIntensity accumulateProduct(LightIntensity a, LightIntensity b) {
+        red += a.red * b.red;
+        green += a.green * b.green;
+        blue += a.blue * b.blue;
+        return this;
+    }
+
+    /**
+     * this += a * b * factor, where the multiplication of a and b is done component-wise
+     */
+    public LightIntensity mulAdd(LightIntensity a, LightIntensity b, double factor) {
+        red += a.red * b.red * factor;
+        green += a.green * b.green * factor;
+        blue += a.blue * b.blue * factor;
+        return this;
+    }
+
     /**
      * Creates a LightIntensity with equal components.
      */
@@ -1,5 +1,3 @@
-import javafx.geometry.Point3D;
-
 /**
  * Small structure describing a rectangular light source
  */
@@ -23,13 +21,12 @@ public class LightSource {
     private RectFace shape;
 
     /**
-     * Returns a random point on the surface of the light source
+     * Returns a point on the surface of the light source
+     * @param u How far the point is along the top edge, from 0 to 1
+     * @param v How far the point is along the left edge, from 0 to 1
      */
-    public Point3D getRandomPoint() {
-        double x = shape.getWidth() * Math.random();
-        double y = shape.getHeight() * Math.random();
-
-        return shape.getWorldPointAt(x, y);
+    public Vector3D getPoint(double u, double v) {
+        return shape.getWorldPointAt(u, v);
     }
 
     public LightSource(LightIntensity intensity, RectFace shape) {
@@ -51,4 +48,12 @@ public class LightSource {
         }
         return new Intersection(intersection, this);
     }
+
+    /**
+     * Finds the intersection of the ray with the light source between tMin and tMax from the ray origin, and writes it
+     * to the hit record. Returns false and leaves the record untouched if there is no such intersection.
+     */
+    public boolean intersect(Ray ray, double tMin, double tMax, HitRecord record) {
+        return shape.intersect(ray, tMin, tMax, record);
+    }
 }
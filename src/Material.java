@@ -1,7 +1,3 @@
-import javafx.geometry.Point3D;
-
-import java.awt.image.BufferedImage;
-
 /**
  * A small structure describing the material out of which an object is made
  */
@@ -11,7 +7,9 @@ public class Material {
     public LightIntensity passthroughIntensity;
     public double refractionIndex;
 
-    BufferedImage texture;
+    Texture texture;
+    // How the texture is sampled
+    Texture.Filter textureFilter = Texture.Filter.BILINEAR;
 
     public Material() {
         diffuseReflectivity = new LightIntensity();
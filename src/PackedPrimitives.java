@@ -0,0 +1,201 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The solids of a scene compiled into flat primitive arrays, one array per coordinate ("structure of arrays") and one
+ * set of arrays per type of shape. This way the intersection loops run over plain doubles of a single kind of
+ * primitive, instead of calling Solid and Shape3D methods on objects scattered around the heap, and the
+ * IntersectionKernels can load the same coordinate of several primitives into the lanes of a SIMD register.
+ *
+ * The primitives are stored in the order of the BVH leaves, so every leaf owns a contiguous range of each array. The
+ * range of every leaf starts at a multiple of the kernels' lane count and is followed by padding primitives that can
+ * never be hit, so the kernels do not need a separate loop for the remainder.
+ *
+ * Materials are stored once in a table, and every primitive refers to its material by index.
+ */
+class PackedPrimitives {
+    final Solid[] spheres;
+    final double[] sphereCenterX, sphereCenterY, sphereCenterZ, sphereRadiusSquared, sphereInverseRadius;
+    final int[] sphereMaterial;
+
+    // The edges of a face divided by their squared length. Because the edges are perpendicular, the dot product of
+    // these with a vector from the corner gives the coordinates of the point on the face, from 0 to 1.
+    final Solid[] rects;
+    final double[] rectCornerX, rectCornerY, rectCornerZ;
+    final double[] rectInverseRightX, rectInverseRightY, rectInverseRightZ;
+    final double[] rectInverseDownX, rectInverseDownY, rectInverseDownZ;
+    final double[] rectNormalX, rectNormalY, rectNormalZ, rectPlaneOffset;
+    final int[] rectMaterial;
+
+    // Solids with other shapes, tested one by one
+    final Solid[] others;
+    final int[] otherMaterial;
+
+    final Material[] materials;
+
+    /**
+     * Copies the solids of the leaves into the arrays, and sets the ranges of every leaf
+     */
+    PackedPrimitives(List<BoundingVolumeHierarchy.Node> leaves, int laneCount) {
+        int paddedSpheres = 0;
+        int paddedRects = 0;
+        int otherCount = 0;
+        for (BoundingVolumeHierarchy.Node leaf : leaves) {
+            int sphereCount = 0;
+            int rectCount = 0;
+            for (Solid solid : leaf.solids) {
+                if (solid.getShape() instanceof Sphere) {
+                    ++sphereCount;
+                } else if (solid.getShape() instanceof RectFace) {
+                    ++rectCount;
+                } else {
+                    ++otherCount;
+                }
+            }
+            paddedSpheres += padToLanes(sphereCount, laneCount);
+            paddedRects += padToLanes(rectCount, laneCount);
+        }
+
+        spheres = new Solid[paddedSpheres];
+        sphereCenterX = new double[paddedSpheres];
+        sphereCenterY = new double[paddedSpheres];
+        sphereCenterZ = new double[paddedSpheres];
+        sphereRadiusSquared = new double[paddedSpheres];
+        sphereInverseRadius = new double[paddedSpheres];
+        sphereMaterial = new int[paddedSpheres];
+        // A negative squared radius makes the discriminant negative for every ray, so the padding is never hit
+        Arrays.fill(sphereRadiusSquared, -1);
+
+        rects = new Solid[paddedRects];
+        rectCornerX = new double[paddedRects];
+        rectCornerY = new double[paddedRects];
+        rectCornerZ = new double[paddedRects];
+        rectInverseRightX = new double[paddedRects];
+        rectInverseRightY = new double[paddedRects];
+        rectInverseRightZ = new double[paddedRects];
+        rectInverseDownX = new double[paddedRects];
+        rectInverseDownY = new double[paddedRects];
+        rectInverseDownZ = new double[paddedRects];
+        rectNormalX = new double[paddedRects];
+        rectNormalY = new double[paddedRects];
+        rectNormalZ = new double[paddedRects];
+        rectPlaneOffset = new double[paddedRects];
+        rectMaterial = new int[paddedRects];
+        // The padding keeps a zero normal, which makes the distance to the plane NaN, so it is never hit
+
+        others = new Solid[otherCount];
+        otherMaterial = new int[otherCount];
+
+        List<Material> materialList = new ArrayList<>();
+        Map<Material, Integer> materialIndices = new IdentityHashMap<>();
+        int sphereEnd = 0;
+        int rectEnd = 0;
+        int otherEnd = 0;
+        for (BoundingVolumeHierarchy.Node leaf : leaves) {
+            leaf.sphereStart = sphereEnd;
+            leaf.rectStart = rectEnd;
+            leaf.otherStart = otherEnd;
+            for (Solid solid : leaf.solids) {
+                int material = materialIndices.computeIfAbsent(solid.getMaterial(), m -> {
+                    materialList.add(m);
+                    return materialList.size() - 1;
+                });
+                if (solid.getShape() instanceof Sphere) {
+                    addSphere(sphereEnd++, solid, material);
+                } else if (solid.getShape() instanceof RectFace) {
+                    addRect(rectEnd++, solid, material);
+                } else {
+                    others[otherEnd] = solid;
+                    otherMaterial[otherEnd] = material;
+                    ++otherEnd;
+                }
+            }
+            leaf.sphereEnd = sphereEnd;
+            leaf.rectEnd = rectEnd;
+            leaf.otherEnd = otherEnd;
+            sphereEnd = leaf.sphereStart + padToLanes(sphereEnd - leaf.sphereStart, laneCount);
+            rectEnd = leaf.rectStart + padToLanes(rectEnd - leaf.rectStart, laneCount);
+        }
+        materials = materialList.toArray(new Material[0]);
+    }
+
+    private void addSphere(int i, Solid solid, int material) {
+        Sphere sphere = (Sphere) solid.getShape();
+        spheres[i] = solid;
+        sphereCenterX[i] = sphere.center.x;
+        sphereCenterY[i] = sphere.center.y;
+        sphereCenterZ[i] = sphere.center.z;
+        sphereRadiusSquared[i] = sphere.radius * sphere.radius;
+        sphereInverseRadius[i] = 1.0 / sphere.radius;
+        sphereMaterial[i] = material;
+    }
+
+    private void addRect(int i, Solid solid, int material) {
+        RectFace face = (RectFace) solid.getShape();
+        rects[i] = solid;
+        rectCornerX[i] = face.getTopLeft().x;
+        rectCornerY[i] = face.getTopLeft().y;
+        rectCornerZ[i] = face.getTopLeft().z;
+        rectInverseRightX[i] = face.getInverseRight().x;
+        rectInverseRightY[i] = face.getInverseRight().y;
+        rectInverseRightZ[i] = face.getInverseRight().z;
+        rectInverseDownX[i] = face.getInverseDown().x;
+        rectInverseDownY[i] = face.getInverseDown().y;
+        rectInverseDownZ[i] = face.getInverseDown().z;
+        rectNormalX[i] = face.getNormal().x;
+        rectNormalY[i] = face.getNormal().y;
+        rectNormalZ[i] = face.getNormal().z;
+        rectPlaneOffset[i] = face.getPlaneOffset();
+        rectMaterial[i] = material;
+    }
+
+    /**
+     * Fills in the record for the hit of the ray with sphere i, which the kernels found to be the closest one. Does
+     * the same math as Sphere.intersect, on the arrays.
+     */
+    void recordSphereHit(int i, Ray ray, double tMin, HitRecord record) {
+        Vector3D origin = ray.origin;
+        Vector3D dir = ray.unitDirection;
+        double cox = origin.x - sphereCenterX[i];
+        double coy = origin.y - sphereCenterY[i];
+        double coz = origin.z - sphereCenterZ[i];
+        double b = 2 * Vector3D.dot(cox, coy, coz, dir.x, dir.y, dir.z);
+        double c = Vector3D.dot(cox, coy, coz, cox, coy, coz) - sphereRadiusSquared[i];
+        double sqrtDelta = Math.sqrt(b*b - 4*c);
+        double negT = (-b - sqrtDelta) / 2;
+        double posT = (-b + sqrtDelta) / 2;
+
+        boolean collidedInside = negT <= tMin;
+        double t = collidedInside ? posT : negT;
+        record.t = t;
+        record.inside = collidedInside;
+        record.normal.set(
+                (cox + t * dir.x) * sphereInverseRadius[i],
+                (coy + t * dir.y) * sphereInverseRadius[i],
+                (coz + t * dir.z) * sphereInverseRadius[i]);
+        record.shape = spheres[i].getShape();
+        record.solid = spheres[i];
+        record.material = sphereMaterial[i];
+    }
+
+    /**
+     * Fills in the record for the hit of the ray with face i, which the kernels found to be the closest one
+     */
+    void recordRectHit(int i, Ray ray, HitRecord record) {
+        Vector3D o = ray.origin;
+        Vector3D d = ray.unitDirection;
+        record.t = ScalarIntersectionKernels.rectDistance(this, i, o.x, o.y, o.z, d.x, d.y, d.z);
+        record.inside = Vector3D.dot(rectNormalX[i], rectNormalY[i], rectNormalZ[i], d.x, d.y, d.z) < 0;
+        record.normal.set(rectNormalX[i], rectNormalY[i], rectNormalZ[i]);
+        record.shape = rects[i].getShape();
+        record.solid = rects[i];
+        record.material = rectMaterial[i];
+    }
+
+    private static int padToLanes(int count, int laneCount) {
+        return (count + laneCount - 1) / laneCount * laneCount;
+    }
+}
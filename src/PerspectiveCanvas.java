@@ -1,13 +1,11 @@
-import javafx.geometry.Point3D;
-
 /**
  * Perspective canvas is the 2-dimensional canvas inside a 3-dimensional world, used for projecting objects onto a
  * two dimensional surface.
  */
 public class PerspectiveCanvas {
-    private Point3D center;
-    private Point3D rightDirection;
-    private Point3D upDirection;
+    private Vector3D center;
+    private Vector3D rightDirection;
+    private Vector3D upDirection;
     private double width, height;
 
     /**
@@ -20,10 +18,10 @@ public class PerspectiveCanvas {
      *                              radians
      * @param aspectRatio the ratio of the canvas's width to its height
      */
-    public PerspectiveCanvas(Point3D cameraPoint, Point3D lookingAt, Point3D upDir, double horizontalAngleOfView, double aspectRatio) {
-        center = new Point3D(lookingAt.getX(), lookingAt.getY(), lookingAt.getZ());
+    public PerspectiveCanvas(Vector3D cameraPoint, Vector3D lookingAt, Vector3D upDir, double horizontalAngleOfView, double aspectRatio) {
+        center = new Vector3D(lookingAt.getX(), lookingAt.getY(), lookingAt.getZ());
 
-        Point3D canvasNormal = lookingAt.subtract(cameraPoint);
+        Vector3D canvasNormal = lookingAt.subtract(cameraPoint);
         upDirection = upDir;
         rightDirection = canvasNormal.crossProduct(upDirection).normalize();
         width = 2 * Math.tan(horizontalAngleOfView * 0.5) * canvasNormal.magnitude();
@@ -37,16 +35,42 @@ public class PerspectiveCanvas {
      * @param yRatioCoord A number from 0 to 1 representing the y coordinate on the canvas
      * @return The location of the specified point on the canvas in the 3D world coordinates.
      */
-    public Point3D getWorldPointFromCanvasCoord(double xRatioCoord, double yRatioCoord) {
-        Point3D xDisplacement = rightDirection.multiply((xRatioCoord - 0.5) * width);
-        Point3D yDisplacement = upDirection.multiply((yRatioCoord - 0.5) * height);
-        return center.add(xDisplacement).add(yDisplacement);
+    public Vector3D getWorldPointFromCanvasCoord(double xRatioCoord, double yRatioCoord) {
+        double xDisplacement = (xRatioCoord - 0.5) * width;
+        double yDisplacement = (yRatioCoord - 0.5) * height;
+        return new Vector3D(
+                center.x + xDisplacement * rightDirection.x + yDisplacement * upDirection.x,
+                center.y + xDisplacement * rightDirection.y + yDisplacement * upDirection.y,
+                center.z + xDisplacement * rightDirection.z + yDisplacement * upDirection.z);
+    }
+
+    /**
+     * Finds the point of the canvas through which a point of the 3D world is seen from the eye, the inverse of
+     * getWorldPointFromCanvasCoord. The coordinates are scaled in the same way.
+     * @param eye The location of the observer, whose line of sight goes through the center of the canvas
+     * @param worldPoint The point to project
+     * @param canvasCoord Receives the x and y coordinates on the canvas
+     * @return False if the point is not in front of the eye, in which case canvasCoord is left untouched
+     */
+    public boolean getCanvasCoordFromWorldPoint(Vector3D eye, Vector3D worldPoint, double[] canvasCoord) {
+        double normalX = center.x - eye.x, normalY = center.y - eye.y, normalZ = center.z - eye.z;
+        double dx = worldPoint.x - eye.x, dy = worldPoint.y - eye.y, dz = worldPoint.z - eye.z;
+        double along = Vector3D.dot(dx, dy, dz, normalX, normalY, normalZ);
+        if (!(along > 0)) {
+            return false;
+        }
+        // Where the line from the eye to the point crosses the canvas, relative to the center
+        double t = Vector3D.dot(normalX, normalY, normalZ, normalX, normalY, normalZ) / along;
+        double qx = t * dx - normalX, qy = t * dy - normalY, qz = t * dz - normalZ;
+        canvasCoord[0] = Vector3D.dot(qx, qy, qz, rightDirection.x, rightDirection.y, rightDirection.z) / width + 0.5;
+        canvasCoord[1] = Vector3D.dot(qx, qy, qz, upDirection.x, upDirection.y, upDirection.z) / height + 0.5;
+        return true;
     }
 
     /**
      * @return The horizontal vector parallel to the top and bottom edges of the canvas
      */
-    public Point3D getHorizontalVector() {
-        return new Point3D(rightDirection.getX(), rightDirection.getY(), rightDirection.getZ());
+    public Vector3D getHorizontalVector() {
+        return new Vector3D(rightDirection.getX(), rightDirection.getY(), rightDirection.getZ());
     }
 }
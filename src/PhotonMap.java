@@ -0,0 +1,350 @@
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * The photons that reached diffuse surfaces after passing through refractive solids, stored in a kd-tree so that the
+ * photons around a point can be found quickly. The density of the photons around a point tells how much light the
+ * refractive solids focus there (caustics) - light that shadow rays cannot find, since the solids block them.
+ *
+ * The tree is balanced and implicit: the photons of every subtree are stored in a contiguous range, with the median
+ * photon of the range in the middle, splitting the rest along the axis on which they are spread the most. This needs
+ * no node objects and no pointers. The two halves of every split are built in parallel on the worker threads of a
+ * TileScheduler.
+ */
+public class PhotonMap {
+    // Ranges smaller than this are built on the current thread - forking them would cost more than it saves
+    private static final int PARALLEL_BUILD_THRESHOLD = 8192;
+    // Photons on surfaces whose normal is turned further than this from the point's normal are not counted, so light
+    // does not leak around corners and through thin solids
+    private static final double MIN_NORMAL_COSINE = 0.7;
+
+    /**
+     * Photons collected while tracing, before the tree is built. Every thread fills its own list.
+     */
+    public static class PhotonList {
+        // Position, normal of the surface and power of every photon, 9 values per photon
+        private double[] data = new double[9 * 1024];
+        private int size;
+
+        public void add(Vector3D position, Vector3D normal, double red, double green, double blue) {
+            if (9 * (size + 1) > data.length) {
+                data = Arrays.copyOf(data, 2 * data.length);
+            }
+            int i = 9 * size++;
+            data[i] = position.x;
+            data[i + 1] = position.y;
+            data[i + 2] = position.z;
+            data[i + 3] = normal.x;
+            data[i + 4] = normal.y;
+            data[i + 5] = normal.z;
+            data[i + 6] = red;
+            data[i + 7] = green;
+            data[i + 8] = blue;
+        }
+
+        public int size() {
+            return size;
+        }
+    }
+
+    /**
+     * The closest photons found by a query so far, kept as a max-heap on the squared distance. Every thread has its
+     * own, so queries do not allocate.
+     */
+    private static class Neighbours {
+        double[] distancesSquared = new double[0];
+        int[] indices = new int[0];
+        int count;
+        int capacity;
+        double maxDistanceSquared;
+        // The stack of the search. A balanced tree of up to 2^31 photons is at most 32 levels deep, and every level
+        // leaves at most one range behind.
+        final int[] ranges = new int[2 * 32];
+        final double[] planeDistances = new double[32];
+
+        void reset(int capacity, double maxDistanceSquared) {
+            if (distancesSquared.length < capacity) {
+                distancesSquared = new double[capacity];
+                indices = new int[capacity];
+            }
+            this.capacity = capacity;
+            this.count = 0;
+            this.maxDistanceSquared = maxDistanceSquared;
+        }
+
+        /**
+         * Adds a photon closer than maxDistanceSquared, and returns the new maxDistanceSquared
+         */
+        double add(int index, double distanceSquared) {
+            if (count < capacity) {
+                // Sift up
+                int i = count++;
+                while (i > 0 && distancesSquared[(i - 1) / 2] < distanceSquared) {
+                    distancesSquared[i] = distancesSquared[(i - 1) / 2];
+                    indices[i] = indices[(i - 1) / 2];
+                    i = (i - 1) / 2;
+                }
+                distancesSquared[i] = distanceSquared;
+                indices[i] = index;
+                if (count == capacity) {
+                    maxDistanceSquared = distancesSquared[0];
+                }
+                return maxDistanceSquared;
+            }
+            // Replace the furthest photon and sift down
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= count) {
+                    break;
+                }
+                if (child + 1 < count && distancesSquared[child + 1] > distancesSquared[child]) {
+                    ++child;
+                }
+                if (distancesSquared[child] <= distanceSquared) {
+                    break;
+                }
+                distancesSquared[i] = distancesSquared[child];
+                indices[i] = indices[child];
+                i = child;
+            }
+            distancesSquared[i] = distanceSquared;
+            indices[i] = index;
+            maxDistanceSquared = distancesSquared[0];
+            return maxDistanceSquared;
+        }
+    }
+
+    // The photons in tree order. The position and the normal of every photon are stored next to each other (6 values
+    // per photon), so visiting a photon reads a single cache line. Floats are precise enough for the estimate, and
+    // twice as many of them fit in the cache.
+    private final float[] surfaces;
+    private final double[] powers;
+    // The axis along which the photon at every index splits its range
+    private final byte[] splitAxes;
+    private final int size;
+    private final ThreadLocal<Neighbours> neighbours = ThreadLocal.withInitial(Neighbours::new);
+
+    /**
+     * Builds the tree over the photons of all lists
+     * @param scheduler The scheduler on whose worker threads the tree is built
+     */
+    public PhotonMap(List<PhotonList> lists, TileScheduler scheduler) {
+        int total = 0;
+        for (PhotonList list : lists) {
+            total += list.size;
+        }
+        size = total;
+        double[] data = new double[9 * total];
+        int offset = 0;
+        for (PhotonList list : lists) {
+            System.arraycopy(list.data, 0, data, offset, 9 * list.size);
+            offset += 9 * list.size;
+        }
+
+        double[] positions = new double[3 * total];
+        for (int i = 0; i < total; ++i) {
+            System.arraycopy(data, 9 * i, positions, 3 * i, 3);
+        }
+        int[] order = new int[total];
+        for (int i = 0; i < total; ++i) {
+            order[i] = i;
+        }
+        splitAxes = new byte[total];
+        if (total > 0) {
+            scheduler.invoke(new BuildTask(positions, order, 0, total));
+        }
+
+        // Move the photons into the order of the tree
+        surfaces = new float[6 * total];
+        powers = new double[3 * total];
+        for (int i = 0; i < total; ++i) {
+            int source = 9 * order[i];
+            for (int j = 0; j < 6; ++j) {
+                surfaces[6 * i + j] = (float) data[source + j];
+            }
+            System.arraycopy(data, source + 6, powers, 3 * i, 3);
+        }
+    }
+
+    /**
+     * Returns the number of photons in the map
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Orders the range so that its median along the axis of the widest spread is in the middle, with smaller
+     * coordinates before it and larger after it, then does the same for both halves
+     */
+    @SuppressWarnings("serial") // Tasks are never serialized
+    private class BuildTask extends RecursiveAction {
+        private final double[] positions;
+        private final int[] order;
+        private final int start, end;
+
+        BuildTask(double[] positions, int[] order, int start, int end) {
+            this.positions = positions;
+            this.order = order;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            int start = this.start, end = this.end;
+            // The smaller halves are built right away, the larger ones are forked or looped on
+            while (end - start > 1) {
+                int axis = getWidestAxis(start, end);
+                int middle = (start + end) >>> 1;
+                select(start, end, middle, axis);
+                splitAxes[middle] = (byte) axis;
+                if (end - start > PARALLEL_BUILD_THRESHOLD) {
+                    invokeAll(new BuildTask(positions, order, start, middle),
+                            new BuildTask(positions, order, middle + 1, end));
+                    return;
+                }
+                new BuildTask(positions, order, start, middle).compute();
+                start = middle + 1;
+            }
+        }
+
+        private int getWidestAxis(int start, int end) {
+            double minX = Double.POSITIVE_INFINITY, minY = minX, minZ = minX;
+            double maxX = Double.NEGATIVE_INFINITY, maxY = maxX, maxZ = maxX;
+            for (int i = start; i < end; ++i) {
+                int p = 3 * order[i];
+                minX = Math.min(minX, positions[p]);
+                maxX = Math.max(maxX, positions[p]);
+                minY = Math.min(minY, positions[p + 1]);
+                maxY = Math.max(maxY, positions[p + 1]);
+                minZ = Math.min(minZ, positions[p + 2]);
+                maxZ = Math.max(maxZ, positions[p + 2]);
+            }
+            double x = maxX - minX, y = maxY - minY, z = maxZ - minZ;
+            return x >= y && x >= z ? 0 : (y >= z ? 1 : 2);
+        }
+
+        // Quickselect: puts the k-th smallest coordinate of the range at k
+        private void select(int start, int end, int k, int axis) {
+            int left = start, right = end - 1;
+            while (left < right) {
+                double pivot = coordinate((left + right) >>> 1, axis);
+                int i = left, j = right;
+                while (i <= j) {
+                    while (coordinate(i, axis) < pivot) {
+                        ++i;
+                    }
+                    while (coordinate(j, axis) > pivot) {
+                        --j;
+                    }
+                    if (i <= j) {
+                        int swap = order[i];
+                        order[i] = order[j];
+                        order[j] = swap;
+                        ++i;
+                        --j;
+                    }
+                }
+                if (k <= j) {
+                    right = j;
+                } else if (k >= i) {
+                    left = i;
+                } else {
+                    return;
+                }
+            }
+        }
+
+        private double coordinate(int i, int axis) {
+            return positions[3 * order[i] + axis];
+        }
+    }
+
+    /**
+     * Estimates the light the photons bring to a point, from the count nearest photons within maxRadius on surfaces
+     * facing the same way: their power divided by the area of the disk they cover.
+     * @param position A point of a diffuse surface
+     * @param normal The normal of the surface at the point
+     * @param count The number of photons to average. More photons give smoother, but blurrier caustics.
+     * @param maxRadius Photons further than this are not used
+     * @param result The average radiance arriving at the point (the irradiance divided by PI) is added to this, so
+     *               that it only has to be multiplied by the diffuse reflectivity
+     * @return Whether any photon was found
+     */
+    public boolean addEstimate(Vector3D position, Vector3D normal, int count, double maxRadius, LightIntensity result) {
+        if (size == 0) {
+            return false;
+        }
+        Neighbours found = neighbours.get();
+        found.reset(count, maxRadius * maxRadius);
+        search(position, normal, found);
+        if (found.count == 0) {
+            return false;
+        }
+        double red = 0, green = 0, blue = 0;
+        for (int i = 0; i < found.count; ++i) {
+            int p = 3 * found.indices[i];
+            red += powers[p];
+            green += powers[p + 1];
+            blue += powers[p + 2];
+        }
+        // A full heap covers the disk up to its furthest photon, otherwise the photons are spread over the whole disk
+        double area = Math.PI * found.maxDistanceSquared;
+        double factor = 1 / (area * Math.PI);
+        result.red += red * factor;
+        result.green += green * factor;
+        result.blue += blue * factor;
+        return true;
+    }
+
+    private void search(Vector3D p, Vector3D n, Neighbours found) {
+        // The ranges still to visit, with the squared distance of the point from the plane that separates them from it
+        int[] ranges = found.ranges;
+        double[] planeDistances = found.planeDistances;
+        int stackSize = 0;
+        int start = 0, end = size;
+        double planeDistanceSquared = 0;
+        double px = p.x, py = p.y, pz = p.z;
+        double nx = n.x, ny = n.y, nz = n.z;
+        double maxDistanceSquared = found.maxDistanceSquared;
+        while (true) {
+            if (planeDistanceSquared < maxDistanceSquared) {
+                while (start < end) {
+                    int middle = (start + end) >>> 1;
+                    int i = 6 * middle;
+                    double dx = px - surfaces[i];
+                    double dy = py - surfaces[i + 1];
+                    double dz = pz - surfaces[i + 2];
+                    double distanceSquared = dx * dx + dy * dy + dz * dz;
+                    if (distanceSquared < maxDistanceSquared
+                            && nx * surfaces[i + 3] + ny * surfaces[i + 4] + nz * surfaces[i + 5] >= MIN_NORMAL_COSINE) {
+                        maxDistanceSquared = found.add(middle, distanceSquared);
+                    }
+                    int axis = splitAxes[middle];
+                    double split = axis == 0 ? dx : (axis == 1 ? dy : dz);
+                    // Go on with the side of the point, and visit the other side later if the plane is close enough
+                    if (split < 0) {
+                        ranges[2 * stackSize] = middle + 1;
+                        ranges[2 * stackSize + 1] = end;
+                        end = middle;
+                    } else {
+                        ranges[2 * stackSize] = start;
+                        ranges[2 * stackSize + 1] = middle;
+                        start = middle + 1;
+                    }
+                    planeDistances[stackSize++] = split * split;
+                }
+            }
+            if (stackSize == 0) {
+                return;
+            }
+            --stackSize;
+            start = ranges[2 * stackSize];
+            end = ranges[2 * stackSize + 1];
+            planeDistanceSquared = planeDistances[stackSize];
+        }
+    }
+}
@@ -0,0 +1,163 @@
+/**
+ * Picks the quality of the frames rendered while the camera moves, so that they take about a target time. Full quality
+ * frames take far too long for smooth navigation, so moving frames are rendered at one of several tiers of lower
+ * quality: fewer pixels (the image is scaled up for display), fewer shadow rays and fewer bounces.
+ *
+ * The governor learns the tier from the measured frame times. A frame slower than the target steps down to a cheaper
+ * tier. A frame fast enough that the next better tier - whose cost is predicted from the measured time and the
+ * relative costs of the tiers - would still fit steps up. Once the camera stops, the caller renders at full quality
+ * again, and the governor keeps its tier for the next time the camera moves.
+ */
+public class QualityGovernor {
+    /**
+     * One step of quality
+     */
+    public static class Tier {
+        // The image is rendered at 1 / resolutionDivisor of the full width and height
+        public final int resolutionDivisor;
+        public final int lightSamplesPerLight;
+        public final int maxTraceDepth;
+
+        public Tier(int resolutionDivisor, int lightSamplesPerLight, int maxTraceDepth) {
+            if (resolutionDivisor < 1 || lightSamplesPerLight < 1 || maxTraceDepth < 0) {
+                throw new IllegalArgumentException("Invalid quality tier");
+            }
+            this.resolutionDivisor = resolutionDivisor;
+            this.lightSamplesPerLight = lightSamplesPerLight;
+            this.maxTraceDepth = maxTraceDepth;
+        }
+
+        /**
+         * A rough cost of a frame relative to other tiers: the pixels times the rays traced for each of them. Only
+         * the ratios between the tiers matter.
+         */
+        double getRelativeCost() {
+            double pixels = 1.0 / (resolutionDivisor * resolutionDivisor);
+            return pixels * (1 + lightSamplesPerLight) * (1 + 0.5 * maxTraceDepth);
+        }
+    }
+
+    // From the best to the cheapest
+    private static final Tier[] DEFAULT_TIERS = {
+            new Tier(1, 8, 3),
+            new Tier(1, 4, 2),
+            new Tier(2, 4, 2),
+            new Tier(2, 2, 1),
+            new Tier(3, 1, 1),
+            new Tier(4, 1, 0),
+            new Tier(6, 1, 0),
+    };
+    // A better tier is only picked if it is predicted to take less than this fraction of the target, so that the
+    // governor does not jump back and forth between two tiers
+    private static final double STEP_UP_MARGIN = 0.8;
+    // Weight of the newest frame in the smoothed frame time
+    private static final double SMOOTHING = 0.5;
+
+    private final Tier[] tiers;
+    private final RenderSettings fullQuality;
+    private final RenderSettings[] tierSettings;
+    private double targetFrameNanos;
+    private int tier;
+    // Smoothed frame time at the current tier, or 0 if none was measured yet
+    private double frameNanos;
+
+    /**
+     * Creates a governor with the default tiers
+     * @param fullQuality The settings of the frames rendered while the camera stands still. The tiers only lower them.
+     * @param targetFrameMillis The time a frame should take while the camera moves
+     */
+    public QualityGovernor(RenderSettings fullQuality, double targetFrameMillis) {
+        this(fullQuality, targetFrameMillis, DEFAULT_TIERS);
+    }
+
+    /**
+     * @param tiers The tiers, from the best to the cheapest
+     */
+    public QualityGovernor(RenderSettings fullQuality, double targetFrameMillis, Tier[] tiers) {
+        if (tiers.length == 0) {
+            throw new IllegalArgumentException("A governor needs at least one tier");
+        }
+        this.fullQuality = fullQuality;
+        this.tiers = tiers.clone();
+        this.tierSettings = new RenderSettings[tiers.length];
+        for (int i = 0; i < tiers.length; ++i) {
+            tierSettings[i] = makeSettings(tiers[i]);
+        }
+        setTargetFrameMillis(targetFrameMillis);
+        // Start in the middle, the measurements move it to the right tier within a few frames
+        tier = tiers.length / 2;
+    }
+
+    // The settings of a tier. Everything that would have to be computed again when it changes - the photon map, the
+    // records of the irradiance cache - is kept as in the full quality settings.
+    private RenderSettings makeSettings(Tier tier) {
+        RenderSettings settings = new RenderSettings(fullQuality);
+        settings.lightSamplesPerLight = Math.min(tier.lightSamplesPerLight, fullQuality.lightSamplesPerLight);
+        settings.initialLightSamples = Math.min(settings.initialLightSamples, settings.lightSamplesPerLight);
+        settings.maxTraceDepth = Math.min(tier.maxTraceDepth, fullQuality.maxTraceDepth);
+        settings.monteCarloSamples = Math.min(1, fullQuality.monteCarloSamples);
+        settings.antialiasingSamples = 0;
+        return settings;
+    }
+
+    public double getTargetFrameMillis() {
+        return targetFrameNanos / 1e6;
+    }
+
+    public void setTargetFrameMillis(double targetFrameMillis) {
+        if (!(targetFrameMillis > 0)) {
+            throw new IllegalArgumentException("The target frame time needs to be positive");
+        }
+        this.targetFrameNanos = targetFrameMillis * 1e6;
+    }
+
+    /**
+     * Returns the index of the current tier, 0 being the best
+     */
+    public int getTierIndex() {
+        return tier;
+    }
+
+    public Tier getTier() {
+        return tiers[tier];
+    }
+
+    /**
+     * Returns the settings for the next frame rendered while the camera moves
+     */
+    public RenderSettings getSettings() {
+        return tierSettings[tier];
+    }
+
+    /**
+     * Returns the width of the image to render for a display of the given width
+     */
+    public int getRenderWidth(int displayWidth) {
+        return Math.max(1, displayWidth / tiers[tier].resolutionDivisor);
+    }
+
+    /**
+     * Returns the height of the image to render for a display of the given height
+     */
+    public int getRenderHeight(int displayHeight) {
+        return Math.max(1, displayHeight / tiers[tier].resolutionDivisor);
+    }
+
+    /**
+     * Reports the time of a frame rendered with getSettings, and picks the tier of the next one
+     */
+    public void frameRendered(long nanos) {
+        frameNanos = frameNanos == 0 ? nanos : SMOOTHING * nanos + (1 - SMOOTHING) * frameNanos;
+        if (frameNanos > targetFrameNanos && tier < tiers.length - 1) {
+            // A single slow frame is enough to step down, stuttering is worse than a blurry frame
+            frameNanos *= tiers[tier + 1].getRelativeCost() / tiers[tier].getRelativeCost();
+            ++tier;
+        } else if (tier > 0) {
+            double predicted = frameNanos * tiers[tier - 1].getRelativeCost() / tiers[tier].getRelativeCost();
+            if (predicted < STEP_UP_MARGIN * targetFrameNanos) {
+                frameNanos = predicted;
+                --tier;
+            }
+        }
+    }
+}
@@ -0,0 +1,18 @@
+import java.util.SplittableRandom;
+
+/**
+ * Picks every point independently, with a generator of its own
+ */
+class RandomSampler extends Sampler {
+    private final SplittableRandom random;
+
+    RandomSampler(long seed) {
+        random = new SplittableRandom(seed);
+    }
+
+    @Override
+    public void sample2D(int dimension, int i, int count) {
+        u = random.nextDouble();
+        v = random.nextDouble();
+    }
+}
@@ -1,20 +1,18 @@
-import javafx.geometry.Point3D;
-
 /**
  * Simple class representing a directed ray in 3-space
  */
 public class Ray {
     // The starting point of the ray
-    public Point3D origin;
+    public Vector3D origin;
 
     // The direction of the vector - must be a unit vector
-    public Point3D unitDirection;
+    public Vector3D unitDirection;
 
     /**
      * @param startPoint The starting point of the ray
      * @param unitDirection The direction of the vector - must be a unit vector
      */
-    public Ray(Point3D startPoint, Point3D unitDirection) {
+    public Ray(Vector3D startPoint, Vector3D unitDirection) {
         this.origin = startPoint;
         this.unitDirection = unitDirection;
     }
@@ -25,13 +23,13 @@ public class Ray {
      * @param pointOnRay An additional point on the ray
      * @return A new ray starting at a point and going through another point
      */
-    public static Ray makeRayFromTwoPoints(Point3D startPoint, Point3D pointOnRay) {
-        return new Ray(startPoint, pointOnRay.subtract(startPoint).normalize());
+    public static Ray makeRayFromTwoPoints(Vector3D startPoint, Vector3D pointOnRay) {
+        return new Ray(startPoint, pointOnRay.subtract(startPoint).normalizeInPlace());
     }
 
     public Ray() {
-        origin = new Point3D(0,0,0);
-        unitDirection = new Point3D(1,0,0);
+        origin = new Vector3D(0,0,0);
+        unitDirection = new Vector3D(1,0,0);
     }
 
     public void shift(double amount) {
@@ -43,8 +41,18 @@ public class Ray {
      * @param dFromRayStart The distance from the origin of the ray
      * @return The point on the ray that is exactly dFromRayStart away from the ray's origin
      */
-    public Point3D getPointAtDistance(double dFromRayStart) {
-        return origin.add(unitDirection.multiply(dFromRayStart));
+    public Vector3D getPointAtDistance(double dFromRayStart) {
+        return getPointAtDistance(dFromRayStart, new Vector3D());
+    }
+
+    /**
+     * Finds a point on the ray at a given distance, without allocating a new vector
+     * @param dFromRayStart The distance from the origin of the ray
+     * @param out The vector to which the result is written
+     * @return out
+     */
+    public Vector3D getPointAtDistance(double dFromRayStart, Vector3D out) {
+        return Vector3D.scaleAdd(origin, dFromRayStart, unitDirection, out);
     }
 
     public Ray getShifted(double shift) {
@@ -0,0 +1,125 @@
+/**
+ * A group of rays that are cast together, stored as one array per component so that the intersection kernels can test
+ * several rays against a primitive at once. Used for shadow rays: all rays sent from one point towards one light source
+ * go in similar directions, so they mostly visit the same nodes of the BVH and can share the traversal.
+ *
+ * Only occlusion is tracked - every ray is either still unblocked, or known to hit something within its segment.
+ */
+public class RayPacket {
+    private final int laneCount;
+    private int count;
+    private int unoccludedCount;
+
+    double[] originX, originY, originZ;
+    double[] directionX, directionY, directionZ;
+    double[] minDistance, maxDistance;
+    boolean[] occluded;
+    // The last primitive that blocked any of the rays, see BoundingVolumeHierarchy.occludeByPrimitive. -1 if none did.
+    int occluder;
+    // Scratch space for the kernels
+    double[] distances;
+
+    /**
+     * @param laneCount The arrays are padded to a multiple of this, see IntersectionKernels.getLaneCount
+     */
+    public RayPacket(int laneCount) {
+        this.laneCount = laneCount;
+        allocate(laneCount);
+    }
+
+    private void allocate(int capacity) {
+        originX = new double[capacity];
+        originY = new double[capacity];
+        originZ = new double[capacity];
+        directionX = new double[capacity];
+        directionY = new double[capacity];
+        directionZ = new double[capacity];
+        minDistance = new double[capacity];
+        maxDistance = new double[capacity];
+        occluded = new boolean[capacity];
+        distances = new double[capacity];
+    }
+
+    /**
+     * Empties the packet, making room for count rays. The rays then have to be filled in with set.
+     */
+    public void reset(int count) {
+        int padded = getPaddedCount(count);
+        if (padded > occluded.length) {
+            allocate(padded);
+        }
+        this.count = count;
+        this.unoccludedCount = count;
+        this.occluder = -1;
+        for (int i = 0; i < padded; ++i) {
+            // The padding rays are occluded from the start, so they are skipped
+            occluded[i] = i >= count;
+            if (i >= count) {
+                maxDistance[i] = 0;
+            }
+        }
+    }
+
+    /**
+     * Sets ray i of the packet
+     */
+    public void set(int i, Vector3D origin, Vector3D unitDirection, double minDistance, double maxDistance) {
+        originX[i] = origin.x;
+        originY[i] = origin.y;
+        originZ[i] = origin.z;
+        directionX[i] = unitDirection.x;
+        directionY[i] = unitDirection.y;
+        directionZ[i] = unitDirection.z;
+        this.minDistance[i] = minDistance;
+        this.maxDistance[i] = maxDistance;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Returns the number of rays including the padding, which is a multiple of the lane count
+     */
+    public int getPaddedCount() {
+        return getPaddedCount(count);
+    }
+
+    private int getPaddedCount(int count) {
+        return Math.max(laneCount, (count + laneCount - 1) / laneCount * laneCount);
+    }
+
+    /**
+     * Creates a Ray object for ray i, for the code that cannot work on the arrays directly
+     */
+    public Ray getRay(int i) {
+        return new Ray(new Vector3D(originX[i], originY[i], originZ[i]),
+                new Vector3D(directionX[i], directionY[i], directionZ[i]));
+    }
+
+    public boolean isOccluded(int i) {
+        return occluded[i];
+    }
+
+    void markOccluded(int i) {
+        if (!occluded[i]) {
+            occluded[i] = true;
+            --unoccludedCount;
+        }
+    }
+
+    /**
+     * Returns the primitive that blocked some of the rays last, or -1 if none of them is blocked. Can be passed to
+     * BoundingVolumeHierarchy.occludeByPrimitive to test another packet against the same primitive.
+     */
+    public int getOccluder() {
+        return occluder;
+    }
+
+    /**
+     * Returns the number of rays that are not known to be blocked yet
+     */
+    public int getUnoccludedCount() {
+        return unoccludedCount;
+    }
+}
@@ -1,7 +1,3 @@
-import javafx.geometry.Point3D;
-import java.awt.*;
-import java.awt.geom.Point2D;
-
 /**
  * RectFace is the class used to define the contained planes that can be used for the Cornell Box or a compose any object
  * that can be composed of several planes or boxes. These rectangular faces are treated as planes in the mathematical calculations
@@ -10,11 +6,16 @@ import java.awt.geom.Point2D;
  * @author Pietro
  */
 public class RectFace implements Shape3D {
-    private Point3D topLeft;
-    private Point3D down;
-    private Point3D right;
-    private Point3D normal;
+    private Vector3D topLeft;
+    private Vector3D down;
+    private Vector3D right;
+    private Vector3D normal;
     private double width, height;
+    // The edges divided by their squared lengths. Since the edges are perpendicular, the dot products of these with a
+    // vector from the top left corner are the coordinates of the point on the face, from 0 to 1.
+    private Vector3D inverseRight, inverseDown;
+    // Dot product of the normal with any point on the face - the "d" in the plane equation n.p = d
+    private double planeOffset;
 
     /**
      * With rendering in mind, we want to describe a rectangular plane with the least amount of computations possible. By defining only
@@ -25,47 +26,39 @@ public class RectFace implements Shape3D {
      * @param topRight The top right vertex of the rectangular face
      * @param bottomLeft The bottom left vertex of the rectangular face
      */
-    public RectFace(Point3D topLeft, Point3D topRight, Point3D bottomLeft) {
+    public RectFace(Vector3D topLeft, Vector3D topRight, Vector3D bottomLeft) {
         this.right = topRight.subtract(topLeft);
         this.width = right.magnitude();
 
         this.down = bottomLeft.subtract(topLeft);
         this.height = down.magnitude();
 
+        this.inverseRight = right.multiply(1.0 / (width * width));
+        this.inverseDown = down.multiply(1.0 / (height * height));
+
         this.normal = this.down.crossProduct(this.right).normalize();
         this.topLeft = topLeft;
+        this.planeOffset = topLeft.dotProduct(normal);
     }
 
     /**
-     * Obtains a point relative to the positioning of a specific rectangular face.
-     * @param pointOnFace an arbitrary point that contained by the face
-     * @return Point2D containing conversion of pointOnFace parameter relative to the origin of the plane.
+     * Checks whether a point lying on the plane of the face is inside the rectangle, using its coordinates on the face.
      */
-    private Point2D.Double getPointInLocalCoordinates(Point3D pointOnFace) {
-        Point3D vectorFromTopLeft = pointOnFace.subtract(topLeft);
-
-        Point3D xOrientedComponent = GeometryHelpers.projectVectorOntoVector(vectorFromTopLeft, right);
-        Point3D yOrientedComponent = vectorFromTopLeft.subtract(xOrientedComponent);
-
-        double xCoordinate, yCoordinate;
-
-        if (right.getX() != 0) {
-            xCoordinate = xOrientedComponent.getX() / right.getX() * width;
-        } else if (right.getY() != 0) {
-            xCoordinate = xOrientedComponent.getY() / right.getY() * width;
-        } else {
-            xCoordinate = xOrientedComponent.getZ() / right.getZ() * width;
-        }
-
-        if (down.getX() != 0) {
-            yCoordinate = yOrientedComponent.getX() / down.getX() * height;
-        } else if (down.getY() != 0) {
-            yCoordinate = yOrientedComponent.getY() / down.getY() * height;
-        } else {
-            yCoordinate = yOrientedComponent.getZ() / down.getZ() * height;
-        }
+    private boolean containsPointOnPlane(double px, double py, double pz) {
+        double vx = px - topLeft.x;
+        double vy = py - topLeft.y;
+        double vz = pz - topLeft.z;
+        double u = Vector3D.dot(vx, vy, vz, inverseRight.x, inverseRight.y, inverseRight.z);
+        double v = Vector3D.dot(vx, vy, vz, inverseDown.x, inverseDown.y, inverseDown.z);
+        return u >= 0 && u <= 1 && v >= 0 && v <= 1;
+    }
 
-        return new Point2D.Double(xCoordinate, yCoordinate);
+    /**
+     * Finds the distance along the ray to the plane of the face. Negative if the plane is behind the ray and NaN or
+     * infinite if the ray is parallel to the plane.
+     */
+    private double getDistanceToPlane(Ray ray) {
+        return (planeOffset - Vector3D.dot(ray.origin, normal)) / Vector3D.dot(ray.unitDirection, normal);
     }
 
     /**
@@ -76,19 +69,56 @@ public class RectFace implements Shape3D {
      */
     @Override
     public IntersectionData castRay(Ray ray) {
-        double t = (topLeft.dotProduct(normal) - ray.origin.dotProduct(normal))/ray.unitDirection.dotProduct(normal);
+        double t = getDistanceToPlane(ray);
         if (t < 0) {
             return null;
         }
-        Point3D pointOfIntersection = ray.getPointAtDistance(t);
 
-        Point2D.Double localCoords = getPointInLocalCoordinates(pointOfIntersection);
-        if (localCoords.x < 0 || localCoords.x > width || localCoords.y < 0 || localCoords.y > height) {
+        Vector3D dir = ray.unitDirection;
+        double px = ray.origin.x + t * dir.x;
+        double py = ray.origin.y + t * dir.y;
+        double pz = ray.origin.z + t * dir.z;
+        if (!containsPointOnPlane(px, py, pz)) {
             return null;
         }
 
-        boolean hitFromInside = normal.dotProduct(ray.unitDirection) < 0;
-        return new IntersectionData(pointOfIntersection, hitFromInside, this);
+        boolean hitFromInside = Vector3D.dot(normal, dir) < 0;
+        return new IntersectionData(new Vector3D(px, py, pz), hitFromInside, this);
+    }
+
+    @Override
+    public boolean intersect(Ray ray, double tMin, double tMax, HitRecord record) {
+        double t = getDistanceToPlane(ray);
+        // Also rejects NaN, which happens for rays parallel to the face
+        if (!(t > tMin && t < tMax)) {
+            return false;
+        }
+
+        Vector3D dir = ray.unitDirection;
+        if (!containsPointOnPlane(ray.origin.x + t * dir.x, ray.origin.y + t * dir.y, ray.origin.z + t * dir.z)) {
+            return false;
+        }
+
+        record.t = t;
+        record.inside = Vector3D.dot(normal, dir) < 0;
+        record.shape = this;
+        record.normal.set(normal);
+        return true;
+    }
+
+    @Override
+    public boolean intersectsSegment(Ray ray, double minDistance, double maxDistance) {
+        double t = getDistanceToPlane(ray);
+        // Also rejects NaN, which happens for rays parallel to the face
+        if (!(t > minDistance && t < maxDistance)) {
+            return false;
+        }
+
+        Vector3D dir = ray.unitDirection;
+        return containsPointOnPlane(
+                ray.origin.x + t * dir.x,
+                ray.origin.y + t * dir.y,
+                ray.origin.z + t * dir.z);
     }
 
     /**
@@ -98,10 +128,24 @@ public class RectFace implements Shape3D {
      * @return The normal vector for that given point.
      */
     @Override
-    public Point3D getNormalAtPoint(Point3D pointInShape) {
+    public Vector3D getNormalAtPoint(Vector3D pointInShape) {
         return normal;
     }
 
+    /**
+     * The bounding box of a face is spanned by its four corners.
+     * @return The smallest axis aligned box containing the face.
+     */
+    @Override
+    public BoundingBox getBoundingBox() {
+        BoundingBox result = new BoundingBox();
+        result.expand(topLeft);
+        result.expand(topLeft.add(right));
+        result.expand(topLeft.add(down));
+        result.expand(topLeft.add(right).add(down));
+        return result;
+    }
+
     //Helper Methods:
     public double getWidth() {
         return width;
@@ -111,8 +155,32 @@ public class RectFace implements Shape3D {
         return height;
     }
 
-    public Point3D getWorldPointAt(double x, double y) {
-        return topLeft.add(right.multiply(x)).add(down.multiply(y));
+    // Used to copy the face into the primitive arrays of the intersection kernels
+    Vector3D getTopLeft() {
+        return topLeft;
+    }
+
+    Vector3D getInverseRight() {
+        return inverseRight;
+    }
+
+    Vector3D getInverseDown() {
+        return inverseDown;
+    }
+
+    Vector3D getNormal() {
+        return normal;
+    }
+
+    double getPlaneOffset() {
+        return planeOffset;
+    }
+
+    public Vector3D getWorldPointAt(double x, double y) {
+        return new Vector3D(
+                topLeft.x + x * right.x + y * down.x,
+                topLeft.y + x * right.y + y * down.y,
+                topLeft.z + x * right.z + y * down.z);
     }
 
     /**
@@ -131,37 +199,27 @@ public class RectFace implements Shape3D {
          * DiffuseReflexivity takes into account the material the face is made out of in our scene, as it would have different
          * ray interactions, and thus requiring different treatment when shading.
          * @param p a given 3D point inside the face to be shaded.
-         * @return The specific diffuseIntensity shading component for a given pixel p.
+         * @param footprint The width of the surface seen by the sample, picks the mipmap of the texture
+         * @param result Receives the specific diffuseIntensity shading component for a given pixel p.
          */
         @Override
-        public LightIntensity getDiffuseReflectivityAtPoint(Point3D p) {
-            LightIntensity intensity = getMaterial().diffuseReflectivity;
-
-            if (getMaterial().texture != null) {
-                Point2D localCoordsPoint = face.getPointInLocalCoordinates(p);
-                int xPixel = (int) Math.round(localCoordsPoint.getX() / face.width * getMaterial().texture.getWidth());
-                int yPixel = (int) Math.round(localCoordsPoint.getY() / face.height * getMaterial().texture.getHeight());
-                if (xPixel < 0) {
-                    xPixel = 0;
-                }
-                if (xPixel >= getMaterial().texture.getWidth()) {
-                    xPixel = getMaterial().texture.getWidth() - 1;
-                }
-
-                if (yPixel < 0) {
-                    yPixel = 0;
-                }
-                if (yPixel >= getMaterial().texture.getHeight()) {
-                    yPixel = getMaterial().texture.getHeight() - 1;
-                }
-
-                LightIntensity textureIntensity = new LightIntensity();
-                textureIntensity.setColor(new Color(getMaterial().texture.getRGB(xPixel, yPixel)));
-
-                intensity = intensity.multiply(textureIntensity);
+        public void getDiffuseReflectivityAtPoint(Vector3D p, double footprint, LightIntensity result) {
+            Texture texture = getMaterial().texture;
+            if (texture == null) {
+                result.set(getMaterial().diffuseReflectivity);
+                return;
             }
 
-            return intensity;
+            double vx = p.x - face.topLeft.x;
+            double vy = p.y - face.topLeft.y;
+            double vz = p.z - face.topLeft.z;
+            double u = Vector3D.dot(vx, vy, vz, face.inverseRight.x, face.inverseRight.y, face.inverseRight.z);
+            double v = Vector3D.dot(vx, vy, vz, face.inverseDown.x, face.inverseDown.y, face.inverseDown.z);
+            // The texture is stretched over the face, so a texel covers width / texture width units
+            double texelsPerSample = footprint * Math.max(
+                    texture.getWidth() / face.width, texture.getHeight() / face.height);
+            texture.sample(u, v, texelsPerSample, getMaterial().textureFilter, result);
+            result.multiplyInPlace(getMaterial().diffuseReflectivity);
         }
     }
 }
@@ -0,0 +1,344 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Renders an image on RenderWorker processes, so that a frame is not limited to the cores of one machine. The job is
+ * sent to every worker once, then the image is handed out in tiles and the results assembled as they come back.
+ *
+ * The tiles are sized for the total number of rendering threads of the workers: enough tiles for every thread to get
+ * several, so that fast workers can take over the tiles of slow ones at the end, but no more, since every tile costs
+ * a round trip. Every worker has at most TILES_IN_FLIGHT tiles at a time, and gets the next one when it returns one.
+ * This keeps it busy without waiting for the network, keeps the tiles with the fastest workers, and never queues more
+ * work than a worker can take.
+ *
+ * A worker that fails - its connection breaks, it reports an error, or a tile takes longer than the tile timeout -
+ * is dropped, and its unfinished tiles go back to the others. A tile is given up on after MAX_ATTEMPTS failures, and
+ * the render fails once no worker is left.
+ */
+public class RenderCoordinator {
+    private static final int TILES_IN_FLIGHT = 2;
+    private static final int TILES_PER_THREAD = 4;
+    // Tiles are a multiple of this size, which is the tile size of the worker's own scheduler, so that none of its
+    // threads gets a sliver
+    private static final int TILE_SIZE_STEP = 16;
+    private static final int MAX_TILE_SIZE = 256;
+    private static final int MAX_ATTEMPTS = 3;
+    private static final int CONNECT_TIMEOUT_MILLIS = 10000;
+    public static final int DEFAULT_TILE_TIMEOUT_MILLIS = 120000;
+
+    private final List<InetSocketAddress> workerAddresses;
+    private int tileTimeoutMillis = DEFAULT_TILE_TIMEOUT_MILLIS;
+    private String lastSummary = "";
+
+    // A tile of the image, and how often it was lost
+    private static class Region {
+        final int id, x, y, width, height;
+        int failures;
+
+        Region(int id, int x, int y, int width, int height) {
+            this.id = id;
+            this.x = x;
+            this.y = y;
+            this.width = width;
+            this.height = height;
+        }
+    }
+
+    /**
+     * The state of a render shared by the threads talking to the workers, guarded by its own lock
+     */
+    private static class Frame {
+        final AccumulationBuffer buffer;
+        final ArrayDeque<Region> pending = new ArrayDeque<>();
+        int remaining;
+        int liveWorkers;
+        int retries;
+        IOException failure;
+
+        Frame(AccumulationBuffer buffer, List<Region> regions, int workerCount) {
+            this.buffer = buffer;
+            pending.addAll(regions);
+            remaining = regions.size();
+            liveWorkers = workerCount;
+        }
+
+        boolean isOver() {
+            return remaining == 0 || failure != null;
+        }
+    }
+
+    // The connection to one worker
+    private class Connection implements Runnable {
+        final InetSocketAddress address;
+        final Socket socket;
+        final DataInputStream in;
+        final DataOutputStream out;
+        final int threadCount;
+        final ArrayDeque<Region> inFlight = new ArrayDeque<>();
+        Frame frame;
+        int tilesRendered;
+
+        Connection(InetSocketAddress address) throws IOException {
+            this.address = address;
+            socket = new Socket();
+            try {
+                socket.connect(address, CONNECT_TIMEOUT_MILLIS);
+                socket.setTcpNoDelay(true);
+                socket.setSoTimeout(tileTimeoutMillis);
+                in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+                out.writeInt(RenderWorker.MAGIC);
+                out.writeInt(RenderWorker.PROTOCOL_VERSION);
+                out.flush();
+                if (in.readInt() != RenderWorker.MAGIC || in.readInt() != RenderWorker.PROTOCOL_VERSION) {
+                    throw new IOException("Not a worker of the same version");
+                }
+                threadCount = in.readInt();
+            } catch (IOException e) {
+                socket.close();
+                throw e;
+            }
+        }
+
+        @Override
+        public void run() {
+            List<Region> toSend = new ArrayList<>();
+            try {
+                while (true) {
+                    toSend.clear();
+                    synchronized (frame) {
+                        while (inFlight.isEmpty() && frame.pending.isEmpty() && !frame.isOver()) {
+                            frame.wait();
+                        }
+                        if (frame.isOver()) {
+                            break;
+                        }
+                        while (inFlight.size() < TILES_IN_FLIGHT && !frame.pending.isEmpty()) {
+                            Region region = frame.pending.poll();
+                            inFlight.add(region);
+                            toSend.add(region);
+                        }
+                    }
+                    for (Region region : toSend) {
+                        out.writeByte(RenderWorker.TILE);
+                        out.writeInt(region.id);
+                        out.writeInt(region.x);
+                        out.writeInt(region.y);
+                        out.writeInt(region.width);
+                        out.writeInt(region.height);
+                    }
+                    out.flush();
+                    receiveResult();
+                }
+                out.writeByte(RenderWorker.DONE);
+                out.flush();
+            } catch (IOException e) {
+                fail(e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                fail(new IOException("Interrupted", e));
+            } finally {
+                close();
+            }
+        }
+
+        // Reads the result of the oldest tile in flight - the worker renders them in order - and puts it into the image
+        private void receiveResult() throws IOException {
+            byte message = in.readByte();
+            if (message == RenderWorker.ERROR) {
+                throw new IOException("The worker failed: " + in.readUTF());
+            }
+            Region region = inFlight.peek();
+            if (message != RenderWorker.RESULT || in.readInt() != region.id) {
+                throw new IOException("Unexpected answer from the worker");
+            }
+            byte[] bytes = new byte[3 * region.width * region.height * Float.BYTES];
+            in.readFully(bytes);
+            inFlight.poll();
+
+            // A tile is only handed out again once its worker failed, and a failed worker is never read from again,
+            // so no result can come back twice
+            FloatBuffer light = ByteBuffer.wrap(bytes).asFloatBuffer();
+            LightIntensity intensity = new LightIntensity();
+            for (int y = region.y; y < region.y + region.height; ++y) {
+                for (int x = region.x; x < region.x + region.width; ++x) {
+                    intensity.red = light.get();
+                    intensity.green = light.get();
+                    intensity.blue = light.get();
+                    frame.buffer.add(x, y, intensity);
+                }
+            }
+            synchronized (frame) {
+                ++tilesRendered;
+                if (--frame.remaining == 0) {
+                    frame.notifyAll();
+                }
+            }
+        }
+
+        // Drops the worker and hands its tiles to the others
+        private void fail(IOException cause) {
+            synchronized (frame) {
+                if (frame.isOver()) {
+                    return;
+                }
+                System.err.println("Dropping worker " + address + ": " + cause.getMessage());
+                for (Region region : inFlight) {
+                    if (++region.failures >= MAX_ATTEMPTS) {
+                        frame.failure = new IOException("Tile " + region.id + " failed " + MAX_ATTEMPTS + " times", cause);
+                    }
+                    frame.pending.addFirst(region);
+                    ++frame.retries;
+                }
+                inFlight.clear();
+                if (--frame.liveWorkers == 0 && frame.failure == null) {
+                    frame.failure = new IOException("All workers failed", cause);
+                }
+                frame.notifyAll();
+            }
+        }
+
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Nothing left to do with the worker
+            }
+        }
+    }
+
+    /**
+     * @param workerAddresses The addresses on which the workers listen
+     */
+    public RenderCoordinator(List<InetSocketAddress> workerAddresses) {
+        if (workerAddresses.isEmpty()) {
+            throw new IllegalArgumentException("A coordinator needs at least one worker");
+        }
+        this.workerAddresses = new ArrayList<>(workerAddresses);
+    }
+
+    public int getTileTimeoutMillis() {
+        return tileTimeoutMillis;
+    }
+
+    /**
+     * Sets how long a worker may take for a tile before it is dropped. The first tile of a job also sets up the scene
+     * on the worker, and traces its photon map.
+     */
+    public void setTileTimeoutMillis(int tileTimeoutMillis) {
+        if (tileTimeoutMillis < 1) {
+            throw new IllegalArgumentException("The tile timeout needs to be positive");
+        }
+        this.tileTimeoutMillis = tileTimeoutMillis;
+    }
+
+    /**
+     * Returns the number of tiles, workers and retries of the last render in a single line
+     */
+    public String getLastSummary() {
+        return lastSummary;
+    }
+
+    /**
+     * Renders the job on the workers and waits until the image is complete. Workers that cannot be reached are left
+     * out.
+     * @return A buffer holding a single pass with the mean light of every pixel
+     * @throws IOException If no worker can be reached, or the workers fail to render the image
+     */
+    public AccumulationBuffer render(RenderJob job) throws IOException {
+        List<Connection> connections = new ArrayList<>();
+        IOException connectFailure = null;
+        for (InetSocketAddress address : workerAddresses) {
+            try {
+                connections.add(new Connection(address));
+            } catch (IOException e) {
+                System.err.println("Cannot reach worker " + address + ": " + e.getMessage());
+                connectFailure = e;
+            }
+        }
+        if (connections.isEmpty()) {
+            throw new IOException("No worker can be reached", connectFailure);
+        }
+
+        int threadCount = 0;
+        for (Connection connection : connections) {
+            threadCount += connection.threadCount;
+        }
+        int tileSize = getTileSize(job.width, job.height, threadCount);
+        List<Region> regions = new ArrayList<>();
+        for (int y = 0; y < job.height; y += tileSize) {
+            for (int x = 0; x < job.width; x += tileSize) {
+                regions.add(new Region(regions.size(), x, y,
+                        Math.min(tileSize, job.width - x), Math.min(tileSize, job.height - y)));
+            }
+        }
+        AccumulationBuffer buffer = new AccumulationBuffer(job.width, job.height);
+        Frame frame = new Frame(buffer, regions, connections.size());
+
+        List<Thread> threads = new ArrayList<>();
+        try {
+            for (Connection connection : connections) {
+                connection.frame = frame;
+                // The job is sent before any thread starts, so every worker sets up the scene at the same time
+                try {
+                    connection.out.writeByte(RenderWorker.JOB);
+                    job.write(connection.out);
+                    connection.out.flush();
+                } catch (IOException e) {
+                    connection.fail(e);
+                    continue;
+                }
+                Thread thread = new Thread(connection, "coordinator-" + connection.address);
+                thread.setDaemon(true);
+                thread.start();
+                threads.add(thread);
+            }
+            synchronized (frame) {
+                while (!frame.isOver()) {
+                    frame.wait();
+                }
+                if (frame.failure != null) {
+                    throw frame.failure;
+                }
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while rendering", e);
+        } finally {
+            // Unblocks the threads still waiting for a worker if the render failed
+            for (Connection connection : connections) {
+                connection.close();
+            }
+        }
+        buffer.finishPass();
+
+        StringBuilder perWorker = new StringBuilder();
+        for (Connection connection : connections) {
+            perWorker.append(perWorker.length() > 0 ? ", " : "").append(connection.address).append('=').append(connection.tilesRendered);
+        }
+        lastSummary = String.format("%d tiles of %dx%d on %d workers with %d threads, %d retried, tiles per worker: %s",
+                regions.size(), tileSize, tileSize, connections.size(), threadCount, frame.retries, perWorker);
+        return buffer;
+    }
+
+    // The side of the square tiles: TILES_PER_THREAD tiles for every thread, rounded up to a multiple of
+    // TILE_SIZE_STEP
+    static int getTileSize(int width, int height, int threadCount) {
+        double size = Math.sqrt((double) width * height / (TILES_PER_THREAD * threadCount));
+        int steps = Math.max(1, (int) Math.ceil(size / TILE_SIZE_STEP));
+        return Math.min(MAX_TILE_SIZE, steps * TILE_SIZE_STEP);
+    }
+}
@@ -0,0 +1,105 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Everything a RenderWorker needs to render tiles of an image: the scene, the camera, the settings and the number of
+ * samples per pixel. It is sent to every worker once, before the first tile.
+ *
+ * The solids of a scene are not serializable - their textures are images loaded from files - so the scene is sent by
+ * its name in the SceneLibrary, and every worker sets it up on its own. Scene files are sent by their path, so they
+ * need to be readable under the same path on every worker, like on a shared file system. The camera is sent in full,
+ * since it may have moved away from where the scene puts it.
+ */
+public class RenderJob {
+    public final String sceneName;
+    public final int width, height;
+    public final int samplesPerPixel;
+    public final RenderSettings settings;
+    private final Vector3D cameraPoint, lookingAt, upDirection;
+    private final double horizontalAngleOfView;
+
+    /**
+     * @param sceneName A scene of the SceneLibrary, or the path of a scene file
+     * @param camera The camera to render with. Its size is the size of the image. Later changes to it are not seen.
+     * @param samplesPerPixel The number of jittered samples taken of every pixel
+     * @param settings The settings of the render. Later changes to them are not seen.
+     */
+    public RenderJob(String sceneName, Camera camera, int samplesPerPixel, RenderSettings settings) {
+        this(sceneName, camera.getWidth(), camera.getHeight(), samplesPerPixel, new RenderSettings(settings),
+                camera.getPosition(), camera.getLookingAt(), camera.getUpDirection(),
+                camera.getHorizontalAngleOfView());
+    }
+
+    private RenderJob(String sceneName, int width, int height, int samplesPerPixel, RenderSettings settings,
+                      Vector3D cameraPoint, Vector3D lookingAt, Vector3D upDirection, double horizontalAngleOfView) {
+        if (samplesPerPixel < 1) {
+            throw new IllegalArgumentException("samplesPerPixel needs to be >= 1");
+        }
+        this.sceneName = sceneName;
+        this.width = width;
+        this.height = height;
+        this.samplesPerPixel = samplesPerPixel;
+        this.settings = settings;
+        this.cameraPoint = cameraPoint;
+        this.lookingAt = lookingAt;
+        this.upDirection = upDirection;
+        this.horizontalAngleOfView = horizontalAngleOfView;
+    }
+
+    /**
+     * Sets up the scene in a new renderer and compiles it, ready for Renderer.renderRegion
+     * @param threadCount The number of rendering threads of the renderer
+     */
+    public Renderer createRenderer(int threadCount) {
+        Renderer renderer = new Renderer(threadCount);
+        SceneLibrary.setUpScene(sceneName, renderer, width, height);
+        renderer.camera = new Camera(cameraPoint, lookingAt, upDirection, horizontalAngleOfView, width, height);
+        if (!renderer.isCompiled()) {
+            renderer.buildAccelerationStructures();
+        }
+        return renderer;
+    }
+
+    public void write(DataOutput out) throws IOException {
+        out.writeUTF(sceneName);
+        out.writeInt(width);
+        out.writeInt(height);
+        out.writeInt(samplesPerPixel);
+        settings.write(out);
+        writeVector(out, cameraPoint);
+        writeVector(out, lookingAt);
+        writeVector(out, upDirection);
+        out.writeDouble(horizontalAngleOfView);
+    }
+
+    /**
+     * Reads a job written by write
+     */
+    public static RenderJob read(DataInput in) throws IOException {
+        String sceneName = in.readUTF();
+        int width = in.readInt();
+        int height = in.readInt();
+        int samplesPerPixel = in.readInt();
+        RenderSettings settings = RenderSettings.read(in);
+        Vector3D cameraPoint = readVector(in);
+        Vector3D lookingAt = readVector(in);
+        Vector3D upDirection = readVector(in);
+        double horizontalAngleOfView = in.readDouble();
+        if (width < 1 || height < 1 || samplesPerPixel < 1) {
+            throw new IOException("Invalid render job");
+        }
+        return new RenderJob(sceneName, width, height, samplesPerPixel, settings,
+                cameraPoint, lookingAt, upDirection, horizontalAngleOfView);
+    }
+
+    private static void writeVector(DataOutput out, Vector3D v) throws IOException {
+        out.writeDouble(v.x);
+        out.writeDouble(v.y);
+        out.writeDouble(v.z);
+    }
+
+    private static Vector3D readVector(DataInput in) throws IOException {
+        return new Vector3D(in.readDouble(), in.readDouble(), in.readDouble());
+    }
+}
@@ -0,0 +1,175 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Quality settings used while tracing the rays of a single render. Higher numbers mean less noise, but a slower render.
+ */
+public class RenderSettings {
+    // Defaults used for full quality renders
+    public static final int LIGHT_SAMPLES_PER_LIGHT = 30;
+    public static final int INITIAL_LIGHT_SAMPLES = 6;
+    public static final double LIGHT_SAMPLE_ERROR_THRESHOLD = 0.05;
+    public static final int MONTE_CARLO_SAMPLES = 0;
+    public static final Sampler.Type SAMPLER = Sampler.Type.SOBOL;
+    public static final int MAX_TRACE_DEPTH = 8;
+    public static final int ROULETTE_START_DEPTH = 3;
+    public static final double MINIMUM_THROUGHPUT = 0.01;
+    public static final double IRRADIANCE_CACHE_ERROR = 0.2;
+    public static final int IRRADIANCE_RECORD_SAMPLES = 64;
+    public static final int CAUSTIC_PHOTONS = 0;
+    public static final int CAUSTIC_ESTIMATE_PHOTONS = 50;
+    public static final int ANTIALIASING_SAMPLES = 8;
+    public static final double ANTIALIASING_CONTRAST = 0.05;
+    public static final int HISTORY_FRAMES = 8;
+
+    // Maximum number of shadow rays shot towards every light source at every diffuse hit
+    public int lightSamplesPerLight;
+    // Shadow rays are shot in batches of this size. After every batch, sampling stops if the rays agree on the
+    // visibility of the light and the estimate is precise enough, see lightSampleErrorThreshold. 0 always shoots
+    // lightSamplesPerLight rays.
+    public int initialLightSamples;
+    // Sampling goes on while the standard error of the light's average cosine is larger than this fraction of it
+    public double lightSampleErrorThreshold;
+    // Number of random rays used to estimate the indirect light at every diffuse hit. 0 disables indirect lighting.
+    public int monteCarloSamples;
+    // Generates the points picked on pixels, lights and hemispheres
+    public Sampler.Type sampler = SAMPLER;
+    // Maximum number of bounces after the camera ray
+    public int maxTraceDepth = MAX_TRACE_DEPTH;
+    // Paths that bounced this many times are continued with a probability equal to their throughput (Russian
+    // roulette), and the light of the surviving ones is scaled up to make up for the others
+    public int rouletteStartDepth = ROULETTE_START_DEPTH;
+    // Paths whose throughput drops below this are not continued at all, since they hardly add anything to the image.
+    // The throughput of a path is the fraction of the light at its end that reaches the camera.
+    public double minimumThroughput = MINIMUM_THROUGHPUT;
+    // The indirect light is interpolated from an IrradianceCache, whose records are used within this error, see
+    // IrradianceCache. 0 disables the cache, so that every diffuse hit samples its own indirect light.
+    public double irradianceCacheError = IRRADIANCE_CACHE_ERROR;
+    // Number of rays shot to compute a new record of the irradiance cache
+    public int irradianceRecordSamples = IRRADIANCE_RECORD_SAMPLES;
+    // Number of photons shot from the light sources at the refractive solids to find their caustics, see PhotonMap. 0
+    // disables caustics. Tracing them takes a while before the first frame, so they are off by default. The indirect
+    // rays find the same light, so the photons are not used while monteCarloSamples is above 0.
+    public int causticPhotons = CAUSTIC_PHOTONS;
+    // Number of nearby photons averaged by every caustic estimate. More photons give smoother, but blurrier caustics.
+    public int causticEstimatePhotons = CAUSTIC_ESTIMATE_PHOTONS;
+    // Renderer.render samples every pixel once through its center, and up to this many more times if the pixel is on
+    // an edge. 0 disables anti-aliasing. Progressive passes anti-alias by jittering instead, and ignore it.
+    public int antialiasingSamples = ANTIALIASING_SAMPLES;
+    // Neighbouring pixels whose displayed colors differ by more than this (in [0, 1]) in any channel are on an edge
+    public double antialiasingContrast = ANTIALIASING_CONTRAST;
+    // Renderer.renderReprojected reuses the light of a pixel for at most this many frames before tracing it again, so
+    // that stale light fades out as the camera moves. 0 traces every pixel.
+    public int historyFrames = HISTORY_FRAMES;
+
+    /**
+     * Creates settings that always shoot lightSamplesPerLight shadow rays
+     */
+    public RenderSettings(int lightSamplesPerLight, int monteCarloSamples) {
+        this.lightSamplesPerLight = lightSamplesPerLight;
+        this.monteCarloSamples = monteCarloSamples;
+    }
+
+    public RenderSettings(int lightSamplesPerLight, int initialLightSamples, double lightSampleErrorThreshold,
+                          int monteCarloSamples) {
+        this(lightSamplesPerLight, monteCarloSamples);
+        this.initialLightSamples = initialLightSamples;
+        this.lightSampleErrorThreshold = lightSampleErrorThreshold;
+    }
+
+    /**
+     * Creates settings for a full quality render
+     */
+    public static RenderSettings makeDefault() {
+        return new RenderSettings(
+                LIGHT_SAMPLES_PER_LIGHT, INITIAL_LIGHT_SAMPLES, LIGHT_SAMPLE_ERROR_THRESHOLD, MONTE_CARLO_SAMPLES);
+    }
+
+    public RenderSettings(RenderSettings other) {
+        this(other.lightSamplesPerLight, other.initialLightSamples, other.lightSampleErrorThreshold,
+                other.monteCarloSamples);
+        this.sampler = other.sampler;
+        this.maxTraceDepth = other.maxTraceDepth;
+        this.rouletteStartDepth = other.rouletteStartDepth;
+        this.minimumThroughput = other.minimumThroughput;
+        this.irradianceCacheError = other.irradianceCacheError;
+        this.irradianceRecordSamples = other.irradianceRecordSamples;
+        this.causticPhotons = other.causticPhotons;
+        this.causticEstimatePhotons = other.causticEstimatePhotons;
+        this.antialiasingSamples = other.antialiasingSamples;
+        this.antialiasingContrast = other.antialiasingContrast;
+        this.historyFrames = other.historyFrames;
+    }
+
+    /**
+     * Writes all of the settings, for sending them to the worker processes of a RenderCoordinator
+     */
+    public void write(DataOutput out) throws IOException {
+        out.writeInt(lightSamplesPerLight);
+        out.writeInt(initialLightSamples);
+        out.writeDouble(lightSampleErrorThreshold);
+        out.writeInt(monteCarloSamples);
+        out.writeUTF(sampler.name());
+        out.writeInt(maxTraceDepth);
+        out.writeInt(rouletteStartDepth);
+        out.writeDouble(minimumThroughput);
+        out.writeDouble(irradianceCacheError);
+        out.writeInt(irradianceRecordSamples);
+        out.writeInt(causticPhotons);
+        out.writeInt(causticEstimatePhotons);
+        out.writeInt(antialiasingSamples);
+        out.writeDouble(antialiasingContrast);
+        out.writeInt(historyFrames);
+    }
+
+    /**
+     * Reads settings written by write
+     */
+    public static RenderSettings read(DataInput in) throws IOException {
+        RenderSettings settings = new RenderSettings(in.readInt(), in.readInt(), in.readDouble(), in.readInt());
+        try {
+            settings.sampler = Sampler.Type.valueOf(in.readUTF());
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Unknown sampler", e);
+        }
+        settings.maxTraceDepth = in.readInt();
+        settings.rouletteStartDepth = in.readInt();
+        settings.minimumThroughput = in.readDouble();
+        settings.irradianceCacheError = in.readDouble();
+        settings.irradianceRecordSamples = in.readInt();
+        settings.causticPhotons = in.readInt();
+        settings.causticEstimatePhotons = in.readInt();
+        settings.antialiasingSamples = in.readInt();
+        settings.antialiasingContrast = in.readDouble();
+        settings.historyFrames = in.readInt();
+
+        // The settings come from another process, so nothing is taken for granted
+        check(settings.lightSamplesPerLight >= 1, "lightSamplesPerLight");
+        check(settings.initialLightSamples >= 0, "initialLightSamples");
+        check(isNonNegative(settings.lightSampleErrorThreshold), "lightSampleErrorThreshold");
+        check(settings.monteCarloSamples >= 0, "monteCarloSamples");
+        check(settings.maxTraceDepth >= 0, "maxTraceDepth");
+        check(settings.rouletteStartDepth >= 0, "rouletteStartDepth");
+        check(isNonNegative(settings.minimumThroughput) && settings.minimumThroughput <= 1, "minimumThroughput");
+        check(isNonNegative(settings.irradianceCacheError), "irradianceCacheError");
+        check(settings.irradianceRecordSamples >= 1, "irradianceRecordSamples");
+        check(settings.causticPhotons >= 0, "causticPhotons");
+        check(settings.causticEstimatePhotons >= 1, "causticEstimatePhotons");
+        check(settings.antialiasingSamples >= 0, "antialiasingSamples");
+        check(isNonNegative(settings.antialiasingContrast), "antialiasingContrast");
+        check(settings.historyFrames >= 0, "historyFrames");
+        return settings;
+    }
+
+    private static void check(boolean valid, String setting) throws IOException {
+        if (!valid) {
+            throw new IOException("Invalid render settings: " + setting + " is out of range");
+        }
+    }
+
+    // False for negative numbers, infinity and NaN
+    private static boolean isNonNegative(double value) {
+        return value >= 0 && value < Double.POSITIVE_INFINITY;
+    }
+}
@@ -0,0 +1,347 @@
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Statistics about what rendering a frame cost: how many rays of every kind were traced, how many intersection tests
+ * they needed, and where the time and memory went.
+ *
+ * The counters are updated by all rendering threads at once, so they are LongAdders - every thread mostly increments
+ * its own cell, instead of all of them fighting over a single atomic value. They are reset when a frame starts, and
+ * copied into an immutable FrameStats when it ends. The last FrameStats is what the MBean interface reports.
+ */
+public class RenderStats implements RenderStatsMBean {
+    /**
+     * The statistics of a single finished frame
+     */
+    public static class FrameStats {
+        public final long frameNumber;
+        public final long primaryRays, shadowRays, reflectedRays, refractedRays, indirectRays;
+        public final long intersectionTests;
+        // Shadow rays blocked by the cached last occluder of their light, and shadow rays it did not block
+        public final long shadowCacheHits, shadowCacheMisses;
+        // Diffuse hits whose indirect light was interpolated from the irradiance cache, and records added to it
+        public final long irradianceCacheHits, irradianceRecords;
+        // Diffuse hits that found photons of the caustic photon map around them
+        public final long causticEstimates;
+        // Edge pixels that took more than one sample in Renderer.render
+        public final long antialiasedPixels;
+        // Pixels of Renderer.renderReprojected whose light was reused from the previous frame
+        public final long reprojectedPixels;
+        public final long maxDepth;
+        public final long frameNanos;
+        public final long directLightingNanos;
+        // -1 if the JVM cannot measure allocations per thread
+        public final long allocatedBytes;
+        // Name of the rendering thread -> nanoseconds spent rendering tiles
+        public final Map<String, Long> threadBusyNanos;
+
+        FrameStats(long frameNumber, RenderStats stats, long frameNanos, Map<String, Long> threadBusyNanos) {
+            this.frameNumber = frameNumber;
+            this.primaryRays = stats.primaryRays.sum();
+            this.shadowRays = stats.shadowRays.sum();
+            this.reflectedRays = stats.reflectedRays.sum();
+            this.refractedRays = stats.refractedRays.sum();
+            this.indirectRays = stats.indirectRays.sum();
+            this.intersectionTests = stats.intersectionTests.sum();
+            this.shadowCacheHits = stats.shadowCacheHits.sum();
+            this.shadowCacheMisses = stats.shadowCacheMisses.sum();
+            this.irradianceCacheHits = stats.irradianceCacheHits.sum();
+            this.irradianceRecords = stats.irradianceRecords.sum();
+            this.causticEstimates = stats.causticEstimates.sum();
+            this.antialiasedPixels = stats.antialiasedPixels.sum();
+            this.reprojectedPixels = stats.reprojectedPixels.sum();
+            this.maxDepth = stats.maxDepth.get();
+            this.frameNanos = frameNanos;
+            this.directLightingNanos = stats.directLightingNanos.sum();
+            this.allocatedBytes = stats.allocationTrackingSupported ? stats.allocatedBytes.sum() : -1;
+            this.threadBusyNanos = threadBusyNanos;
+        }
+
+        public long getTotalRays() {
+            return primaryRays + shadowRays + reflectedRays + refractedRays + indirectRays;
+        }
+    }
+
+    // Counters of the frame that is being rendered
+    final LongAdder primaryRays = new LongAdder();
+    final LongAdder shadowRays = new LongAdder();
+    final LongAdder reflectedRays = new LongAdder();
+    final LongAdder refractedRays = new LongAdder();
+    final LongAdder indirectRays = new LongAdder();
+    final LongAdder intersectionTests = new LongAdder();
+    final LongAdder shadowCacheHits = new LongAdder();
+    final LongAdder shadowCacheMisses = new LongAdder();
+    final LongAdder irradianceCacheHits = new LongAdder();
+    final LongAdder irradianceRecords = new LongAdder();
+    final LongAdder causticEstimates = new LongAdder();
+    final LongAdder antialiasedPixels = new LongAdder();
+    final LongAdder reprojectedPixels = new LongAdder();
+    final LongAdder directLightingNanos = new LongAdder();
+    final LongAdder allocatedBytes = new LongAdder();
+    final LongAccumulator maxDepth = new LongAccumulator(Math::max, 0);
+
+    private final com.sun.management.ThreadMXBean allocationBean;
+    private final boolean allocationTrackingSupported;
+
+    private volatile long buildNanos;
+    private volatile long photonMapNanos;
+    private volatile int causticPhotons;
+    private volatile FrameStats lastFrame;
+    private long frameCount;
+    private volatile boolean logFrames = Boolean.getBoolean("raytracer.stats.log");
+
+    public RenderStats() {
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        if (threadBean instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) threadBean).isThreadAllocatedMemorySupported()) {
+            allocationBean = (com.sun.management.ThreadMXBean) threadBean;
+            allocationBean.setThreadAllocatedMemoryEnabled(true);
+            allocationTrackingSupported = true;
+        } else {
+            allocationBean = null;
+            allocationTrackingSupported = false;
+        }
+        lastFrame = new FrameStats(0, this, 0, new TreeMap<>());
+    }
+
+    /**
+     * Makes the statistics available over JMX as raytracer:type=RenderStats,name=[name]
+     */
+    public void registerMBean(String name) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(
+                    this, new ObjectName("raytracer:type=RenderStats,name=" + ObjectName.quote(name)));
+        } catch (JMException e) {
+            throw new IllegalStateException("Could not register the render statistics MBean", e);
+        }
+    }
+
+    /**
+     * Resets the counters. Called before the first ray of a frame is traced.
+     */
+    void beginFrame() {
+        primaryRays.reset();
+        shadowRays.reset();
+        reflectedRays.reset();
+        refractedRays.reset();
+        indirectRays.reset();
+        intersectionTests.reset();
+        shadowCacheHits.reset();
+        shadowCacheMisses.reset();
+        irradianceCacheHits.reset();
+        irradianceRecords.reset();
+        causticEstimates.reset();
+        antialiasedPixels.reset();
+        reprojectedPixels.reset();
+        directLightingNanos.reset();
+        allocatedBytes.reset();
+        maxDepth.reset();
+    }
+
+    /**
+     * Wraps a tile renderer so that the memory allocated while rendering every tile is counted
+     */
+    TileScheduler.TileRenderer countAllocations(TileScheduler.TileRenderer renderer) {
+        if (!allocationTrackingSupported) {
+            return renderer;
+        }
+        return tile -> {
+            long before = allocationBean.getCurrentThreadAllocatedBytes();
+            renderer.renderTile(tile);
+            allocatedBytes.add(allocationBean.getCurrentThreadAllocatedBytes() - before);
+        };
+    }
+
+    /**
+     * Takes a snapshot of the counters once all tiles of a frame are rendered
+     * @param tiles The rendered tiles, with their timings
+     * @param frameNanos The wall-clock time of the frame
+     */
+    synchronized void endFrame(List<TileScheduler.Tile> tiles, long frameNanos) {
+        Map<String, Long> threadBusyNanos = new TreeMap<>();
+        for (TileScheduler.Tile tile : tiles) {
+            threadBusyNanos.merge(tile.workerName, tile.renderTimeNanos, Long::sum);
+        }
+        lastFrame = new FrameStats(++frameCount, this, frameNanos, threadBusyNanos);
+        if (logFrames) {
+            System.out.println(getSummary());
+        }
+    }
+
+    void setBuildNanos(long buildNanos) {
+        this.buildNanos = buildNanos;
+    }
+
+    void setPhotonMap(long photonMapNanos, int causticPhotons) {
+        this.photonMapNanos = photonMapNanos;
+        this.causticPhotons = causticPhotons;
+    }
+
+    /**
+     * Returns the statistics of the last finished frame
+     */
+    public FrameStats getLastFrame() {
+        return lastFrame;
+    }
+
+    @Override
+    public long getFrameCount() {
+        return lastFrame.frameNumber;
+    }
+
+    @Override
+    public long getPrimaryRays() {
+        return lastFrame.primaryRays;
+    }
+
+    @Override
+    public long getShadowRays() {
+        return lastFrame.shadowRays;
+    }
+
+    @Override
+    public long getReflectedRays() {
+        return lastFrame.reflectedRays;
+    }
+
+    @Override
+    public long getRefractedRays() {
+        return lastFrame.refractedRays;
+    }
+
+    @Override
+    public long getIndirectRays() {
+        return lastFrame.indirectRays;
+    }
+
+    @Override
+    public long getIntersectionTests() {
+        return lastFrame.intersectionTests;
+    }
+
+    @Override
+    public long getShadowCacheHits() {
+        return lastFrame.shadowCacheHits;
+    }
+
+    @Override
+    public long getShadowCacheMisses() {
+        return lastFrame.shadowCacheMisses;
+    }
+
+    @Override
+    public double getShadowCacheHitRate() {
+        long tested = lastFrame.shadowCacheHits + lastFrame.shadowCacheMisses;
+        return tested > 0 ? (double) lastFrame.shadowCacheHits / tested : 0;
+    }
+
+    @Override
+    public long getIrradianceCacheHits() {
+        return lastFrame.irradianceCacheHits;
+    }
+
+    @Override
+    public long getIrradianceRecords() {
+        return lastFrame.irradianceRecords;
+    }
+
+    @Override
+    public long getCausticEstimates() {
+        return lastFrame.causticEstimates;
+    }
+
+    @Override
+    public long getAntialiasedPixels() {
+        return lastFrame.antialiasedPixels;
+    }
+
+    @Override
+    public long getReprojectedPixels() {
+        return lastFrame.reprojectedPixels;
+    }
+
+    @Override
+    public long getMaxDepth() {
+        return lastFrame.maxDepth;
+    }
+
+    @Override
+    public double getFrameTimeMillis() {
+        return lastFrame.frameNanos / 1e6;
+    }
+
+    @Override
+    public double getDirectLightingTimeMillis() {
+        return lastFrame.directLightingNanos / 1e6;
+    }
+
+    @Override
+    public double getBuildTimeMillis() {
+        return buildNanos / 1e6;
+    }
+
+    @Override
+    public double getPhotonMapTimeMillis() {
+        return photonMapNanos / 1e6;
+    }
+
+    @Override
+    public int getCausticPhotons() {
+        return causticPhotons;
+    }
+
+    @Override
+    public long getAllocatedBytes() {
+        return lastFrame.allocatedBytes;
+    }
+
+    @Override
+    public String getThreadBusyTimes() {
+        StringBuilder builder = new StringBuilder();
+        for (Map.Entry<String, Long> entry : lastFrame.threadBusyNanos.entrySet()) {
+            if (builder.length() > 0) {
+                builder.append(", ");
+            }
+            builder.append(String.format("%s=%.1fms", entry.getKey(), entry.getValue() / 1e6));
+        }
+        return builder.toString();
+    }
+
+    @Override
+    public String getSummary() {
+        FrameStats frame = lastFrame;
+        double seconds = frame.frameNanos / 1e9;
+        long shadowCacheTests = frame.shadowCacheHits + frame.shadowCacheMisses;
+        return String.format(
+                "frame %d: %.1f ms, rays: %d primary, %d shadow, %d reflected, %d refracted, %d indirect " +
+                        "(%.2f Mrays/s), %d intersection tests, shadow cache hits %d of %d, " +
+                        "irradiance cache hits %d, %d new records, %d caustic estimates, %d antialiased pixels, " +
+                        "%d reprojected pixels, max depth %d, " +
+                        "direct lighting %.1f ms, allocated %.1f MB, busy: %s",
+                frame.frameNumber, frame.frameNanos / 1e6,
+                frame.primaryRays, frame.shadowRays, frame.reflectedRays, frame.refractedRays, frame.indirectRays,
+                seconds > 0 ? frame.getTotalRays() / seconds / 1e6 : 0.0,
+                frame.intersectionTests, frame.shadowCacheHits, shadowCacheTests,
+                frame.irradianceCacheHits, frame.irradianceRecords, frame.causticEstimates, frame.antialiasedPixels,
+                frame.reprojectedPixels, frame.maxDepth,
+                frame.directLightingNanos / 1e6,
+                frame.allocatedBytes / (1024.0 * 1024.0), getThreadBusyTimes());
+    }
+
+    @Override
+    public boolean isLogFrames() {
+        return logFrames;
+    }
+
+    @Override
+    public void setLogFrames(boolean logFrames) {
+        this.logFrames = logFrames;
+    }
+}
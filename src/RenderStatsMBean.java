@@ -0,0 +1,108 @@
+/**
+ * The management interface of RenderStats, so that the statistics can be watched in JConsole or VisualVM while the
+ * renderer is running. All of the values describe the last finished frame, unless stated otherwise.
+ */
+public interface RenderStatsMBean {
+    long getFrameCount();
+
+    long getPrimaryRays();
+
+    long getShadowRays();
+
+    long getReflectedRays();
+
+    long getRefractedRays();
+
+    long getIndirectRays();
+
+    /**
+     * Ray-primitive intersection tests, for both closest hit and shadow queries
+     */
+    long getIntersectionTests();
+
+    /**
+     * Shadow rays that were blocked by the last occluder cached for their light source, so they needed no traversal
+     */
+    long getShadowCacheHits();
+
+    /**
+     * Shadow rays tested against a cached occluder that did not block them
+     */
+    long getShadowCacheMisses();
+
+    /**
+     * Hits divided by all shadow rays tested against a cached occluder
+     */
+    double getShadowCacheHitRate();
+
+    /**
+     * Diffuse hits whose indirect light was interpolated from the irradiance cache
+     */
+    long getIrradianceCacheHits();
+
+    /**
+     * Records added to the irradiance cache, each costing a full hemisphere of indirect rays
+     */
+    long getIrradianceRecords();
+
+    /**
+     * Diffuse hits that found photons of the caustic photon map around them
+     */
+    long getCausticEstimates();
+
+    /**
+     * Edge pixels that took more than one sample in a full render
+     */
+    long getAntialiasedPixels();
+
+    /**
+     * Pixels of the last frame rendered while the camera moved whose light was reused from the previous frame
+     */
+    long getReprojectedPixels();
+
+    long getMaxDepth();
+
+    double getFrameTimeMillis();
+
+    /**
+     * Time spent computing direct lighting, summed over all rendering threads
+     */
+    double getDirectLightingTimeMillis();
+
+    /**
+     * Time the acceleration structures took to build the last time they were built
+     */
+    double getBuildTimeMillis();
+
+    /**
+     * Time the last photon map took to trace and build
+     */
+    double getPhotonMapTimeMillis();
+
+    /**
+     * Photons stored in the last photon map
+     */
+    int getCausticPhotons();
+
+    /**
+     * Bytes allocated by the rendering threads while rendering the frame, or -1 if the JVM cannot measure it
+     */
+    long getAllocatedBytes();
+
+    /**
+     * Time every rendering thread spent rendering tiles, e.g. "render-worker-1=12.3ms, render-worker-2=11.9ms"
+     */
+    String getThreadBusyTimes();
+
+    /**
+     * The statistics of the last frame in a single line
+     */
+    String getSummary();
+
+    boolean isLogFrames();
+
+    /**
+     * Prints the summary of every frame to standard output when enabled
+     */
+    void setLogFrames(boolean logFrames);
+}
@@ -0,0 +1,271 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A process that renders tiles of an image for a RenderCoordinator, so that a frame can be spread over several
+ * machines - or several JVMs on one machine. It serves one coordinator at a time, and waits for the next one once it is
+ * done.
+ *
+ * Usage: RenderWorker [options]
+ *   --port N         The TCP port to listen on, 0 picks a free one (default 7788). The port is printed once the
+ *                    worker listens.
+ *   --threads N      Number of rendering threads (default: number of processors)
+ *   --fail-after N   Exit without a word after rendering N tiles, for testing the retries of the coordinator
+ *
+ * The protocol is binary, over DataInput/DataOutput streams. Both sides start with MAGIC and PROTOCOL_VERSION, and
+ * the worker adds its number of rendering threads. Then the coordinator sends a JOB with the RenderJob, and TILE
+ * messages (id, x, y, width, height), each of which the worker answers with a RESULT (id and the light of the pixels
+ * as floats, see Renderer.renderRegion) in the order they came in. DONE ends the connection. The worker answers
+ * anything it cannot do - including a job that fails while it is set up or rendered - with an ERROR and a message,
+ * and closes the connection. It then goes on listening.
+ */
+public class RenderWorker {
+    static final int MAGIC = 0x52545752;
+    static final int PROTOCOL_VERSION = 1;
+    static final int DEFAULT_PORT = 7788;
+    // Messages of the coordinator
+    static final byte JOB = 1, TILE = 2, DONE = 3;
+    // Messages of the worker
+    static final byte RESULT = 1, ERROR = 2;
+    // Printed when the worker is ready, followed by the port
+    private static final String READY_MESSAGE = "RenderWorker listening on port ";
+
+    private static final String USAGE = "Usage: RenderWorker [--port N] [--threads N] [--fail-after N]";
+
+    private final int threadCount;
+    // Tiles left until the worker fails on purpose, or -1
+    private int tilesUntilFailure;
+
+    public RenderWorker(int threadCount, int failAfterTiles) {
+        this.threadCount = threadCount;
+        this.tilesUntilFailure = failAfterTiles;
+    }
+
+    public static void main(String[] args) throws IOException {
+        System.setProperty("java.awt.headless", "true");
+
+        int port = DEFAULT_PORT;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int failAfter = -1;
+        try {
+            for (int i = 0; i < args.length; i += 2) {
+                if (i + 1 >= args.length) {
+                    throw new IllegalArgumentException("Missing value for " + args[i]);
+                }
+                int value = Integer.parseInt(args[i + 1]);
+                switch (args[i]) {
+                    case "--port":
+                        port = value;
+                        break;
+                    case "--threads":
+                        if (value < 1) {
+                            throw new IllegalArgumentException("--threads needs to be >= 1");
+                        }
+                        threads = value;
+                        break;
+                    case "--fail-after":
+                        failAfter = value;
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown option " + args[i]);
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            System.exit(1);
+            return;
+        }
+
+        RenderWorker worker = new RenderWorker(threads, failAfter);
+        try (ServerSocket server = new ServerSocket(port)) {
+            System.out.println(READY_MESSAGE + server.getLocalPort());
+            System.out.flush();
+            while (true) {
+                try (Socket socket = server.accept()) {
+                    worker.serve(socket);
+                } catch (IOException e) {
+                    System.err.println("Connection to the coordinator lost: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Renders the tiles requested by a coordinator until it is done
+     */
+    public void serve(Socket socket) throws IOException {
+        socket.setTcpNoDelay(true);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        out.writeInt(MAGIC);
+        out.writeInt(PROTOCOL_VERSION);
+        out.writeInt(threadCount);
+        out.flush();
+        if (in.readInt() != MAGIC || in.readInt() != PROTOCOL_VERSION) {
+            throw new IOException("Not a coordinator of the same version");
+        }
+
+        RenderJob job = null;
+        Renderer renderer = null;
+        try {
+            while (true) {
+                byte message = in.readByte();
+                if (message == DONE) {
+                    return;
+                } else if (message == JOB) {
+                    job = RenderJob.read(in);
+                    if (renderer != null) {
+                        renderer.getTileScheduler().close();
+                        renderer = null;
+                    }
+                    try {
+                        renderer = job.createRenderer(threadCount);
+                    } catch (IllegalArgumentException | UncheckedIOException e) {
+                        sendError(out, e.getMessage());
+                        return;
+                    }
+                } else if (message == TILE) {
+                    int id = in.readInt();
+                    int x = in.readInt(), y = in.readInt(), width = in.readInt(), height = in.readInt();
+                    if (renderer == null) {
+                        sendError(out, "No job was sent before the tiles");
+                        return;
+                    }
+                    // Written so that huge values cannot overflow past the checks
+                    if (x < 0 || y < 0 || width < 1 || height < 1 || width > job.width - x || height > job.height - y) {
+                        sendError(out, "Tile " + id + " is outside of the image");
+                        return;
+                    }
+                    if (tilesUntilFailure == 0) {
+                        Runtime.getRuntime().halt(1);
+                    }
+                    float[] light = new float[3 * width * height];
+                    renderer.renderRegion(x, y, width, height, job.samplesPerPixel, job.settings, light);
+                    ByteBuffer bytes = ByteBuffer.allocate(light.length * Float.BYTES);
+                    bytes.asFloatBuffer().put(light);
+                    out.writeByte(RESULT);
+                    out.writeInt(id);
+                    out.write(bytes.array());
+                    out.flush();
+                    if (tilesUntilFailure > 0) {
+                        --tilesUntilFailure;
+                    }
+                } else {
+                    throw new IOException("Unknown message " + message);
+                }
+            }
+        } catch (RuntimeException e) {
+            // A job this worker cannot render must not take it down. The coordinator hands the tiles to the others, and
+            // the worker waits for the next connection.
+            System.err.println("Rendering failed: " + e);
+            sendError(out, e.toString());
+        } finally {
+            if (renderer != null) {
+                renderer.getTileScheduler().close();
+            }
+        }
+    }
+
+    private static void sendError(DataOutputStream out, String message) throws IOException {
+        out.writeByte(ERROR);
+        out.writeUTF(message != null ? message : "Unknown error");
+        out.flush();
+    }
+
+    /**
+     * Worker processes started on this machine, for testing the distributed rendering without other machines.
+     * Closing it stops them.
+     */
+    public static class LocalProcesses implements AutoCloseable {
+        private final List<Process> processes = new ArrayList<>();
+        private final List<InetSocketAddress> addresses = new ArrayList<>();
+
+        /**
+         * Starts count workers with the Java runtime, class path and JVM options of this process, each listening on
+         * a free port, and waits until they listen
+         * @param threadsPerWorker The number of rendering threads of every worker
+         */
+        public LocalProcesses(int count, int threadsPerWorker) throws IOException {
+            List<String> command = new ArrayList<>();
+            command.add(System.getProperty("java.home") + "/bin/java");
+            // Carries options like --add-modules jdk.incubator.vector over to the workers
+            command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+            command.add("-cp");
+            command.add(System.getProperty("java.class.path"));
+            command.add(RenderWorker.class.getName());
+            command.add("--port");
+            command.add("0");
+            command.add("--threads");
+            command.add(Integer.toString(threadsPerWorker));
+            try {
+                for (int i = 0; i < count; ++i) {
+                    Process process = new ProcessBuilder(command)
+                            .redirectError(ProcessBuilder.Redirect.INHERIT)
+                            .start();
+                    processes.add(process);
+                    addresses.add(new InetSocketAddress("localhost", readPort(process)));
+                }
+            } catch (IOException e) {
+                close();
+                throw e;
+            }
+        }
+
+        // Reads the port from the line printed by a worker once it listens. The worker may print more afterwards,
+        // like the statistics of every tile with -Draytracer.stats.log=true, so the rest of its output is copied to
+        // ours, or it would block once the pipe is full.
+        private static int readPort(Process process) throws IOException {
+            BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith(READY_MESSAGE)) {
+                    int port = Integer.parseInt(line.substring(READY_MESSAGE.length()).trim());
+                    Thread thread = new Thread(() -> copyOutput(reader), "worker-output-" + port);
+                    thread.setDaemon(true);
+                    thread.start();
+                    return port;
+                }
+            }
+            throw new IOException("A local worker exited before listening");
+        }
+
+        // Copies the lines of a worker to the output of this process, until the worker exits
+        private static void copyOutput(BufferedReader reader) {
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    System.out.println(line);
+                }
+            } catch (IOException e) {
+                // The worker was stopped
+            }
+        }
+
+        public List<InetSocketAddress> getAddresses() {
+            return addresses;
+        }
+
+        @Override
+        public void close() {
+            for (Process process : processes) {
+                process.destroy();
+            }
+        }
+    }
+}
@@ -0,0 +1,966 @@
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * The Renderer holds the contents of a scene and traces rays through it to generate images. It does not depend on any
+ * UI, so it is used both by the interactive Scene panel and by headless batch rendering.
+ */
+public class Renderer {
+    // Constants
+    private static final double AIR_REFRACTION_INDEX = 1.0;
+    // Package visible for the benchmark workloads, which cast shadow rays like the renderer
+    static final double MINIMUM_RAY_LENGTH = 0.0001;
+    private static final int TILE_SIZE = 16;
+    // Photons are traced in batches of this many, every batch on one rendering thread
+    private static final int PHOTON_BATCH_SIZE = 4096;
+    // The caustic estimate only uses photons within this fraction of the size of the scene
+    private static final double CAUSTIC_RADIUS_FRACTION = 0.02;
+
+    // Configuration of the scene
+    Camera camera;
+    ArrayList<Solid> solids = new ArrayList<>();
+    ArrayList<LightSource> lightSources = new ArrayList<>();
+    double exposure;
+    LightIntensity ambientLight;
+
+    // Built from solids once the scene is set up. Needs to be rebuilt whenever solids change.
+    BoundingVolumeHierarchy solidsHierarchy;
+    // Every rendering thread reuses its own hit record for all of the rays it casts
+    private final ThreadLocal<HitRecord> hitRecords = ThreadLocal.withInitial(HitRecord::new);
+    // ...and its own packet for the shadow rays
+    private final ThreadLocal<RayPacket> shadowRayPackets =
+            ThreadLocal.withInitial(() -> new RayPacket(IntersectionKernels.get().getLaneCount()));
+    // ...and remembers which solid blocked its last shadow ray towards every light
+    private final ThreadLocal<ShadowCache> shadowCaches = ThreadLocal.withInitial(ShadowCache::new);
+    // The indirect light computed so far, shared by all rendering threads. Created at the start of a frame whose
+    // settings use it, and dropped when the scene is compiled again.
+    private volatile IrradianceCache irradianceCache;
+    // The caustics of the refractive solids, shared by all rendering threads in the same way. Traced at the start of
+    // the first frame whose settings use it, and dropped when the scene is compiled again.
+    private volatile PhotonMap photonMap;
+    // The number of photons the map was traced with
+    private volatile int photonMapPhotonCount;
+    // The pixels of the last frame rendered by renderReprojected, dropped when the scene is compiled again
+    private final TemporalHistory history = new TemporalHistory();
+    // Renders images in tiles on its own pool of threads
+    private final TileScheduler tileScheduler;
+    // Counts the rays and the time spent on every frame
+    private final RenderStats stats = new RenderStats();
+
+    /**
+     * The last solid that blocked a shadow ray towards every light source, kept by every rendering thread. The pixels
+     * of a tile are rendered one after another, and shadow rays of neighbouring pixels are usually blocked by the same
+     * solid.
+     */
+    private static class ShadowCache {
+        private BoundingVolumeHierarchy hierarchy;
+        private int[] lastOccluders = new int[0];
+
+        /**
+         * Returns the last occluder of every light, as returned by RayPacket.getOccluder, or -1. Forgets everything if
+         * the scene was compiled again since the last call.
+         */
+        int[] getLastOccluders(BoundingVolumeHierarchy hierarchy, int lightCount) {
+            if (this.hierarchy != hierarchy || lastOccluders.length != lightCount) {
+                this.hierarchy = hierarchy;
+                lastOccluders = new int[lightCount];
+                Arrays.fill(lastOccluders, -1);
+            }
+            return lastOccluders;
+        }
+    }
+
+    /**
+     * Creates an empty renderer using one rendering thread per available processor
+     */
+    public Renderer() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates an empty renderer
+     * @param threadCount The number of threads used for rendering
+     */
+    public Renderer(int threadCount) {
+        tileScheduler = new TileScheduler(threadCount, TILE_SIZE, TileScheduler.TileOrder.HILBERT);
+    }
+
+    public Camera getCamera() {
+        return camera;
+    }
+
+    public double getExposure() {
+        return exposure;
+    }
+
+    public TileScheduler getTileScheduler() {
+        return tileScheduler;
+    }
+
+    public RenderStats getStats() {
+        return stats;
+    }
+
+    /**
+     * Compiles the scene for rendering: builds the BVH and copies the solids into its flat primitive arrays and
+     * material table. Has to be called after the solids are set up.
+     */
+    public void buildAccelerationStructures() {
+        long start = System.nanoTime();
+        useAccelerationStructures(new BoundingVolumeHierarchy(solids, tileScheduler), start);
+    }
+
+    /**
+     * Compiles the scene with a hierarchy built earlier over the same solids, like the one of a cached SceneFile
+     * @param start When the compilation started, in System.nanoTime
+     */
+    void useAccelerationStructures(BoundingVolumeHierarchy hierarchy, long start) {
+        solidsHierarchy = hierarchy;
+        solidsHierarchy.setIntersectionTestCounter(stats.intersectionTests);
+        irradianceCache = null;
+        photonMap = null;
+        history.clear();
+        stats.setBuildNanos(System.nanoTime() - start);
+    }
+
+    /**
+     * Checks whether the scene was compiled, by buildAccelerationStructures or by loading a SceneFile
+     */
+    public boolean isCompiled() {
+        return solidsHierarchy != null;
+    }
+
+    /**
+     * Forgets the indirect light computed so far. Has to be called when the lights or materials change.
+     */
+    public void clearIrradianceCache() {
+        irradianceCache = null;
+    }
+
+    /**
+     * Returns the irradiance cache used by the last frame, or null if it did not use one
+     */
+    public IrradianceCache getIrradianceCache() {
+        return irradianceCache;
+    }
+
+    // Creates the irradiance cache if the settings use one and there is none with the same error yet. The records are
+    // kept from frame to frame otherwise, since they do not depend on the camera.
+    private void prepareIrradianceCache(RenderSettings settings) {
+        if (settings.monteCarloSamples == 0 || settings.irradianceCacheError <= 0) {
+            irradianceCache = null;
+        } else if (irradianceCache == null || irradianceCache.getMaxError() != settings.irradianceCacheError) {
+            irradianceCache = new IrradianceCache(solidsHierarchy.getBounds(), settings.irradianceCacheError);
+        }
+    }
+
+    /**
+     * Forgets the photon map, so that the next frame traces a new one. Has to be called when the lights or materials
+     * change.
+     */
+    public void clearPhotonMap() {
+        photonMap = null;
+    }
+
+    /**
+     * Returns the photon map used by the last frame, or null if it did not use one
+     */
+    public PhotonMap getPhotonMap() {
+        return photonMap;
+    }
+
+    // Traces the photon map if the settings use one and there is none with the same number of photons yet. Like the
+    // irradiance cache, it does not depend on the camera.
+    private void preparePhotonMap(RenderSettings settings) {
+        if (!usesPhotonMap(settings)) {
+            photonMap = null;
+        } else if (photonMap == null || photonMapPhotonCount != settings.causticPhotons) {
+            long start = System.nanoTime();
+            PhotonMap map = tracePhotons(settings);
+            photonMapPhotonCount = settings.causticPhotons;
+            photonMap = map;
+            stats.setPhotonMap(System.nanoTime() - start, map.size());
+        }
+    }
+
+    /**
+     * Renders the scene to the provided BufferedImage with adaptive anti-aliasing. Every pixel is first sampled with one
+     * ray through its center. Then the pixels on edges - where the solid, the depth or the color changes from one
+     * pixel to the next, see EdgeBuffer - take up to antialiasingSamples more jittered samples. The flat areas, which
+     * are most of the image, cost a single ray per pixel.
+     */
+    public void render(BufferedImage canvas, RenderSettings settings) {
+        stats.beginFrame();
+        prepareIrradianceCache(settings);
+        preparePhotonMap(settings);
+        double whiteIntensity = 1.0 / exposure;
+        EdgeBuffer centers = new EdgeBuffer(canvas.getWidth(), canvas.getHeight());
+        List<TileScheduler.Tile> tiles = new ArrayList<>(tileScheduler.render(canvas.getWidth(), canvas.getHeight(), stats.countAllocations(tile -> {
+            stats.primaryRays.add(tile.width * tile.height);
+            Sampler sampler = settings.sampler.create(Sampler.mix(tile.index));
+            LightIntensity intensity = LightIntensity.makeZero();
+            for (int y = tile.y; y < tile.y + tile.height; ++y) {
+                for (int x = tile.x; x < tile.x + tile.width; ++x) {
+                    sampler.startPixelSample(x, y, 0);
+                    Ray ray = camera.getRayForPixel(x + 0.5, y + 0.5);
+                    // Cast here rather than in traceRay, since the edges need to know what the ray hit
+                    HitRecord hit = hitRecords.get().reset();
+                    LightSource hitLight = castRay(ray, hit);
+                    Object hitObject = hitLight != null ? hitLight : hit.solid;
+                    double distance = hit.t;
+                    shadeRay(ray, hit, hitLight, 0, settings, sampler, 1, intensity.setZero());
+                    centers.set(x, y, intensity, whiteIntensity, distance, hitObject);
+                    canvas.setRGB(x, y, intensity.translateToRGB(whiteIntensity).getRGB());
+                }
+            }
+        })));
+        long frameNanos = tileScheduler.getLastFrameNanos();
+
+        if (settings.antialiasingSamples > 0) {
+            // All center samples are known by now, so the edges can be found across the borders of the tiles
+            tiles.addAll(tileScheduler.render(canvas.getWidth(), canvas.getHeight(), stats.countAllocations(tile -> {
+                Sampler sampler = settings.sampler.create(Sampler.mix(0x10000 + tile.index));
+                LightIntensity sum = LightIntensity.makeZero();
+                for (int y = tile.y; y < tile.y + tile.height; ++y) {
+                    for (int x = tile.x; x < tile.x + tile.width; ++x) {
+                        if (centers.isEdge(x, y, settings.antialiasingContrast)) {
+                            antialiasPixel(x, y, centers, settings, sampler, sum);
+                            canvas.setRGB(x, y, sum.translateToRGB(whiteIntensity).getRGB());
+                        }
+                    }
+                }
+            })));
+            frameNanos += tileScheduler.getLastFrameNanos();
+        }
+        stats.endFrame(tiles, frameNanos);
+    }
+
+    /**
+     * Renders the scene to the provided BufferedImage for a camera that moves, reusing the diffuse light of the last
+     * frame rendered this way wherever it is still valid, see TemporalHistory. Every pixel casts a ray through its
+     * center to find what it sees, but only computes its diffuse light - the shadow rays, the indirect light - if that
+     * point was not seen by the last frame or its history was rejected. Reflections and refractions move across a
+     * surface as the camera moves, so they are traced in every frame. There is no anti-aliasing.
+     *
+     * The last frame may have had a different size. It is forgotten when the scene is compiled again, and has to be
+     * forgotten with clearHistory when the lights or materials change.
+     */
+    public void renderReprojected(BufferedImage canvas, RenderSettings settings) {
+        stats.beginFrame();
+        prepareIrradianceCache(settings);
+        preparePhotonMap(settings);
+        double whiteIntensity = 1.0 / exposure;
+        history.startFrame(canvas.getWidth(), canvas.getHeight());
+        long frame = history.getFrameNumber();
+        List<TileScheduler.Tile> tiles = tileScheduler.render(canvas.getWidth(), canvas.getHeight(), stats.countAllocations(tile -> {
+            stats.primaryRays.add(tile.width * tile.height);
+            Sampler sampler = settings.sampler.create(Sampler.mix(frame * 0x10000 + tile.index));
+            LightIntensity intensity = LightIntensity.makeZero();
+            LightIntensity diffuse = LightIntensity.makeZero();
+            for (int y = tile.y; y < tile.y + tile.height; ++y) {
+                for (int x = tile.x; x < tile.x + tile.width; ++x) {
+                    sampler.startPixelSample(x, y, frame);
+                    Ray ray = camera.getRayForPixel(x + 0.5, y + 0.5);
+                    HitRecord hit = hitRecords.get().reset();
+                    LightSource hitLight = castRay(ray, hit);
+                    if (hitLight != null || !hit.isHit()) {
+                        shadeRay(ray, hit, hitLight, 0, settings, sampler, 1, intensity.setZero());
+                        history.set(x, y, null, null, null, intensity, 0);
+                    } else {
+                        // The same as shadeRay, with the diffuse light taken from the history if possible
+                        stats.maxDepth.accumulate(1);
+                        Material material = solidsHierarchy.getMaterial(hit.material);
+                        double footprint = hit.t * camera.getPixelAngle();
+                        Solid.Intersection intersection = hit.toIntersection(ray);
+                        Vector3D point = intersection.info.pointOfIntersection;
+                        Vector3D normal = intersection.info.getNormal();
+                        int age = history.reproject(point, normal, intersection.intersectedSolid, settings.historyFrames, diffuse);
+                        if (age >= 0) {
+                            ++age;
+                            stats.reprojectedPixels.increment();
+                        } else {
+                            addDiffuseLight(intersection, footprint, 1, diffuse.setZero(), 1, settings, sampler);
+                            age = history.getStartAge(x, y, settings.historyFrames);
+                        }
+                        history.set(x, y, point, normal, intersection.intersectedSolid, diffuse, age);
+                        intensity.set(diffuse);
+                        addSpecularLight(ray.getShifted(MINIMUM_RAY_LENGTH), intersection, material, 1, intensity, 1, settings, sampler);
+                    }
+                    canvas.setRGB(x, y, intensity.translateToRGB(whiteIntensity).getRGB());
+                }
+            }
+        }));
+        history.finishFrame(camera);
+        stats.endFrame(tiles, tileScheduler.getLastFrameNanos());
+    }
+
+    /**
+     * Forgets the frame that renderReprojected reuses, so that its next frame computes the light of every pixel. Has
+     * to be called when the lights or materials change.
+     */
+    public void clearHistory() {
+        history.clear();
+    }
+
+    /**
+     * Takes more samples of an edge pixel, at jittered points picked by the sampler, and writes the average of them and
+     * the center sample to result. The samples are taken in batches of four. Sampling stops early once a batch no
+     * longer changes the displayed average by more than half of antialiasingContrast, which happens on edges between
+     * similar colors.
+     */
+    private void antialiasPixel(int x, int y, EdgeBuffer centers, RenderSettings settings, Sampler sampler, LightIntensity result) {
+        double whiteIntensity = 1.0 / exposure;
+        LightIntensity sum = centers.getLight(x, y, LightIntensity.makeZero());
+        LightIntensity intensity = LightIntensity.makeZero();
+        int count = 1;
+        while (count <= settings.antialiasingSamples) {
+            double previousRed = sum.red / count, previousGreen = sum.green / count, previousBlue = sum.blue / count;
+            int batch = Math.min(4, settings.antialiasingSamples + 1 - count);
+            for (int i = 0; i < batch; ++i) {
+                // The center sample took index 0 of the pixel
+                sampler.startPixelSample(x, y, count);
+                sampler.sample2D(sampler.startDimension(), 0, 1);
+                Ray ray = camera.getRayForPixel(x + sampler.u, y + sampler.v);
+                traceRay(ray, 0, settings, sampler, 1, intensity.setZero());
+                sum.addInPlace(intensity);
+                ++count;
+            }
+            stats.primaryRays.add(batch);
+            double change = Math.max(Math.abs(sum.red / count - previousRed),
+                    Math.max(Math.abs(sum.green / count - previousGreen), Math.abs(sum.blue / count - previousBlue)));
+            if (change < 0.5 * settings.antialiasingContrast * whiteIntensity) {
+                break;
+            }
+        }
+        stats.antialiasedPixels.increment();
+        result.set(sum).multiplyInPlace(1.0 / count);
+    }
+
+    /**
+     * Adds one sample to every pixel of the accumulation buffer. Every pass goes through a different point of each
+     * pixel, which anti-aliases the image as the passes accumulate. The points come from the sampler of the settings,
+     * which continues its sequence in every pass.
+     */
+    public void renderPass(AccumulationBuffer buffer, RenderSettings settings) {
+        stats.beginFrame();
+        prepareIrradianceCache(settings);
+        preparePhotonMap(settings);
+        long pass = buffer.getPassCount();
+        List<TileScheduler.Tile> tiles = tileScheduler.render(buffer.getWidth(), buffer.getHeight(), stats.countAllocations(tile -> {
+            stats.primaryRays.add(tile.width * tile.height);
+            // Every tile is rendered by a single thread, so its sampler is never shared
+            Sampler sampler = settings.sampler.create(Sampler.mix(pass * 0x10000 + tile.index));
+            LightIntensity intensity = LightIntensity.makeZero();
+            for (int y = tile.y; y < tile.y + tile.height; ++y) {
+                for (int x = tile.x; x < tile.x + tile.width; ++x) {
+                    sampler.startPixelSample(x, y, pass);
+                    sampler.sample2D(sampler.startDimension(), 0, 1);
+                    Ray ray = camera.getRayForPixel(x + sampler.u, y + sampler.v);
+                    traceRay(ray, 0, settings, sampler, 1, intensity.setZero());
+                    buffer.add(x, y, intensity);
+                }
+            }
+        }));
+        buffer.finishPass();
+        stats.endFrame(tiles, tileScheduler.getLastFrameNanos());
+    }
+
+    /**
+     * Renders a rectangle of the image with the given number of jittered samples per pixel - the same samples as that
+     * many passes of renderPass take - and writes the mean light of every pixel to out, red, green and blue one after
+     * another, row by row. This is the unit of work of a RenderWorker, so the region is spread over all rendering
+     * threads.
+     * @param out Receives 3 * width * height values
+     */
+    public void renderRegion(int regionX, int regionY, int width, int height, int samples, RenderSettings settings, float[] out) {
+        stats.beginFrame();
+        prepareIrradianceCache(settings);
+        preparePhotonMap(settings);
+        List<TileScheduler.Tile> tiles = tileScheduler.render(width, height, stats.countAllocations(tile -> {
+            stats.primaryRays.add((long) tile.width * tile.height * samples);
+            // Seeded by the position in the image, so the random samplers do not depend on how it is split
+            Sampler sampler = settings.sampler.create(Sampler.mix(((long) (regionX + tile.x) << 32) ^ (regionY + tile.y)));
+            LightIntensity intensity = LightIntensity.makeZero();
+            LightIntensity sum = LightIntensity.makeZero();
+            for (int y = tile.y; y < tile.y + tile.height; ++y) {
+                for (int x = tile.x; x < tile.x + tile.width; ++x) {
+                    int imageX = regionX + x, imageY = regionY + y;
+                    sum.setZero();
+                    for (int pass = 0; pass < samples; ++pass) {
+                        sampler.startPixelSample(imageX, imageY, pass);
+                        sampler.sample2D(sampler.startDimension(), 0, 1);
+                        Ray ray = camera.getRayForPixel(imageX + sampler.u, imageY + sampler.v);
+                        traceRay(ray, 0, settings, sampler, 1, intensity.setZero());
+                        sum.addInPlace(intensity);
+                    }
+                    int i = 3 * (y * width + x);
+                    out[i] = (float) (sum.red / samples);
+                    out[i + 1] = (float) (sum.green / samples);
+                    out[i + 2] = (float) (sum.blue / samples);
+                }
+            }
+        }));
+        stats.endFrame(tiles, tileScheduler.getLastFrameNanos());
+    }
+
+    // For any point on a surface of a solid, computes the direct illumination from light sources and adds it to result
+    private void computeDirectDiffuse(Solid.Intersection intersection, LightIntensity diffuseReflectivity, RenderSettings settings, Sampler sampler, LightIntensity result) {
+        long start = System.nanoTime();
+        Vector3D target = intersection.info.pointOfIntersection;
+
+        Vector3D normal = intersection.info.getNormal();
+        RayPacket packet = shadowRayPackets.get();
+        int[] lastOccluders = shadowCaches.get().getLastOccluders(solidsHierarchy, lightSources.size());
+        int maxSamples = settings.lightSamplesPerLight;
+        int batchSize = settings.initialLightSamples > 0 ? Math.min(settings.initialLightSamples, maxSamples) : maxSamples;
+        long shadowRayCount = 0;
+        for (int lightIndex = 0; lightIndex < lightSources.size(); ++lightIndex) {
+            LightSource light = lightSources.get(lightIndex);
+            // Run multiple random rays towards the light source, and see which ones hit the light source, and which
+            // don't. The result will be averaged to achieve smooth shadows. The sample points are spread over the
+            // light by the sampler.
+            // Every unblocked sample contributes diffuseReflectivity * light.intensity * normalDotLightRay. The first two
+            // factors are the same for all samples, so only the cosines need to be accumulated.
+            double cosineSum = 0;
+            double squaredCosineSum = 0;
+            int visibleCount = 0;
+            int sampleCount = 0;
+            int dimension = sampler.startDimension();
+            while (sampleCount < maxSamples) {
+                int batch = Math.min(batchSize, maxSamples - sampleCount);
+                packet.reset(batch);
+                for (int i = 0; i < batch; ++i) {
+                    // The sample point itself is not needed later, so it is turned into the direction to the light in place
+                    sampler.sample2D(dimension, sampleCount + i, maxSamples);
+                    Vector3D vectorToLight = light.getPoint(sampler.u, sampler.v).subtractInPlace(target);
+                    double distanceToLight = vectorToLight.magnitude();
+                    // Same minimum ray length as in castRayOnSolids
+                    packet.set(i, target, vectorToLight.multiplyInPlace(1.0 / distanceToLight),
+                            2 * MINIMUM_RAY_LENGTH, distanceToLight);
+                }
+                // The solid that blocked the previous shadow rays towards this light is likely to block these too. The
+                // rays it blocks do not need a traversal.
+                if (lastOccluders[lightIndex] >= 0) {
+                    solidsHierarchy.occludeByPrimitive(packet, lastOccluders[lightIndex]);
+                    stats.shadowCacheHits.add(batch - packet.getUnoccludedCount());
+                    stats.shadowCacheMisses.add(packet.getUnoccludedCount());
+                }
+                // The rays all start at the same point and go towards the same light, so they are traced together
+                if (packet.getUnoccludedCount() > 0) {
+                    solidsHierarchy.occlude(packet);
+                }
+                if (packet.getOccluder() >= 0) {
+                    lastOccluders[lightIndex] = packet.getOccluder();
+                }
+
+                for (int i = 0; i < batch; ++i) {
+                    if (!packet.isOccluded(i)) {
+                        double normalDotLightRay = Math.abs(Vector3D.dot(
+                                normal.x, normal.y, normal.z, packet.directionX[i], packet.directionY[i], packet.directionZ[i]));
+                        cosineSum += normalDotLightRay;
+                        squaredCosineSum += normalDotLightRay * normalDotLightRay;
+                        ++visibleCount;
+                    }
+                }
+                sampleCount += batch;
+                if (isLightEstimateGoodEnough(sampleCount, visibleCount, cosineSum, squaredCosineSum, settings)) {
+                    break;
+                }
+            }
+
+            result.mulAdd(diffuseReflectivity, light.intensity, cosineSum / sampleCount);
+            shadowRayCount += sampleCount;
+        }
+
+        result.accumulateProduct(ambientLight, diffuseReflectivity);
+
+        stats.shadowRays.add(shadowRayCount);
+        stats.directLightingNanos.add(System.nanoTime() - start);
+    }
+
+    /**
+     * Decides whether the shadow rays shot towards a light so far are enough. In a penumbra some of the rays are
+     * blocked and some are not, so sampling goes on. Points that see all of the light or none of it can stop early,
+     * unless the cosines of the rays still vary too much - which happens close to large lights.
+     */
+    private static boolean isLightEstimateGoodEnough(int sampleCount, int visibleCount, double cosineSum,
+                                                     double squaredCosineSum, RenderSettings settings) {
+        if (settings.initialLightSamples <= 0) {
+            return false;
+        }
+        if (visibleCount == 0) {
+            return true;
+        }
+        if (visibleCount < sampleCount) {
+            return false;
+        }
+        double mean = cosineSum / sampleCount;
+        double variance = Math.max(0, squaredCosineSum / sampleCount - mean * mean);
+        double standardError = Math.sqrt(variance / sampleCount);
+        return standardError <= settings.lightSampleErrorThreshold * mean;
+    }
+
+    /**
+     * Back-traces a given ray through the scene and adds its light intensity to result
+     * @param throughput The fraction of the light found by this ray that reaches the camera, see continuePath
+     * @return The distance to the solid or light hit by the ray, or infinity if it hit nothing
+     */
+    private double traceRay(Ray ray, int currentTraceDepth, RenderSettings settings, Sampler sampler, double throughput, LightIntensity result) {
+        // The record is only needed until the intersection is built by shadeRay, so it can be shared by the whole trace
+        HitRecord hit = hitRecords.get().reset();
+        LightSource hitLight = castRay(ray, hit);
+        // Read before the record is reused by the secondary rays
+        double distance = hit.t;
+        shadeRay(ray, hit, hitLight, currentTraceDepth, settings, sampler, throughput, result);
+        return distance;
+    }
+
+    // Casts a ray on the solids and the lights, and returns the light if it is closer than any solid. Otherwise the
+    // closest solid, if any, is written to the record.
+    private LightSource castRay(Ray ray, HitRecord hit) {
+        castRayOnSolids(ray, hit);
+        // Lights only overwrite the record if they are closer than the closest solid
+        return castRayOnLights(ray, hit);
+    }
+
+    // Adds the light found by a ray that was cast with castRay to result, tracing the secondary rays from its hit
+    private void shadeRay(Ray ray, HitRecord hit, LightSource hitLight, int currentTraceDepth, RenderSettings settings, Sampler sampler, double throughput, LightIntensity result) {
+        currentTraceDepth += 1;
+        stats.maxDepth.accumulate(currentTraceDepth);
+
+        if (hitLight != null) {
+            result.addInPlace(hitLight.intensity);
+        } else if (hit.isHit()) {
+            Material material = solidsHierarchy.getMaterial(hit.material);
+            // Camera rays see a pixel-sized patch of the surface, which decides the mipmap level of its texture. The
+            // secondary rays are not tracked that precisely, so they read the full texture.
+            double footprint = currentTraceDepth == 1 ? hit.t * camera.getPixelAngle() : 0;
+            handleSolidRayHit(ray, hit.toIntersection(ray), material, footprint, throughput, result, currentTraceDepth, settings, sampler);
+        }
+    }
+
+    private void handleSolidRayHit(Ray ray, Solid.Intersection intersection, Material material, double footprint, double throughput, LightIntensity result, int currentTraceDepth, RenderSettings settings, Sampler sampler) {
+        addSpecularLight(ray.getShifted(MINIMUM_RAY_LENGTH), intersection, material, throughput, result, currentTraceDepth, settings, sampler);
+        addDiffuseLight(intersection, footprint, throughput, result, currentTraceDepth, settings, sampler);
+    }
+
+    // Adds the light reflected and refracted by the surface hit by the ray, which changes with the direction of the ray.
+    // The ray is already shifted off the surface.
+    private void addSpecularLight(Ray ray, Solid.Intersection intersection, Material material, double throughput, LightIntensity result, int currentTraceDepth, RenderSettings settings, Sampler sampler) {
+        // The secondary rays are traced into their own accumulator first, since their light is filtered by the
+        // material before reaching the result
+        if (!material.passthroughIntensity.isZero()) {
+            double refractedThroughput = throughput * material.passthroughIntensity.getMaximum();
+            double survival = continuePath(refractedThroughput, currentTraceDepth, settings, sampler);
+            if (survival > 0) {
+                LightIntensity refracted = LightIntensity.makeZero();
+                handleRefractedRay(ray, intersection, material, currentTraceDepth, settings, sampler, refractedThroughput / survival, refracted);
+                result.mulAdd(refracted, material.passthroughIntensity, 1 / survival);
+            }
+        }
+        if (!material.directReflectivity.isZero()) {
+            double reflectedThroughput = throughput * material.directReflectivity.getMaximum();
+            double survival = continuePath(reflectedThroughput, currentTraceDepth, settings, sampler);
+            if (survival > 0) {
+                LightIntensity reflected = LightIntensity.makeZero();
+                handleReflectedRay(ray, intersection.info, currentTraceDepth, settings, sampler, reflectedThroughput / survival, reflected);
+                result.mulAdd(reflected, material.directReflectivity, 1 / survival);
+            }
+        }
+    }
+
+    // Adds the light scattered by the diffuse surface at the intersection, which is the same in every direction
+    private void addDiffuseLight(Solid.Intersection intersection, double footprint, double throughput, LightIntensity result, int currentTraceDepth, RenderSettings settings, Sampler sampler) {
+        // Looked up once, and shared by all of the light samples
+        LightIntensity diffuseReflectivity = LightIntensity.makeZero();
+        intersection.intersectedSolid.getDiffuseReflectivityAtPoint(intersection.info.pointOfIntersection, footprint, diffuseReflectivity);
+        computeDirectDiffuse(intersection, diffuseReflectivity, settings, sampler, result);
+        computeCaustics(intersection, diffuseReflectivity, settings, result);
+        computeIndirectDiffuse(intersection, diffuseReflectivity, currentTraceDepth, settings, sampler, throughput, result);
+    }
+
+    /**
+     * Decides whether a secondary ray is traced from a hit at the given depth. The throughput of the ray is the
+     * product of the reflectivities and passthrough intensities (their largest component) along its path, so it tells
+     * how much the light found by the ray can still change the pixel.
+     *
+     * Rays past maxTraceDepth and rays with a throughput below minimumThroughput are dropped. Past rouletteStartDepth
+     * the ray is kept with a probability equal to its throughput, so dim paths end early while bright ones - like
+     * several passes through glass - go on. Dividing the light of the kept rays by that probability keeps the average
+     * right.
+     * @return The probability with which the ray was kept, or 0 if it is dropped
+     */
+    private double continuePath(double throughput, int currentTraceDepth, RenderSettings settings, Sampler sampler) {
+        if (currentTraceDepth > settings.maxTraceDepth || throughput < settings.minimumThroughput) {
+            return 0;
+        }
+        if (currentTraceDepth <= settings.rouletteStartDepth || throughput >= 1) {
+            return 1;
+        }
+        sampler.sample2D(sampler.startDimension(), 0, 1);
+        return sampler.u < throughput ? throughput : 0;
+    }
+
+
+    /**
+     * Computes the LightIntensity at a given point on a solid, stemming from indirect light - light reflected from
+     * other objects. The directions of the rays are picked with the same distribution as the cosine of the diffuse
+     * reflection, so no draw is wasted below the surface and the estimate needs no weighting.
+     *
+     * Only the hits of camera rays shoot monteCarloSamples rays. Deeper hits shoot a single one, which keeps the number
+     * of rays from growing exponentially with the depth - the samples of the first hit and of the passes already
+     * average out the noise.
+     *
+     * When the irradiance cache is enabled, the light is interpolated from its records wherever they cover the point.
+     * Hits of camera rays that are not covered add a new record; deeper hits fall back to sampling.
+     * @param intersection The ray-shape intersection for any encountered shape.
+     * @param diffuseReflectivity The diffuse reflectivity of the solid at the point of intersection
+     * @param currentTraceDepth The depth of the tracing deptb
+     * @param settings The quality settings of the current render
+     * @param sampler Picks the directions of the indirect rays
+     * @param throughput The throughput of the ray that hit the solid, see continuePath
+     * @param result Indirect Diffuse Light component, utilizing Montecarlo's model, is added to this LightIntensity.
+     */
+    // @author Pietro
+    private void computeIndirectDiffuse(Solid.Intersection intersection, LightIntensity diffuseReflectivity, int currentTraceDepth, RenderSettings settings, Sampler sampler, double throughput, LightIntensity result) {
+        if (settings.monteCarloSamples == 0) {
+            return;
+        }
+
+        IrradianceCache cache = irradianceCache;
+        if (cache != null) {
+            LightIntensity irradiance = LightIntensity.makeZero();
+            if (cache.lookup(intersection.info.pointOfIntersection, intersection.info.getNormal(), irradiance)) {
+                stats.irradianceCacheHits.increment();
+                result.accumulateProduct(irradiance, diffuseReflectivity);
+                return;
+            }
+            if (currentTraceDepth == 1) {
+                IrradianceCache.Record record = computeIrradianceRecord(cache, intersection, currentTraceDepth, settings, sampler);
+                if (cache.insert(record)) {
+                    stats.irradianceRecords.increment();
+                }
+                result.accumulateProduct(record.getIrradiance(), diffuseReflectivity);
+                return;
+            }
+        }
+
+        LightIntensity sum = LightIntensity.makeZero();
+        LightIntensity sampleIntensity = LightIntensity.makeZero();
+        Vector3D normal = intersection.info.getNormal();
+        int sampleCount = currentTraceDepth == 1 ? settings.monteCarloSamples : 1;
+        // The traced rays start dimensions of their own, so the dimension of these samples is kept here
+        int dimension = sampler.startDimension();
+        double sampleThroughput = throughput * diffuseReflectivity.getMaximum();
+        int tracedCount = 0;
+
+        //Utilizes Monte Carlo approach
+        for(int MCSample = 0; MCSample < sampleCount; ++MCSample) {
+            //A dropped ray counts as a dark sample
+            double survival = continuePath(sampleThroughput, currentTraceDepth, settings, sampler);
+            if (survival == 0) {
+                continue;
+            }
+            //generate a random direction on the side of the normal
+            sampler.sample2D(dimension, MCSample, sampleCount);
+            Vector3D randomVector = GeometryHelpers.sampleCosineHemisphere(normal, sampler.u, sampler.v);
+            double rayDotNormal = Vector3D.dot(randomVector, normal);
+            double pdf = GeometryHelpers.cosineHemispherePdf(rayDotNormal);
+            if (pdf <= 0) {
+                // Grazing the surface, which carries no light
+                continue;
+            }
+            //Make a new ray given the intersection point
+            Ray ray = new Ray(intersection.info.pointOfIntersection, randomVector);
+            traceRay(ray, currentTraceDepth, settings, sampler, sampleThroughput / survival, sampleIntensity.setZero());
+            ++tracedCount;
+            //A diffuse surface reflects diffuseReflectivity / PI of the light from every direction, times the cosine.
+            //Dividing by the pdf makes this exactly 1 for cosine sampled directions.
+            double weight = rayDotNormal / Math.PI / pdf;
+            sum.addScaled(sampleIntensity, weight / survival);
+        }
+        //Take the average of the samples. The diffuse reflectivity is the same for every sample, so it is applied once
+        //at the end.
+        result.mulAdd(sum, diffuseReflectivity, 1.0 / sampleCount);
+        stats.indirectRays.add(tracedCount);
+    }
+
+    /**
+     * Shoots one cosine distributed ray through every cell of the hemisphere above the point, and turns what they
+     * found into a record of the irradiance cache. The record is used by many pixels, so its rays start with a
+     * throughput of 1, whatever the surface that asked for it reflects.
+     */
+    private IrradianceCache.Record computeIrradianceRecord(IrradianceCache cache, Solid.Intersection intersection, int currentTraceDepth, RenderSettings settings, Sampler sampler) {
+        Vector3D point = intersection.info.pointOfIntersection;
+        Vector3D normal = intersection.info.getNormal();
+        IrradianceCache.HemisphereSamples samples = new IrradianceCache.HemisphereSamples(settings.irradianceRecordSamples);
+        LightIntensity sampleIntensity = LightIntensity.makeZero();
+        int dimension = sampler.startDimension();
+        for (int i = 0; i < samples.getCount(); ++i) {
+            sampler.sample2D(dimension, i, samples.getCount());
+            double u = samples.placeSample(i, sampler.u, sampler.v);
+            Vector3D direction = GeometryHelpers.sampleCosineHemisphere(normal, u, samples.getV(i));
+            double distance = traceRay(new Ray(point, direction), currentTraceDepth, settings, sampler, 1, sampleIntensity.setZero());
+            samples.setResult(i, sampleIntensity, distance);
+        }
+        stats.indirectRays.add(samples.getCount());
+        return cache.createRecord(point, normal, samples);
+    }
+
+    // The photon map stands in for the light that reaches diffuse surfaces through refractive solids. Indirect rays
+    // find that light too, by passing through the solids and hitting the lights, so using both would count it twice.
+    private static boolean usesPhotonMap(RenderSettings settings) {
+        return settings.causticPhotons > 0 && settings.monteCarloSamples == 0;
+    }
+
+    // For any point on a diffuse surface, adds the light focused on it by refractive solids, as estimated from the
+    // photon map. Shadow rays cannot find this light, since the refractive solids block them.
+    private void computeCaustics(Solid.Intersection intersection, LightIntensity diffuseReflectivity, RenderSettings settings, LightIntensity result) {
+        PhotonMap map = photonMap;
+        if (map == null || map.size() == 0 || diffuseReflectivity.isZero() || !usesPhotonMap(settings)) {
+            return;
+        }
+        LightIntensity caustic = LightIntensity.makeZero();
+        double maxRadius = CAUSTIC_RADIUS_FRACTION * getSceneSize();
+        if (map.addEstimate(intersection.info.pointOfIntersection, intersection.info.getNormal(),
+                settings.causticEstimatePhotons, maxRadius, caustic)) {
+            stats.causticEstimates.increment();
+            result.accumulateProduct(caustic, diffuseReflectivity);
+        }
+    }
+
+    // The length of the diagonal of the bounding box of the solids
+    private double getSceneSize() {
+        BoundingBox bounds = solidsHierarchy.getBounds();
+        double x = bounds.maxX - bounds.minX, y = bounds.maxY - bounds.minY, z = bounds.maxZ - bounds.minZ;
+        return Math.sqrt(x * x + y * y + z * z);
+    }
+
+    /**
+     * A sphere around a refractive solid, which the photons are aimed at
+     */
+    private static class PhotonTarget {
+        final Vector3D center;
+        final double radius;
+
+        PhotonTarget(BoundingBox box) {
+            center = new Vector3D(box.getCenter(0), box.getCenter(1), box.getCenter(2));
+            double x = box.maxX - box.minX, y = box.maxY - box.minY, z = box.maxZ - box.minZ;
+            radius = 0.5 * Math.sqrt(x * x + y * y + z * z);
+        }
+    }
+
+    /**
+     * Shoots causticPhotons photons from the light sources at the refractive solids, and collects the ones that reach
+     * a diffuse surface after passing through them.
+     *
+     * The photons are calibrated to the lighting model of computeDirectDiffuse, in which a light adds
+     * diffuseReflectivity * intensity * cosine to a point, whatever its distance. A photon shot in a direction carries
+     * the light that the direction would bring at distance 1, and is scaled by the square of the length of its path
+     * when it is stored: photons that were not focused at all then add up to exactly the direct light, and focused
+     * ones to more.
+     *
+     * Photons are only shot within the cones around the refractive solids, since the others could never make a
+     * caustic. Each photon picks one of the cones; the probability density of its direction sums over all cones that
+     * contain it, so overlapping solids are not counted twice.
+     */
+    private PhotonMap tracePhotons(RenderSettings settings) {
+        List<PhotonTarget> targets = new ArrayList<>();
+        for (Solid solid : solids) {
+            if (!solid.getMaterial().passthroughIntensity.isZero()) {
+                targets.add(new PhotonTarget(solid.getBoundingBox()));
+            }
+        }
+        if (targets.isEmpty() || lightSources.isEmpty()) {
+            return new PhotonMap(Collections.emptyList(), tileScheduler);
+        }
+        int batchCount = (settings.causticPhotons + PHOTON_BATCH_SIZE - 1) / PHOTON_BATCH_SIZE;
+        PhotonMap.PhotonList[] batches = new PhotonMap.PhotonList[batchCount];
+        tileScheduler.invoke(new PhotonTask(targets, settings, batches, 0, batchCount));
+        return new PhotonMap(Arrays.asList(batches), tileScheduler);
+    }
+
+    /**
+     * Traces a range of photon batches, splitting it in half until a single batch is left
+     */
+    @SuppressWarnings("serial") // Tasks are never serialized
+    private class PhotonTask extends RecursiveAction {
+        private final List<PhotonTarget> targets;
+        private final RenderSettings settings;
+        private final PhotonMap.PhotonList[] batches;
+        private final int start, end;
+
+        PhotonTask(List<PhotonTarget> targets, RenderSettings settings, PhotonMap.PhotonList[] batches, int start, int end) {
+            this.targets = targets;
+            this.settings = settings;
+            this.batches = batches;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start > 1) {
+                int middle = (start + end) >>> 1;
+                invokeAll(new PhotonTask(targets, settings, batches, start, middle),
+                        new PhotonTask(targets, settings, batches, middle, end));
+                return;
+            }
+            // Every batch has its own generator seeded by its index, so the map does not depend on the scheduling
+            SplittableRandom random = new SplittableRandom(Sampler.mix(start));
+            PhotonMap.PhotonList photons = new PhotonMap.PhotonList();
+            int lightCount = lightSources.size();
+            int first = start * PHOTON_BATCH_SIZE;
+            int last = Math.min(first + PHOTON_BATCH_SIZE, settings.causticPhotons);
+            for (int i = first; i < last; ++i) {
+                // The photons are dealt to the lights in turn
+                int lightIndex = i % lightCount;
+                int lightPhotonCount = (settings.causticPhotons - lightIndex + lightCount - 1) / lightCount;
+                tracePhoton(lightSources.get(lightIndex), lightPhotonCount, targets, random, settings, photons);
+            }
+            batches[start] = photons;
+        }
+    }
+
+    // Shoots a single photon, see tracePhotons
+    private void tracePhoton(LightSource light, int lightPhotonCount, List<PhotonTarget> targets, SplittableRandom random, RenderSettings settings, PhotonMap.PhotonList photons) {
+        Vector3D origin = light.getPoint(random.nextDouble(), random.nextDouble());
+
+        // Pick a direction within the cone around one of the targets
+        PhotonTarget target = targets.get(random.nextInt(targets.size()));
+        Vector3D axis = Vector3D.subtract(target.center, origin, new Vector3D());
+        double distance = axis.magnitude();
+        axis.multiplyInPlace(1 / distance);
+        double cosMax = distance > target.radius ? Math.sqrt(1 - target.radius * target.radius / (distance * distance)) : -1;
+        double cosTheta = 1 - random.nextDouble() * (1 - cosMax);
+        double sinTheta = Math.sqrt(Math.max(0, 1 - cosTheta * cosTheta));
+        double phi = 2 * Math.PI * random.nextDouble();
+        Vector3D tangent = new Vector3D();
+        Vector3D bitangent = new Vector3D();
+        GeometryHelpers.buildOrthonormalBasis(axis, tangent, bitangent);
+        Vector3D direction = new Vector3D(axis).multiplyInPlace(cosTheta)
+                .addScaledInPlace(tangent, sinTheta * Math.cos(phi))
+                .addScaledInPlace(bitangent, sinTheta * Math.sin(phi));
+
+        // The density of the direction, over all cones that contain it
+        double pdf = 0;
+        for (PhotonTarget other : targets) {
+            Vector3D toCenter = Vector3D.subtract(other.center, origin, new Vector3D());
+            double otherDistance = toCenter.magnitude();
+            double otherCosMax = otherDistance > other.radius
+                    ? Math.sqrt(1 - other.radius * other.radius / (otherDistance * otherDistance)) : -1;
+            if (Vector3D.dot(direction, toCenter) >= otherCosMax * otherDistance) {
+                pdf += 1 / (2 * Math.PI * (1 - otherCosMax));
+            }
+        }
+        pdf /= targets.size();
+
+        // A light of intensity I lights a point facing it with PI * I at distance 1, see tracePhotons
+        double scale = Math.PI / (lightPhotonCount * pdf);
+        double red = light.intensity.red * scale;
+        double green = light.intensity.green * scale;
+        double blue = light.intensity.blue * scale;
+
+        HitRecord hit = hitRecords.get();
+        Ray ray = new Ray(origin, direction);
+        double pathLength = 0;
+        for (int bounce = 0; bounce <= settings.maxTraceDepth; ++bounce) {
+            if (!castRayOnSolids(ray, hit.reset())) {
+                return;
+            }
+            pathLength += hit.t;
+            Material material = solidsHierarchy.getMaterial(hit.material);
+            // Photons that did not go through a refractive solid first are light that the shadow rays already found
+            if (bounce == 0 && material.passthroughIntensity.isZero()) {
+                return;
+            }
+            Vector3D point = hit.getPoint(ray);
+            Vector3D normal = new Vector3D(hit.normal);
+            if (bounce > 0 && (!material.diffuseReflectivity.isZero() || material.texture != null)) {
+                double lengthSquared = pathLength * pathLength;
+                photons.add(point, normal, red * lengthSquared, green * lengthSquared, blue * lengthSquared);
+            }
+
+            // Go on through the solid or off its surface, with probabilities following how much light each way keeps
+            double refractProbability = material.passthroughIntensity.getMaximum();
+            double reflectProbability = material.directReflectivity.getMaximum();
+            double total = Math.max(1, refractProbability + reflectProbability);
+            double choice = random.nextDouble() * total;
+            LightIntensity filter;
+            double probability;
+            if (choice < refractProbability) {
+                if (hit.inside) {
+                    direction = GeometryHelpers.refract(ray.unitDirection, normal, material.refractionIndex, AIR_REFRACTION_INDEX);
+                } else {
+                    direction = GeometryHelpers.refract(ray.unitDirection, normal, AIR_REFRACTION_INDEX, material.refractionIndex);
+                }
+                filter = material.passthroughIntensity;
+                probability = refractProbability / total;
+            } else if (choice < refractProbability + reflectProbability) {
+                direction = GeometryHelpers.reflect(ray.unitDirection, normal);
+                filter = material.directReflectivity;
+                probability = reflectProbability / total;
+            } else {
+                return;
+            }
+            // Total internal reflection, which the tracer does not follow either
+            if (Double.isNaN(direction.x)) {
+                return;
+            }
+            red *= filter.red / probability;
+            green *= filter.green / probability;
+            blue *= filter.blue / probability;
+            ray = new Ray(point, direction);
+        }
+    }
+
+    private void handleReflectedRay(Ray ray, IntersectionData shapeIntersection, int currentTraceDepth, RenderSettings settings, Sampler sampler, double throughput, LightIntensity result) {
+        Vector3D reflectedRayDir = GeometryHelpers.reflect(ray.unitDirection, shapeIntersection.getNormal());
+        Ray reflectedRay = new Ray(shapeIntersection.pointOfIntersection, reflectedRayDir);
+        stats.reflectedRays.increment();
+        traceRay(reflectedRay, currentTraceDepth, settings, sampler, throughput, result);
+    }
+
+    private void handleRefractedRay(Ray ray, Solid.Intersection solidIntersection, Material material, int currentTraceDepth, RenderSettings settings, Sampler sampler, double throughput, LightIntensity result) {
+        Vector3D refractedRayDirection;
+        if (solidIntersection.info.collidedInside) {
+            // Getting out of the shape
+            refractedRayDirection = GeometryHelpers.refract(
+                    ray.unitDirection, solidIntersection.info.getNormal(), material.refractionIndex, AIR_REFRACTION_INDEX);
+        } else {
+            // Entering the shape
+            refractedRayDirection = GeometryHelpers.refract(
+                    ray.unitDirection, solidIntersection.info.getNormal(), AIR_REFRACTION_INDEX, material.refractionIndex);
+        }
+        Ray refractedRay = new Ray(solidIntersection.info.pointOfIntersection, refractedRayDirection);
+        stats.refractedRays.increment();
+        traceRay(refractedRay, currentTraceDepth, settings, sampler, throughput, result);
+    }
+
+    // Casts a ray through the scene and writes the closest solid hit to the record. Returns true if a solid was hit.
+    private boolean castRayOnSolids(Ray ray, HitRecord hit) {
+        // To avoid hitting the shape from which the ray was shot (shadow acne), the ray has to have a minimum length.
+        // Ignoring hits closer than twice that is the same as shifting the ray by MINIMUM_RAY_LENGTH first and then
+        // ignoring hits closer than MINIMUM_RAY_LENGTH.
+        return solidsHierarchy.intersect(ray, 2 * MINIMUM_RAY_LENGTH, hit);
+    }
+
+    // Casts a ray through the scene and returns the closest light source, if it is closer than hit.t. In that case the
+    // light's intersection is written to the record.
+    private LightSource castRayOnLights(Ray ray, HitRecord hit) {
+        LightSource closestLight = null;
+        stats.intersectionTests.add(lightSources.size());
+        for (LightSource light : lightSources) {
+            // To avoid hitting the shape from which the ray was shot, the ray has to have a minimum length
+            if (light.intersect(ray, MINIMUM_RAY_LENGTH, hit.t, hit)) {
+                closestLight = light;
+            }
+        }
+        return closestLight;
+    }
+}
@@ -0,0 +1,95 @@
+/**
+ * Generates the numbers that pick random points while the rays of a pixel are traced: the point of the pixel the camera
+ * ray goes through, points on the light sources, and the directions of indirect rays.
+ *
+ * The points are requested in dimensions. A dimension is a set of count 2D points in [0, 1)^2, used for one purpose at
+ * one step of the trace - e.g. all shadow rays towards one light from one hit. Spreading the points of a dimension
+ * evenly (stratification, low-discrepancy sequences) gives less noise than independent random points. The dimensions
+ * are numbered in the order in which they are started, so every one of them can be decorrelated from the others.
+ *
+ * A sampler is not thread safe. Every tile is rendered with its own one, so the rendering threads never share any
+ * random number state.
+ */
+public abstract class Sampler {
+    /**
+     * The available kinds of samplers
+     */
+    public enum Type {
+        // Independent random points
+        RANDOM,
+        // Random points, one in every cell of a grid
+        STRATIFIED,
+        // The Halton sequence, randomly shifted for every pixel
+        HALTON,
+        // The Sobol sequence, scrambled for every pixel
+        SOBOL;
+
+        /**
+         * Creates a sampler of this type
+         * @param seed Seeds the random number generator of the RANDOM and STRATIFIED samplers. Should be different
+         *             for every tile and pass. The sequences are scrambled by pixel instead, and ignore it.
+         */
+        public Sampler create(long seed) {
+            switch (this) {
+                case RANDOM:
+                    return new RandomSampler(seed);
+                case STRATIFIED:
+                    return new StratifiedSampler(seed);
+                case HALTON:
+                    return new HaltonSampler();
+                default:
+                    return new SobolSampler();
+            }
+        }
+    }
+
+    // The point written by sample2D
+    public double u, v;
+
+    // Differs for every pixel, used for scrambling the sequences
+    long pixelHash;
+    // How many samples of the pixel were taken before this one
+    long sampleIndex;
+    private int dimensionCount;
+
+    /**
+     * Starts a new sample of a pixel. Progressive rendering increases sampleIndex by one in every pass, so that the
+     * sequences continue where the previous pass stopped.
+     */
+    public void startPixelSample(int x, int y, long sampleIndex) {
+        this.pixelHash = mix(((long) x << 32) ^ (y & 0xffffffffL));
+        this.sampleIndex = sampleIndex;
+        this.dimensionCount = 0;
+    }
+
+    /**
+     * Starts a new dimension, and returns it for sample2D
+     */
+    public int startDimension() {
+        return dimensionCount++;
+    }
+
+    /**
+     * Writes point i of a dimension to u and v
+     * @param dimension As returned by startDimension
+     * @param i The index of the point, from 0 to count - 1
+     * @param count The number of points the current pixel sample takes from the dimension
+     */
+    public abstract void sample2D(int dimension, int i, int count);
+
+    /**
+     * Returns a hash of the current pixel and the dimension, for scrambling
+     */
+    long scrambleSeed(int dimension) {
+        return mix(pixelHash + 0x9e3779b97f4a7c15L * (dimension + 1));
+    }
+
+    /**
+     * Mixes the bits of the value, so that close inputs give unrelated outputs (the finalizer of SplitMix64)
+     */
+    static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+}
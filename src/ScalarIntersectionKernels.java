@@ -0,0 +1,144 @@
+/**
+ * Intersection kernels in plain Java, testing one ray against one primitive at a time. The default, see
+ * IntersectionKernels. The math is the same as in Sphere and RectFace, operation by operation, so the results are identical.
+ */
+class ScalarIntersectionKernels extends IntersectionKernels {
+    @Override
+    int getLaneCount() {
+        return 1;
+    }
+
+    @Override
+    String getDescription() {
+        return "scalar";
+    }
+
+    /**
+     * Returns the distance to the first intersection of the ray with the sphere further than tMin, or NaN if the ray
+     * misses the sphere
+     */
+    static double sphereDistance(double ox, double oy, double oz, double dx, double dy, double dz,
+                                 double cx, double cy, double cz, double radiusSquared, double tMin) {
+        double cox = ox - cx;
+        double coy = oy - cy;
+        double coz = oz - cz;
+        double b = 2 * Vector3D.dot(cox, coy, coz, dx, dy, dz);
+        double c = Vector3D.dot(cox, coy, coz, cox, coy, coz) - radiusSquared;
+        double delta = b*b - 4*c;
+        if (delta < 0) {
+            return Double.NaN;
+        }
+        double sqrtDelta = Math.sqrt(delta);
+        double negT = (-b - sqrtDelta) / 2;
+        double posT = (-b + sqrtDelta) / 2;
+        return negT <= tMin ? posT : negT;
+    }
+
+    /**
+     * Returns the distance to the intersection of the ray with face i, or NaN if the ray misses the face
+     */
+    static double rectDistance(PackedPrimitives p, int i,
+                               double ox, double oy, double oz, double dx, double dy, double dz) {
+        double t = (p.rectPlaneOffset[i] - Vector3D.dot(ox, oy, oz, p.rectNormalX[i], p.rectNormalY[i], p.rectNormalZ[i]))
+                / Vector3D.dot(dx, dy, dz, p.rectNormalX[i], p.rectNormalY[i], p.rectNormalZ[i]);
+        double vx = ox + t * dx - p.rectCornerX[i];
+        double vy = oy + t * dy - p.rectCornerY[i];
+        double vz = oz + t * dz - p.rectCornerZ[i];
+        double u = Vector3D.dot(vx, vy, vz, p.rectInverseRightX[i], p.rectInverseRightY[i], p.rectInverseRightZ[i]);
+        double v = Vector3D.dot(vx, vy, vz, p.rectInverseDownX[i], p.rectInverseDownY[i], p.rectInverseDownZ[i]);
+        if (u >= 0 && u <= 1 && v >= 0 && v <= 1) {
+            return t;
+        }
+        return Double.NaN;
+    }
+
+    @Override
+    int findClosestSphere(PackedPrimitives p, int start, int end, Ray ray, double tMin, double tMax) {
+        Vector3D o = ray.origin;
+        Vector3D d = ray.unitDirection;
+        int closest = -1;
+        for (int i = start; i < end; ++i) {
+            double t = sphereDistance(o.x, o.y, o.z, d.x, d.y, d.z,
+                    p.sphereCenterX[i], p.sphereCenterY[i], p.sphereCenterZ[i], p.sphereRadiusSquared[i], tMin);
+            if (t > tMin && t < tMax) {
+                tMax = t;
+                closest = i;
+            }
+        }
+        return closest;
+    }
+
+    @Override
+    int findClosestRect(PackedPrimitives p, int start, int end, Ray ray, double tMin, double tMax) {
+        Vector3D o = ray.origin;
+        Vector3D d = ray.unitDirection;
+        int closest = -1;
+        for (int i = start; i < end; ++i) {
+            double t = rectDistance(p, i, o.x, o.y, o.z, d.x, d.y, d.z);
+            if (t > tMin && t < tMax) {
+                tMax = t;
+                closest = i;
+            }
+        }
+        return closest;
+    }
+
+    @Override
+    boolean hitsAnySphere(PackedPrimitives p, int start, int end, Ray ray, double minDistance, double maxDistance) {
+        Vector3D o = ray.origin;
+        Vector3D d = ray.unitDirection;
+        for (int i = start; i < end; ++i) {
+            double t = sphereDistance(o.x, o.y, o.z, d.x, d.y, d.z,
+                    p.sphereCenterX[i], p.sphereCenterY[i], p.sphereCenterZ[i], p.sphereRadiusSquared[i], minDistance);
+            if (t > minDistance && t < maxDistance) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    boolean hitsAnyRect(PackedPrimitives p, int start, int end, Ray ray, double minDistance, double maxDistance) {
+        Vector3D o = ray.origin;
+        Vector3D d = ray.unitDirection;
+        for (int i = start; i < end; ++i) {
+            double t = rectDistance(p, i, o.x, o.y, o.z, d.x, d.y, d.z);
+            if (t > minDistance && t < maxDistance) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    void occludeBySphere(RayPacket packet, PackedPrimitives p, int i) {
+        for (int r = 0; r < packet.getCount(); ++r) {
+            if (packet.occluded[r]) {
+                continue;
+            }
+            double t = sphereDistance(
+                    packet.originX[r], packet.originY[r], packet.originZ[r],
+                    packet.directionX[r], packet.directionY[r], packet.directionZ[r],
+                    p.sphereCenterX[i], p.sphereCenterY[i], p.sphereCenterZ[i], p.sphereRadiusSquared[i],
+                    packet.minDistance[r]);
+            if (t > packet.minDistance[r] && t < packet.maxDistance[r]) {
+                packet.markOccluded(r);
+            }
+        }
+    }
+
+    @Override
+    void occludeByRect(RayPacket packet, PackedPrimitives p, int i) {
+        for (int r = 0; r < packet.getCount(); ++r) {
+            if (packet.occluded[r]) {
+                continue;
+            }
+            double t = rectDistance(p, i,
+                    packet.originX[r], packet.originY[r], packet.originZ[r],
+                    packet.directionX[r], packet.directionY[r], packet.directionZ[r]);
+            if (t > packet.minDistance[r] && t < packet.maxDistance[r]) {
+                packet.markOccluded(r);
+            }
+        }
+    }
+}
@@ -0,0 +1,660 @@
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Loads scenes from text files, so that they do not have to be written as Java code like the ones of SceneLibrary.
+ * Every line holds one command, and everything after a # is a comment. Points, directions and colors are three
+ * numbers each.
+ *
+ *   camera POSITION LOOK_AT UP ANGLE    The eye, the point it looks at, the upwards direction, and the horizontal
+ *                                       angle of view in degrees. Required.
+ *   exposure VALUE                      The exposure of the image (default 1)
+ *   ambient COLOR                       The ambient light (default none)
+ *   material NAME [OPTION...]           Defines a material, white and diffuse unless the options say otherwise:
+ *       diffuse COLOR                   The diffuse reflectivity
+ *       reflect COLOR                   The mirror reflectivity
+ *       refract COLOR INDEX             The light passing through, and the refraction index
+ *       texture FILE [nearest|bilinear] An image multiplied with the diffuse reflectivity, relative to the scene file
+ *   sphere MATERIAL CENTER RADIUS
+ *   rect MATERIAL TOP_LEFT TOP_RIGHT BOTTOM_LEFT
+ *   box TOP_LEFT_FRONT TOP_LEFT_BACK TOP_RIGHT_FRONT BOTTOM_LEFT_FRONT MATERIAL...
+ *                                       The six faces of a Box, with one material for all of them, or six for the
+ *                                       front, back, left, right, top and bottom faces
+ *   light COLOR TOP_LEFT TOP_RIGHT BOTTOM_LEFT
+ *                                       A rectangular light source
+ *
+ * Parsing a large scene, decoding its textures and building its BVH takes a while, so the result is cached in a
+ * binary file next to the scene (the name of the scene file followed by .cache). Later loads memory-map the cache
+ * and read the compiled scene from it, as long as the scene file and the texture files did not change since, and
+ * the cache was written in the current FORMAT_VERSION. Otherwise the scene is parsed again, and the cache replaced.
+ */
+public class SceneFile {
+    private static final int MAGIC = 0x52545343;
+    // Increased whenever the layout of the cache changes, so that old caches are rebuilt rather than misread
+    static final int FORMAT_VERSION = 2;
+    private static final String CACHE_SUFFIX = ".cache";
+
+    private static final byte SPHERE = 0, RECT = 1, BOX = 2;
+
+    // A solid of the scene as it was described, before the Solid objects are created
+    private static class SolidSpec {
+        final byte kind;
+        // Indices of the materials, one for every face of a box
+        final int[] materials;
+        // The numbers of the command
+        final double[] values;
+
+        SolidSpec(byte kind, int[] materials, double[] values) {
+            this.kind = kind;
+            this.materials = materials;
+            this.values = values;
+        }
+    }
+
+    // A texture file, with the size and time of modification it had when it was read
+    private static class TextureFile {
+        final String path;
+        final long length, lastModified;
+        // Null if the file could not be read
+        final Texture texture;
+
+        TextureFile(String path, long length, long lastModified, Texture texture) {
+            this.path = path;
+            this.length = length;
+            this.lastModified = lastModified;
+            this.texture = texture;
+        }
+    }
+
+    // Everything read from a scene file or a cache
+    private static class Description {
+        // Eye, look at point and up direction, 3 values each
+        double[] camera;
+        double angleOfView;
+        double exposure = 1;
+        final LightIntensity ambient = new LightIntensity();
+        final List<Material> materials = new ArrayList<>();
+        // The index of the texture of every material in textures, or -1
+        final List<Integer> materialTextures = new ArrayList<>();
+        final List<TextureFile> textures = new ArrayList<>();
+        // Color and three corners of every light, 12 values each
+        final List<double[]> lights = new ArrayList<>();
+        final List<SolidSpec> solids = new ArrayList<>();
+    }
+
+    /**
+     * Sets up the scene of a file in an empty renderer and compiles it, using the cache of the file if it is up to
+     * date, and writing it otherwise
+     * @param width The width of the rendered image in pixels
+     * @param height The height of the rendered image in pixels
+     * @throws IOException If the file cannot be read, or is not a valid scene
+     */
+    public static void load(File file, Renderer renderer, int width, int height) throws IOException {
+        load(file, new File(file.getPath() + CACHE_SUFFIX), renderer, width, height);
+    }
+
+    /**
+     * Like load, with the cache in the given file
+     */
+    public static void load(File file, File cacheFile, Renderer renderer, int width, int height) throws IOException {
+        long start = System.nanoTime();
+        byte[] source = Files.readAllBytes(file.toPath());
+        CRC32 crc = new CRC32();
+        crc.update(source);
+        long checksum = crc.getValue();
+
+        if (cacheFile.isFile()) {
+            try {
+                if (loadCache(cacheFile, source.length, checksum, renderer, width, height, start)) {
+                    return;
+                }
+            } catch (IOException | BufferUnderflowException | IllegalArgumentException e) {
+                System.err.println("Ignoring the broken scene cache " + cacheFile + ": " + e);
+            }
+        }
+
+        Description scene = parse(new String(source, StandardCharsets.UTF_8), file);
+        Solid[] solids = createSolids(scene);
+        BoundingVolumeHierarchy hierarchy = new BoundingVolumeHierarchy(Arrays.asList(solids), renderer.getTileScheduler());
+        setUp(scene, solids, renderer, width, height);
+        renderer.useAccelerationStructures(hierarchy, start);
+        try {
+            writeCache(cacheFile, scene, solids, hierarchy, source.length, checksum);
+        } catch (IOException e) {
+            System.err.println("Could not write the scene cache " + cacheFile + ": " + e.getMessage());
+        }
+    }
+
+    // Puts everything but the solids' hierarchy into the renderer
+    private static void setUp(Description scene, Solid[] solids, Renderer renderer, int width, int height) {
+        double[] c = scene.camera;
+        renderer.camera = new Camera(new Vector3D(c[0], c[1], c[2]), new Vector3D(c[3], c[4], c[5]),
+                new Vector3D(c[6], c[7], c[8]), scene.angleOfView, width, height);
+        renderer.exposure = scene.exposure;
+        renderer.ambientLight = new LightIntensity(scene.ambient.red, scene.ambient.green, scene.ambient.blue);
+        for (double[] light : scene.lights) {
+            renderer.lightSources.add(new LightSource(new LightIntensity(light[0], light[1], light[2]),
+                    new RectFace(new Vector3D(light[3], light[4], light[5]), new Vector3D(light[6], light[7], light[8]),
+                            new Vector3D(light[9], light[10], light[11]))));
+        }
+        renderer.solids.addAll(Arrays.asList(solids));
+    }
+
+    // Creates the solids in the order of the file, the order in which the hierarchy refers to them
+    private static Solid[] createSolids(Description scene) {
+        List<Solid> solids = new ArrayList<>();
+        for (SolidSpec spec : scene.solids) {
+            double[] v = spec.values;
+            switch (spec.kind) {
+                case SPHERE:
+                    solids.add(new Sphere.SphereSolid(new Sphere(new Vector3D(v[0], v[1], v[2]), v[3]),
+                            scene.materials.get(spec.materials[0])));
+                    break;
+                case RECT:
+                    solids.add(new RectFace.FaceSolid(new RectFace(new Vector3D(v[0], v[1], v[2]),
+                            new Vector3D(v[3], v[4], v[5]), new Vector3D(v[6], v[7], v[8])),
+                            scene.materials.get(spec.materials[0])));
+                    break;
+                default:
+                    Box box = new Box(new Vector3D(v[0], v[1], v[2]), new Vector3D(v[3], v[4], v[5]),
+                            new Vector3D(v[6], v[7], v[8]), new Vector3D(v[9], v[10], v[11]));
+                    RectFace[] faces = box.getFaceList();
+                    for (int i = 0; i < faces.length; ++i) {
+                        solids.add(new RectFace.FaceSolid(faces[i], scene.materials.get(spec.materials[i])));
+                    }
+            }
+        }
+        return solids.toArray(new Solid[0]);
+    }
+
+    // The tokens of one line, read one after another
+    private static class Line {
+        final String fileName;
+        final int number;
+        final String[] tokens;
+        int next;
+
+        Line(String fileName, int number, String text) {
+            this.fileName = fileName;
+            this.number = number;
+            String trimmed = text.trim();
+            tokens = trimmed.isEmpty() ? new String[0] : trimmed.split("\\s+");
+        }
+
+        IOException error(String message) {
+            return new IOException(fileName + ":" + number + ": " + message);
+        }
+
+        boolean hasNext() {
+            return next < tokens.length;
+        }
+
+        String peek() {
+            return hasNext() ? tokens[next] : null;
+        }
+
+        String word() throws IOException {
+            if (!hasNext()) {
+                throw error("Missing value after " + tokens[next - 1]);
+            }
+            return tokens[next++];
+        }
+
+        double number() throws IOException {
+            String token = word();
+            try {
+                double value = Double.parseDouble(token);
+                if (Double.isFinite(value)) {
+                    return value;
+                }
+            } catch (NumberFormatException e) {
+                // Reported below
+            }
+            throw error("Not a number: " + token);
+        }
+
+        // Reads count numbers into values, starting at offset
+        void numbers(double[] values, int offset, int count) throws IOException {
+            for (int i = 0; i < count; ++i) {
+                values[offset + i] = number();
+            }
+        }
+
+        LightIntensity color() throws IOException {
+            return new LightIntensity(number(), number(), number());
+        }
+
+        void end() throws IOException {
+            if (hasNext()) {
+                throw error("Unexpected " + peek());
+            }
+        }
+    }
+
+    private static Description parse(String text, File file) throws IOException {
+        Description scene = new Description();
+        Map<String, Integer> materialIndices = new HashMap<>();
+        Map<String, Integer> textureIndices = new HashMap<>();
+        File directory = file.getAbsoluteFile().getParentFile();
+        String[] lines = text.split("\r?\n", -1);
+        for (int i = 0; i < lines.length; ++i) {
+            String content = lines[i];
+            int comment = content.indexOf('#');
+            if (comment >= 0) {
+                content = content.substring(0, comment);
+            }
+            Line line = new Line(file.getName(), i + 1, content);
+            if (!line.hasNext()) {
+                continue;
+            }
+            String command = line.word();
+            switch (command) {
+                case "camera":
+                    if (scene.camera != null) {
+                        throw line.error("The camera is set twice");
+                    }
+                    scene.camera = new double[9];
+                    line.numbers(scene.camera, 0, 9);
+                    double degrees = line.number();
+                    if (!(degrees > 0 && degrees < 180)) {
+                        throw line.error("The angle of view needs to be between 0 and 180 degrees");
+                    }
+                    scene.angleOfView = Math.toRadians(degrees);
+                    break;
+                case "exposure":
+                    scene.exposure = line.number();
+                    if (!(scene.exposure > 0)) {
+                        throw line.error("The exposure needs to be positive");
+                    }
+                    break;
+                case "ambient":
+                    scene.ambient.set(line.color());
+                    break;
+                case "material":
+                    String name = line.word();
+                    if (materialIndices.containsKey(name)) {
+                        throw line.error("The material " + name + " is defined twice");
+                    }
+                    Material material = new Material();
+                    int texture = -1;
+                    while (line.hasNext()) {
+                        String option = line.word();
+                        switch (option) {
+                            case "diffuse":
+                                material.diffuseReflectivity = line.color();
+                                break;
+                            case "reflect":
+                                material.directReflectivity = line.color();
+                                break;
+                            case "refract":
+                                material.passthroughIntensity = line.color();
+                                material.refractionIndex = line.number();
+                                break;
+                            case "texture":
+                                String path = new File(directory, line.word()).getPath();
+                                texture = textureIndices.computeIfAbsent(path, p -> {
+                                    scene.textures.add(readTexture(p));
+                                    return scene.textures.size() - 1;
+                                });
+                                if ("nearest".equals(line.peek()) || "bilinear".equals(line.peek())) {
+                                    material.textureFilter = Texture.Filter.valueOf(line.word().toUpperCase());
+                                }
+                                break;
+                            default:
+                                throw line.error("Unknown material option " + option);
+                        }
+                    }
+                    if (texture >= 0) {
+                        material.texture = scene.textures.get(texture).texture;
+                    }
+                    materialIndices.put(name, scene.materials.size());
+                    scene.materials.add(material);
+                    scene.materialTextures.add(texture);
+                    break;
+                case "sphere": {
+                    int[] materials = {findMaterial(line, materialIndices)};
+                    double[] values = new double[4];
+                    line.numbers(values, 0, 4);
+                    if (!(values[3] > 0)) {
+                        throw line.error("The radius needs to be positive");
+                    }
+                    scene.solids.add(new SolidSpec(SPHERE, materials, values));
+                    break;
+                }
+                case "rect": {
+                    int[] materials = {findMaterial(line, materialIndices)};
+                    double[] values = new double[9];
+                    line.numbers(values, 0, 9);
+                    scene.solids.add(new SolidSpec(RECT, materials, values));
+                    break;
+                }
+                case "box": {
+                    double[] values = new double[12];
+                    line.numbers(values, 0, 12);
+                    int[] materials = new int[6];
+                    materials[0] = findMaterial(line, materialIndices);
+                    if (line.hasNext()) {
+                        for (int face = 1; face < 6; ++face) {
+                            materials[face] = findMaterial(line, materialIndices);
+                        }
+                    } else {
+                        Arrays.fill(materials, materials[0]);
+                    }
+                    scene.solids.add(new SolidSpec(BOX, materials, values));
+                    break;
+                }
+                case "light": {
+                    double[] values = new double[12];
+                    line.numbers(values, 0, 12);
+                    scene.lights.add(values);
+                    break;
+                }
+                default:
+                    throw line.error("Unknown command " + command);
+            }
+            line.end();
+        }
+        if (scene.camera == null) {
+            throw new IOException(file.getName() + ": The scene has no camera");
+        }
+        return scene;
+    }
+
+    private static int findMaterial(Line line, Map<String, Integer> materialIndices) throws IOException {
+        String name = line.word();
+        Integer index = materialIndices.get(name);
+        if (index == null) {
+            throw line.error("Unknown material " + name);
+        }
+        return index;
+    }
+
+    // A texture that cannot be read leaves its materials untextured, like in the SceneLibrary
+    private static TextureFile readTexture(String path) {
+        File file = new File(path);
+        Texture texture = null;
+        try {
+            BufferedImage image = ImageIO.read(file);
+            if (image != null) {
+                texture = new Texture(image);
+            } else {
+                System.err.println("Unknown image format: " + path);
+            }
+        } catch (IOException e) {
+            System.err.println("Cannot read the texture " + path + ": " + e.getMessage());
+        }
+        return new TextureFile(path, getLength(file), file.lastModified(), texture);
+    }
+
+    // The length of a file, or -1 if it does not exist
+    private static long getLength(File file) {
+        return file.isFile() ? file.length() : -1;
+    }
+
+    /*
+     * The cache holds, one after another:
+     *   MAGIC, FORMAT_VERSION, the length and CRC-32 of the scene file
+     *   the textures: path, length and time of modification of every file, then the mipmap levels of every texture
+     *   the camera, exposure and ambient light
+     *   the materials, lights and solids
+     *   the BVH, see BoundingVolumeHierarchy.writeTree
+     */
+
+    private static void writeCache(File cacheFile, Description scene, Solid[] solids, BoundingVolumeHierarchy hierarchy,
+                                   long sourceLength, long checksum) throws IOException {
+        // Written next to the cache and moved over it, so that no other process ever sees half of it
+        File temporary = File.createTempFile(cacheFile.getName(), ".tmp", cacheFile.getAbsoluteFile().getParentFile());
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                out.writeLong(sourceLength);
+                out.writeLong(checksum);
+
+                out.writeInt(scene.textures.size());
+                for (TextureFile texture : scene.textures) {
+                    writeString(out, texture.path);
+                    out.writeLong(texture.length);
+                    out.writeLong(texture.lastModified);
+                }
+                for (TextureFile texture : scene.textures) {
+                    writeTexture(out, texture.texture);
+                }
+
+                for (double value : scene.camera) {
+                    out.writeDouble(value);
+                }
+                out.writeDouble(scene.angleOfView);
+                out.writeDouble(scene.exposure);
+                writeColor(out, scene.ambient);
+
+                out.writeInt(scene.materials.size());
+                for (int i = 0; i < scene.materials.size(); ++i) {
+                    Material material = scene.materials.get(i);
+                    writeColor(out, material.diffuseReflectivity);
+                    writeColor(out, material.directReflectivity);
+                    writeColor(out, material.passthroughIntensity);
+                    out.writeDouble(material.refractionIndex);
+                    out.writeInt(scene.materialTextures.get(i));
+                    out.writeByte(material.textureFilter.ordinal());
+                }
+
+                out.writeInt(scene.lights.size());
+                for (double[] light : scene.lights) {
+                    for (double value : light) {
+                        out.writeDouble(value);
+                    }
+                }
+
+                out.writeInt(scene.solids.size());
+                for (SolidSpec solid : scene.solids) {
+                    out.writeByte(solid.kind);
+                    for (int material : solid.materials) {
+                        out.writeInt(material);
+                    }
+                    for (double value : solid.values) {
+                        out.writeDouble(value);
+                    }
+                }
+
+                Map<Solid, Integer> solidIndices = new IdentityHashMap<>();
+                for (int i = 0; i < solids.length; ++i) {
+                    solidIndices.put(solids[i], i);
+                }
+                hierarchy.writeTree(out, solidIndices);
+            }
+            Files.move(temporary.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary.toPath());
+        }
+    }
+
+    private static void writeTexture(DataOutputStream out, Texture texture) throws IOException {
+        if (texture == null) {
+            out.writeInt(0);
+            return;
+        }
+        out.writeInt(texture.getLevelCount());
+        for (int level = 0; level < texture.getLevelCount(); ++level) {
+            out.writeInt(texture.getLevelWidth(level));
+            out.writeInt(texture.getLevelHeight(level));
+            float[] texels = texture.getLevel(level);
+            ByteBuffer bytes = ByteBuffer.allocate(texels.length * Float.BYTES);
+            bytes.asFloatBuffer().put(texels);
+            out.write(bytes.array());
+        }
+    }
+
+    private static void writeColor(DataOutputStream out, LightIntensity color) throws IOException {
+        out.writeDouble(color.red);
+        out.writeDouble(color.green);
+        out.writeDouble(color.blue);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Sets up the renderer from the cache if it was written from the same scene and textures
+     * @return False if the cache is out of date, in which case the renderer is left untouched
+     */
+    private static boolean loadCache(File cacheFile, long sourceLength, long checksum, Renderer renderer,
+                                     int width, int height, long start) throws IOException {
+        ByteBuffer in;
+        try (FileChannel channel = FileChannel.open(cacheFile.toPath(), StandardOpenOption.READ)) {
+            // The mapping stays valid after the channel is closed
+            in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (in.getInt() != MAGIC || in.getInt() != FORMAT_VERSION
+                || in.getLong() != sourceLength || in.getLong() != checksum) {
+            return false;
+        }
+
+        Description scene = new Description();
+        int textureCount = readCount(in);
+        List<String> texturePaths = new ArrayList<>();
+        for (int i = 0; i < textureCount; ++i) {
+            String path = readString(in);
+            File file = new File(path);
+            if (in.getLong() != getLength(file) || in.getLong() != file.lastModified()) {
+                return false;
+            }
+            texturePaths.add(path);
+        }
+        for (String path : texturePaths) {
+            File file = new File(path);
+            scene.textures.add(new TextureFile(path, getLength(file), file.lastModified(), readTexture(in)));
+        }
+
+        scene.camera = new double[9];
+        for (int i = 0; i < 9; ++i) {
+            scene.camera[i] = in.getDouble();
+        }
+        scene.angleOfView = in.getDouble();
+        scene.exposure = in.getDouble();
+        scene.ambient.set(readColor(in));
+
+        int materialCount = readCount(in);
+        for (int i = 0; i < materialCount; ++i) {
+            Material material = new Material();
+            material.diffuseReflectivity = readColor(in);
+            material.directReflectivity = readColor(in);
+            material.passthroughIntensity = readColor(in);
+            material.refractionIndex = in.getDouble();
+            int texture = in.getInt();
+            if (texture < -1 || texture >= textureCount) {
+                throw new IllegalArgumentException("Invalid texture index " + texture);
+            }
+            if (texture >= 0) {
+                material.texture = scene.textures.get(texture).texture;
+            }
+            int filter = in.get();
+            if (filter < 0 || filter >= Texture.Filter.values().length) {
+                throw new IllegalArgumentException("Invalid texture filter " + filter);
+            }
+            material.textureFilter = Texture.Filter.values()[filter];
+            scene.materials.add(material);
+            scene.materialTextures.add(texture);
+        }
+
+        int lightCount = readCount(in);
+        for (int i = 0; i < lightCount; ++i) {
+            double[] light = new double[12];
+            in.asDoubleBuffer().get(light);
+            in.position(in.position() + light.length * Double.BYTES);
+            scene.lights.add(light);
+        }
+
+        int solidCount = readCount(in);
+        for (int i = 0; i < solidCount; ++i) {
+            byte kind = in.get();
+            if (kind != SPHERE && kind != RECT && kind != BOX) {
+                throw new IllegalArgumentException("Invalid solid kind " + kind);
+            }
+            int[] materials = new int[kind == BOX ? 6 : 1];
+            for (int j = 0; j < materials.length; ++j) {
+                materials[j] = in.getInt();
+                if (materials[j] < 0 || materials[j] >= materialCount) {
+                    throw new IllegalArgumentException("Invalid material index " + materials[j]);
+                }
+            }
+            double[] values = new double[kind == SPHERE ? 4 : (kind == RECT ? 9 : 12)];
+            in.asDoubleBuffer().get(values);
+            in.position(in.position() + values.length * Double.BYTES);
+            scene.solids.add(new SolidSpec(kind, materials, values));
+        }
+
+        Solid[] solids = createSolids(scene);
+        BoundingVolumeHierarchy hierarchy = BoundingVolumeHierarchy.readTree(in, solids);
+        setUp(scene, solids, renderer, width, height);
+        renderer.useAccelerationStructures(hierarchy, start);
+        return true;
+    }
+
+    private static Texture readTexture(ByteBuffer in) {
+        int levelCount = in.getInt();
+        if (levelCount == 0) {
+            return null;
+        }
+        if (levelCount < 0 || levelCount > 32) {
+            throw new IllegalArgumentException("Invalid number of mipmap levels " + levelCount);
+        }
+        float[][] levels = new float[levelCount][];
+        int[] widths = new int[levelCount];
+        int[] heights = new int[levelCount];
+        for (int level = 0; level < levelCount; ++level) {
+            widths[level] = in.getInt();
+            heights[level] = in.getInt();
+            long size = 3L * widths[level] * heights[level];
+            if (widths[level] < 1 || heights[level] < 1 || size * Float.BYTES > in.remaining()) {
+                throw new IllegalArgumentException("Invalid mipmap level size");
+            }
+            levels[level] = new float[(int) size];
+            in.asFloatBuffer().get(levels[level]);
+            in.position(in.position() + levels[level].length * Float.BYTES);
+        }
+        return new Texture(levels, widths, heights);
+    }
+
+    private static LightIntensity readColor(ByteBuffer in) {
+        return new LightIntensity(in.getDouble(), in.getDouble(), in.getDouble());
+    }
+
+    private static String readString(ByteBuffer in) {
+        byte[] bytes = new byte[readCount(in)];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // Reads a count, which cannot be larger than the rest of the file
+    private static int readCount(ByteBuffer in) {
+        int count = in.getInt();
+        if (count < 0 || count > in.remaining()) {
+            throw new IllegalArgumentException("Invalid count " + count);
+        }
+        return count;
+    }
+}
@@ -0,0 +1,260 @@
+import javax.imageio.ImageIO;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * We did not have enough time to create editors for the scene, we decided to have a few initializer methods instead.
+ * Each of them fills an empty Renderer with the camera, solids and light sources of one scene.
+ */
+public class SceneLibrary {
+    // The texture of the floor, the same file the scene files in the scenes directory use
+    private static final String CHECKERBOARD_TEXTURE = "scenes/checkerboard.png";
+
+    /**
+     * Sets up the scene with the provided name. Available names are "2spheres" and "9spheres", and anything else is
+     * taken as the path of a scene file, see SceneFile. Scene files are compiled as well, like by
+     * Renderer.buildAccelerationStructures.
+     * @param name The name of the scene
+     * @param renderer An empty renderer to put the scene into
+     * @param width The width of the rendered image in pixels
+     * @param height The height of the rendered image in pixels
+     */
+    public static void setUpScene(String name, Renderer renderer, int width, int height) {
+        switch (name) {
+            case "2spheres":
+                setUp2SpheresScene(renderer, width, height);
+                break;
+            case "9spheres":
+                setUp9SpheresScene(renderer, width, height);
+                break;
+            default:
+                if (!new File(name).isFile()) {
+                    throw new IllegalArgumentException("Unknown scene: " + name
+                            + ". Available scenes: 2spheres, 9spheres, or the path of a scene file");
+                }
+                try {
+                    SceneFile.load(new File(name), renderer, width, height);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+        }
+    }
+
+    // Sets up the scene with 9 stacked spheres
+    public static void setUp9SpheresScene(Renderer renderer, int width, int height) {
+        renderer.camera = new Camera(
+                new Vector3D(0, 0, 9),
+                new Vector3D(0,0,0),
+                new Vector3D(0,1,0),
+                Math.PI * 0.5, width, height
+        );
+        renderer.camera.moveForward(1.0);
+
+        renderer.exposure = 1.0;
+        renderer.ambientLight = new LightIntensity();
+        renderer.ambientLight.red =   0.2;
+        renderer.ambientLight.green = 0.2;
+        renderer.ambientLight.blue =  0.2;
+
+        renderer.lightSources.add(
+                new LightSource(
+                        new LightIntensity(.7,  .7, .7),
+                        new RectFace(
+                                new Vector3D(-1.1, 9.99, -5.0),
+                                new Vector3D(1.1,  9.99, -5.0),
+                                new Vector3D(-1.1, 9.99, -6.0)
+                        )
+                ));
+
+        Material reflective = new Material();
+        reflective.diffuseReflectivity.red = 0.2;
+        reflective.diffuseReflectivity.green = 0.2;
+        reflective.diffuseReflectivity.blue  = 0.2;
+        reflective.directReflectivity = LightIntensity.makeUniformRGB(0.5);
+
+        Material glass = new Material();
+        glass.diffuseReflectivity.red = 0.0;
+        glass.diffuseReflectivity.green = 0.0;
+        glass.diffuseReflectivity.blue = 0.0;
+        glass.passthroughIntensity.red =   0.9;
+        glass.passthroughIntensity.green = 0.9;
+        glass.passthroughIntensity.blue =  0.9;
+        glass.directReflectivity = LightIntensity.makeUniformRGB(0.1);
+        glass.refractionIndex = 1.33;
+
+        renderer.solids.add(new Sphere.SphereSolid(new Sphere(new Vector3D(0,-9,0), 1), reflective));
+        renderer.solids.add(new Sphere.SphereSolid(new Sphere(new Vector3D(-2,-9,0), 1), glass));
+        renderer.solids.add(new Sphere.SphereSolid(new Sphere(new Vector3D(-4,-9,0), 1), reflective));
+
+        renderer.solids.add(new Sphere.SphereSolid(new Sphere(new Vector3D(0,-9,2), 1), glass));
+        renderer.solids.add(new Sphere.SphereSolid(new Sphere(new Vector3D(-2,-9,2), 1), reflective));
+        renderer.solids.add(new Sphere.SphereSolid(new Sphere(new Vector3D(-4,-9,2), 1), glass));
+
+        renderer.solids.add(new Sphere.SphereSolid(new Sphere(new Vector3D(0,-9,4), 1), reflective));
+        renderer.solids.add(new Sphere.SphereSolid(new Sphere(new Vector3D(-2,-9,4), 1), glass));
+        renderer.solids.add(new Sphere.SphereSolid(new Sphere(new Vector3D(-4,-9,4), 1), reflective));
+
+        renderer.solids.add(new Sphere.SphereSolid(new Sphere(new Vector3D(0,-6,0), 1), glass));
+        renderer.solids.add(new Sphere.SphereSolid(new Sphere(new Vector3D(-2,-6,0), 1), reflective));
+        renderer.solids.add(new Sphere.SphereSolid(new Sphere(new Vector3D(-4,-6,0), 1), glass));
+
+        renderer.solids.add(new Sphere.SphereSolid(new Sphere(new Vector3D(0,-6,2), 1), reflective));
+        renderer.solids.add(new Sphere.SphereSolid(new Sphere(new Vector3D(-2,-6,2), 1), glass));
+        renderer.solids.add(new Sphere.SphereSolid(new Sphere(new Vector3D(-4,-6,2), 1), reflective));
+
+        renderer.solids.add(new Sphere.SphereSolid(new Sphere(new Vector3D(0,-6,4), 1), glass));
+        renderer.solids.add(new Sphere.SphereSolid(new Sphere(new Vector3D(-2,-6,4), 1), reflective));
+        renderer.solids.add(new Sphere.SphereSolid(new Sphere(new Vector3D(-4,-6,4), 1), glass));
+
+        renderer.solids.add(new Sphere.SphereSolid(new Sphere(new Vector3D(0,-3,0), 1), reflective));
+        renderer.solids.add(new Sphere.SphereSolid(new Sphere(new Vector3D(-2,-3,0), 1), glass));
+        renderer.solids.add(new Sphere.SphereSolid(new Sphere(new Vector3D(-4,-3,0), 1), reflective));
+
+        renderer.solids.add(new Sphere.SphereSolid(new Sphere(new Vector3D(0,-3,2), 1), glass));
+        renderer.solids.add(new Sphere.SphereSolid(new Sphere(new Vector3D(-2,-3,2), 1), reflective));
+        renderer.solids.add(new Sphere.SphereSolid(new Sphere(new Vector3D(-4,-3,2), 1), glass));
+
+        renderer.solids.add(new Sphere.SphereSolid(new Sphere(new Vector3D(0,-3,4), 1), reflective));
+        renderer.solids.add(new Sphere.SphereSolid(new Sphere(new Vector3D(-2,-3,4), 1), glass));
+        renderer.solids.add(new Sphere.SphereSolid(new Sphere(new Vector3D(-4,-3,4), 1), reflective));
+
+        Box boundingBox = new Box(
+                new Vector3D(-10,10, 10),
+                new Vector3D(-10,10, -10),
+                new Vector3D(10,10, 10),
+                new Vector3D(-10,-10, 10)
+        );
+
+        Material leftWallMaterial = new Material();
+        leftWallMaterial.diffuseReflectivity = new LightIntensity(.7,.7, 0.3);
+        leftWallMaterial.directReflectivity = LightIntensity.makeUniformRGB(.3);
+
+        Material rightWallMaterial = new Material();
+        rightWallMaterial.diffuseReflectivity = new LightIntensity(.7,0.3, .7);
+        rightWallMaterial.directReflectivity = LightIntensity.makeUniformRGB(.3);
+
+        Material frontWallMaterial = new Material();
+        frontWallMaterial.diffuseReflectivity = new LightIntensity(0.3,0.3, 0.3);
+        frontWallMaterial.directReflectivity = LightIntensity.makeUniformRGB(.3);
+
+        Material backWallMaterial = new Material();
+        backWallMaterial.diffuseReflectivity = new LightIntensity(.7,0.3, 0.3);
+        backWallMaterial.directReflectivity = LightIntensity.makeUniformRGB(.3);
+
+        Material topWallMaterial = new Material();
+        topWallMaterial.diffuseReflectivity = new LightIntensity(.7,.7, .7);
+        topWallMaterial.directReflectivity = LightIntensity.makeUniformRGB(.3);
+
+        Material bottomWallMaterial = new Material();
+        bottomWallMaterial.diffuseReflectivity = new LightIntensity(.7,.7, .7);
+        bottomWallMaterial.directReflectivity = LightIntensity.makeUniformRGB(.3);
+
+        try {
+            bottomWallMaterial.texture = new Texture(ImageIO.read(new File(CHECKERBOARD_TEXTURE)));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        renderer.solids.add(new RectFace.FaceSolid(boundingBox.left, leftWallMaterial));
+        renderer.solids.add(new RectFace.FaceSolid(boundingBox.right, rightWallMaterial));
+        renderer.solids.add(new RectFace.FaceSolid(boundingBox.front, frontWallMaterial));
+        renderer.solids.add(new RectFace.FaceSolid(boundingBox.back, backWallMaterial));
+        renderer.solids.add(new RectFace.FaceSolid(boundingBox.top, topWallMaterial));
+        renderer.solids.add(new RectFace.FaceSolid(boundingBox.bottom, bottomWallMaterial));
+    }
+
+    // Sets up the scene with one refractive and one normal sphere
+    public static void setUp2SpheresScene(Renderer renderer, int width, int height) {
+        renderer.camera = new Camera(
+                new Vector3D(0, 0, 9),
+                new Vector3D(0,0,0),
+                new Vector3D(0,1,0),
+                Math.PI * 0.5, width, height
+        );
+        renderer.camera.moveForward(1.0);
+
+        renderer.exposure = 1.0;
+        renderer.ambientLight = new LightIntensity();
+        renderer.ambientLight.red =   0.2;
+        renderer.ambientLight.green = 0.2;
+        renderer.ambientLight.blue =  0.2;
+
+        renderer.lightSources.add(
+                new LightSource(
+                        new LightIntensity(.7,  .7, .3),
+                        new RectFace(
+                                new Vector3D(-1.1, 9.99, -5.0),
+                                new Vector3D(1.1,  9.99, -5.0),
+                                new Vector3D(-1.1, 9.99, -6.1)
+                        )
+                ));
+
+        renderer.lightSources.add(
+                new LightSource(
+                        new LightIntensity(.4, .3, .7),
+                        new RectFace(
+                                new Vector3D(-4.1, 2.99, -5.0),
+                                new Vector3D(-2.9,  2.99, -5.0),
+                                new Vector3D(-4.1, 2.99, -6.1)
+                        )
+                ));
+
+        Material reflective = new Material();
+        reflective.diffuseReflectivity.red = 0.2;
+        reflective.diffuseReflectivity.green = 0.2;
+        reflective.diffuseReflectivity.blue  = 0.2;
+        reflective.directReflectivity = LightIntensity.makeUniformRGB(0.5);
+
+        Material glass = new Material();
+        glass.diffuseReflectivity.red = 0.0;
+        glass.diffuseReflectivity.green = 0.0;
+        glass.diffuseReflectivity.blue = 0.0;
+        glass.passthroughIntensity.red =   0.9;
+        glass.passthroughIntensity.green = 0.9;
+        glass.passthroughIntensity.blue =  0.9;
+        glass.directReflectivity = LightIntensity.makeUniformRGB(0.1);
+        glass.refractionIndex = 1.33;
+
+        renderer.solids.add(new Sphere.SphereSolid(new Sphere(new Vector3D(-5, -3, -5), 2.5), glass));
+        renderer.solids.add(new Sphere.SphereSolid(new Sphere(new Vector3D(5, -3, -5), 2.5), new Material()));
+
+        Box boundingBox = new Box(
+                new Vector3D(-10,10, 10),
+                new Vector3D(-10,10, -10),
+                new Vector3D(10,10, 10),
+                new Vector3D(-10,-10, 10)
+        );
+
+        Material leftWallMaterial = new Material();
+        leftWallMaterial.diffuseReflectivity = new LightIntensity(.7,.7, 0.3);
+
+        Material rightWallMaterial = new Material();
+        rightWallMaterial.diffuseReflectivity = new LightIntensity(.7,0.3, .7);
+
+        Material frontWallMaterial = new Material();
+        frontWallMaterial.diffuseReflectivity = new LightIntensity(0.3,0.3, 0.3);
+
+        Material backWallMaterial = new Material();
+        backWallMaterial.diffuseReflectivity = new LightIntensity(.7,0.3, 0.3);
+
+        Material topWallMaterial = new Material();
+        topWallMaterial.diffuseReflectivity = new LightIntensity(.7,.7, .7);
+
+        Material bottomWallMaterial = new Material();
+        bottomWallMaterial.diffuseReflectivity = new LightIntensity(.7,.7, .7);
+
+        try {
+            bottomWallMaterial.texture = new Texture(ImageIO.read(new File(CHECKERBOARD_TEXTURE)));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        renderer.solids.add(new RectFace.FaceSolid(boundingBox.left, leftWallMaterial));
+        renderer.solids.add(new RectFace.FaceSolid(boundingBox.right, rightWallMaterial));
+        renderer.solids.add(new RectFace.FaceSolid(boundingBox.front, frontWallMaterial));
+        renderer.solids.add(new RectFace.FaceSolid(boundingBox.back, backWallMaterial));
+        renderer.solids.add(new RectFace.FaceSolid(boundingBox.top, topWallMaterial));
+        renderer.solids.add(new RectFace.FaceSolid(boundingBox.bottom, bottomWallMaterial));
+    }
+}
@@ -1,5 +1,3 @@
-import javafx.geometry.Point3D;
-
 /**
  * Shape3D is a design choice taken when tasked with making a shading model with different shapes and multiple
  * objects contained in a specific scene. Given our goal to give modularity to push our lighting model as far
@@ -12,6 +10,25 @@ import javafx.geometry.Point3D;
  */
 interface Shape3D {
     IntersectionData castRay(Ray ray);
-    Point3D getNormalAtPoint(Point3D pointInShape);
+
+    /**
+     * Finds the first intersection of the ray with the shape that is further than tMin from the ray origin. If it is
+     * also closer than tMax, the hit record is filled in (distance, normal and inside flag) and true is returned.
+     * Otherwise the record is left untouched. Passing the distance of the best hit so far as tMax makes finding the
+     * closest hit among many shapes a running minimum.
+     */
+    boolean intersect(Ray ray, double tMin, double tMax, HitRecord record);
+    Vector3D getNormalAtPoint(Vector3D pointInShape);
+
+    /**
+     * Returns the smallest axis aligned box containing the whole shape. Used for building acceleration structures.
+     */
+    BoundingBox getBoundingBox();
+
+    /**
+     * Checks whether the ray hits the shape anywhere between minDistance and maxDistance from its origin. Unlike
+     * castRay this does not build any intersection data, which makes it suitable for visibility (shadow) queries.
+     */
+    boolean intersectsSegment(Ray ray, double minDistance, double maxDistance);
 }
 
@@ -0,0 +1,42 @@
+/**
+ * Takes the points from the first two dimensions of the Sobol sequence. Like in HaltonSampler, consecutive pixel
+ * samples continue the sequence, so the points of all passes together are spread evenly.
+ *
+ * Every pixel and dimension gets its own scrambled copy of the sequence: the order of the points and the bits of the
+ * coordinates are shuffled with a nested uniform scramble (Owen scrambling, in the hash-based form of Laine and Karras
+ * and Burley). Unlike a random shift, this keeps the points of every power of two evenly spread.
+ */
+class SobolSampler extends Sampler {
+    @Override
+    public void sample2D(int dimension, int i, int count) {
+        int index = (int) (sampleIndex * count + i);
+        long seed = scrambleSeed(dimension);
+        int shuffledIndex = nestedUniformScramble(index, (int) seed);
+        int x = nestedUniformScramble(Integer.reverse(shuffledIndex), (int) (seed >>> 32));
+        int y = nestedUniformScramble(sobolSecondDimension(shuffledIndex), (int) mix(seed));
+        u = (x & 0xffffffffL) * 0x1p-32;
+        v = (y & 0xffffffffL) * 0x1p-32;
+    }
+
+    // The second dimension of the Sobol sequence, with the bits of the fraction in a 32-bit int
+    private static int sobolSecondDimension(int index) {
+        int result = 0;
+        for (int v = 1 << 31; index != 0; index >>>= 1, v ^= v >>> 1) {
+            if ((index & 1) != 0) {
+                result ^= v;
+            }
+        }
+        return result;
+    }
+
+    // Shuffles the bits so that every bit only depends on the bits above it, which keeps the stratification
+    private static int nestedUniformScramble(int x, int seed) {
+        x = Integer.reverse(x);
+        x ^= x * 0x3d20adea;
+        x += seed;
+        x *= (seed >>> 16) | 1;
+        x ^= x * 0x05526c56;
+        x ^= x * 0x53a22864;
+        return Integer.reverse(x);
+    }
+}
@@ -1,5 +1,3 @@
-import javafx.geometry.Point3D;
-
 /**
  * Solid represents a Solid that can be placed inside a scene. Each solid has to have a shape and a material it is made
  * out of.
@@ -40,6 +38,27 @@ abstract public class Solid {
         return new Intersection(intersection, this);
     }
 
+    /**
+     * Finds the first intersection of the ray with this solid further than tMin from the ray origin. If it is closer
+     * than tMax, it is written to the hit record and true is returned. Otherwise the record is left untouched.
+     */
+    public boolean intersect(Ray ray, double tMin, double tMax, HitRecord record) {
+        if (!shape.intersect(ray, tMin, tMax, record)) {
+            return false;
+        }
+        record.solid = this;
+        record.material = -1;
+        return true;
+    }
+
+    /**
+     * Checks whether the ray hits this solid between minDistance and maxDistance from its origin. Cheaper than castRay,
+     * since no intersection info is built.
+     */
+    public boolean intersectsSegment(Ray ray, double minDistance, double maxDistance) {
+        return shape.intersectsSegment(ray, minDistance, maxDistance);
+    }
+
     /**
      * Returns the shape of this solid
      */
@@ -47,6 +66,13 @@ abstract public class Solid {
         return shape;
     }
 
+    /**
+     * Returns the bounding box of the shape of this solid
+     */
+    public BoundingBox getBoundingBox() {
+        return shape.getBoundingBox();
+    }
+
     /**
      * Returns the material of this solid
      */
@@ -57,5 +83,16 @@ abstract public class Solid {
     /**
      * Computes the DiffuseReflectivity coefficient at a given point. Necessary for texturing.
      */
-    abstract public LightIntensity getDiffuseReflectivityAtPoint(Point3D p);
+    public LightIntensity getDiffuseReflectivityAtPoint(Vector3D p) {
+        LightIntensity result = new LightIntensity();
+        getDiffuseReflectivityAtPoint(p, 0, result);
+        return result;
+    }
+
+    /**
+     * Computes the DiffuseReflectivity coefficient at a given point into result, without allocating anything.
+     * @param footprint The width of the surface seen by the sample around p, in world units. Decides which mipmap of
+     *                  the texture is read - 0 reads the full image.
+     */
+    abstract public void getDiffuseReflectivityAtPoint(Vector3D p, double footprint, LightIntensity result);
 }
@@ -1,19 +1,15 @@
-import javafx.geometry.Point3D;
-
-import java.awt.*;
-
 /**
  * Represents a simple sphere that can be displayed in the scene class.
  */
 public class Sphere implements Shape3D {
-    public Point3D center;
+    public Vector3D center;
     public double radius;
 
     private double square(double a) {
         return a*a;
     }
 
-    public Sphere(Point3D center, double radius) {
+    public Sphere(Vector3D center, double radius) {
         this.center = center;
         this.radius = radius;
     }
@@ -24,16 +20,18 @@ public class Sphere implements Shape3D {
      * @param p Point on the sphere
      * @return The normal to the sphere at the given point
      */
-    public Point3D normalAtPoint(Point3D p) {
+    public Vector3D normalAtPoint(Vector3D p) {
         return p.subtract(center).multiply(1.0/radius);
     }
 
     @Override
     public IntersectionData castRay(Ray ray) {
-
-        Point3D co = ray.origin.subtract(center);
-        double b = 2 * (co.dotProduct(ray.unitDirection));
-        double c = co.dotProduct(co) - radius*radius;
+        // Working on the components directly, so that no temporary vectors are created
+        double cox = ray.origin.x - center.x;
+        double coy = ray.origin.y - center.y;
+        double coz = ray.origin.z - center.z;
+        double b = 2 * Vector3D.dot(cox, coy, coz, ray.unitDirection.x, ray.unitDirection.y, ray.unitDirection.z);
+        double c = Vector3D.dot(cox, coy, coz, cox, coy, coz) - radius*radius;
         double delta = b*b - 4*c; // Since a is 1 (unitDirection dot unitDirection)
 
         if (delta < 0) return null;
@@ -61,14 +59,80 @@ public class Sphere implements Shape3D {
         return pointOfIntersection;
     }
 
+    @Override
+    public boolean intersect(Ray ray, double tMin, double tMax, HitRecord record) {
+        Vector3D origin = ray.origin;
+        Vector3D dir = ray.unitDirection;
+        double cox = origin.x - center.x;
+        double coy = origin.y - center.y;
+        double coz = origin.z - center.z;
+        double b = 2 * Vector3D.dot(cox, coy, coz, dir.x, dir.y, dir.z);
+        double c = Vector3D.dot(cox, coy, coz, cox, coy, coz) - radius*radius;
+        double delta = b*b - 4*c;
+
+        if (delta < 0) return false;
+
+        double sqrtDelta = Math.sqrt(delta);
+        double negT = (-b - sqrtDelta) / 2;
+        double posT = (-b + sqrtDelta) / 2;
+
+        // If the closer point of intersection is behind tMin, we are inside the sphere and will hit it on the way out
+        boolean collidedInside = negT <= tMin;
+        double t = collidedInside ? posT : negT;
+        if (!(t > tMin && t < tMax)) {
+            return false;
+        }
+
+        double inverseRadius = 1.0/radius;
+        record.t = t;
+        record.inside = collidedInside;
+        record.shape = this;
+        record.normal.set(
+                (cox + t * dir.x) * inverseRadius,
+                (coy + t * dir.y) * inverseRadius,
+                (coz + t * dir.z) * inverseRadius);
+        return true;
+    }
+
+    @Override
+    public boolean intersectsSegment(Ray ray, double minDistance, double maxDistance) {
+        double cox = ray.origin.x - center.x;
+        double coy = ray.origin.y - center.y;
+        double coz = ray.origin.z - center.z;
+        double b = 2 * Vector3D.dot(cox, coy, coz, ray.unitDirection.x, ray.unitDirection.y, ray.unitDirection.z);
+        double c = Vector3D.dot(cox, coy, coz, cox, coy, coz) - radius*radius;
+        double delta = b*b - 4*c;
+
+        if (delta < 0) return false;
+
+        double sqrtDelta = Math.sqrt(delta);
+        double negT = (-b - sqrtDelta) / 2;
+        double posT = (-b + sqrtDelta) / 2;
+
+        // The first point of intersection past minDistance decides
+        double t = negT > minDistance ? negT : posT;
+        return t > minDistance && t < maxDistance;
+    }
+
     /**
      * Obtains the normal for any particular pixel contained by this Sphere.
      * @param pointInShape Point on the sphere
      * @return point3D, The normal to the sphere at the given point
      */
     @Override
-    public Point3D getNormalAtPoint(Point3D pointInShape) {
-        return pointInShape.subtract(center).multiply(1.0/radius);
+    public Vector3D getNormalAtPoint(Vector3D pointInShape) {
+        double inverseRadius = 1.0/radius;
+        return new Vector3D(
+                (pointInShape.x - center.x) * inverseRadius,
+                (pointInShape.y - center.y) * inverseRadius,
+                (pointInShape.z - center.z) * inverseRadius);
+    }
+
+    @Override
+    public BoundingBox getBoundingBox() {
+        return new BoundingBox(
+                center.subtract(radius, radius, radius),
+                center.add(radius, radius, radius));
     }
 
     public static class SphereSolid extends Solid {
@@ -79,42 +143,21 @@ public class Sphere implements Shape3D {
             this.sphere = sphere;
         }
 
-        private LightIntensity computeTextureDiffuseReflectivity(Point3D viewedPoint) {
-            Point3D centeredPoint = viewedPoint.subtract(sphere.center);
-
-            // Converting from equirectangular sphere projection
-            double lat = 0.5 * (centeredPoint.getY() / sphere.radius + 1) * Math.PI;
-            double lon = Math.atan(centeredPoint.getX()/centeredPoint.getZ()) + Math.PI * 0.5;
-
-            int pixelY = getMaterial().texture.getHeight() - (int) Math.floor(lat / Math.PI * getMaterial().texture.getHeight());
-            int pixelX = (int) Math.floor(lon / (Math.PI) * getMaterial().texture.getWidth());
-
-            // The floating point arithmetic may cause an off by one error. That is fine, apart from if we were
-            // going to go out of bounds of our texture:
-            if (pixelX < 0) {
-                pixelX = 0;
-            } else if (pixelX >= getMaterial().texture.getWidth()) {
-                pixelX = getMaterial().texture.getWidth() - 1;
-            }
-            if (pixelY < 0) {
-                pixelY = 0;
-            } else if (pixelY >= getMaterial().texture.getHeight()) {
-                pixelY = getMaterial().texture.getHeight() - 1;
-            }
-
-            Color pixel = new Color(getMaterial().texture.getRGB(pixelX, pixelY));
-            LightIntensity result = new LightIntensity();
-            result.setColor(pixel);
-            return result;
-        }
-
         @Override
-        public LightIntensity getDiffuseReflectivityAtPoint(Point3D p) {
-            LightIntensity result = getMaterial().diffuseReflectivity;
-            if (getMaterial().texture != null) {
-                result = result.multiply(computeTextureDiffuseReflectivity(p));
+        public void getDiffuseReflectivityAtPoint(Vector3D p, double footprint, LightIntensity result) {
+            Texture texture = getMaterial().texture;
+            if (texture == null) {
+                result.set(getMaterial().diffuseReflectivity);
+                return;
             }
-            return result;
+
+            // Converting from equirectangular sphere projection
+            double lat = 0.5 * ((p.y - sphere.center.y) / sphere.radius + 1) * Math.PI;
+            double lon = Math.atan((p.x - sphere.center.x) / (p.z - sphere.center.z)) + Math.PI * 0.5;
+            // Half of the circumference is stretched over the width of the texture
+            double texelsPerSample = footprint * texture.getWidth() / (Math.PI * sphere.radius);
+            texture.sample(lon / Math.PI, 1 - lat / Math.PI, texelsPerSample, getMaterial().textureFilter, result);
+            result.multiplyInPlace(getMaterial().diffuseReflectivity);
         }
     }
 }
@@ -0,0 +1,46 @@
+import java.util.SplittableRandom;
+
+/**
+ * Splits the unit square into a grid with at least count cells, and puts every point at a random place in a cell of
+ * its own. Even with few points, no part of the square is left out. A dimension with a single point is sampled like
+ * RandomSampler, and so are the pixel points over multiple passes - each pass only knows about its own sample.
+ *
+ * The cells are visited in a scrambled order instead of row by row, because adaptive light sampling may stop after the
+ * first few points, and those have to cover the whole square too.
+ */
+class StratifiedSampler extends Sampler {
+    private final SplittableRandom random;
+
+    StratifiedSampler(long seed) {
+        random = new SplittableRandom(seed);
+    }
+
+    @Override
+    public void sample2D(int dimension, int i, int count) {
+        int columns = (int) Math.ceil(Math.sqrt(count));
+        int rows = (count + columns - 1) / columns;
+        int cellCount = columns * rows;
+        int cell = (int) ((i * (long) getStride(cellCount) + Math.floorMod(scrambleSeed(dimension), cellCount)) % cellCount);
+        u = (cell % columns + random.nextDouble()) / columns;
+        v = (cell / columns + random.nextDouble()) / rows;
+    }
+
+    // Returns a step close to cellCount / golden ratio that visits every cell once. Consecutive steps then land far
+    // from each other.
+    private static int getStride(int cellCount) {
+        int stride = Math.max(1, (int) Math.round(cellCount * 0.6180339887));
+        while (gcd(stride, cellCount) != 1) {
+            ++stride;
+        }
+        return stride;
+    }
+
+    private static int gcd(int a, int b) {
+        while (b != 0) {
+            int t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+}
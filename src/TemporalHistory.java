@@ -0,0 +1,175 @@
+/**
+ * What every pixel of the last frame saw: the point of the solid it hit, the normal there and the diffuse light it
+ * found. While the camera moves, most of the next frame shows the same points from a slightly different place. The
+ * diffuse light of a surface does not depend on where it is seen from, so instead of computing it again, the hit point
+ * of a pixel can be projected into the last frame and the light of the pixel that saw it reused. Reflections and
+ * refractions do depend on the view, and are not kept.
+ *
+ * The history of a pixel is rejected if it saw something else: a point of a different solid, a point too far away -
+ * the surface was hidden behind another one (a disocclusion) - or a surface facing another way. Light that was reused
+ * for too many frames is rejected as well, so the noise and errors of old frames fade out rather than smear across
+ * the image.
+ *
+ * The frames are double buffered: the last frame is only read, the new one only written, a pixel at a time. Different
+ * threads may set different pixels concurrently.
+ */
+public class TemporalHistory {
+    // Normals turned further apart than this are of different surfaces
+    private static final double MIN_NORMAL_COSINE = 0.9;
+    // The hit points of a pixel in both frames may be this many pixel footprints apart - the pixel of the last frame
+    // is picked by rounding, so its point is up to about a footprint away even on the same surface
+    private static final double POSITION_TOLERANCE = 2;
+    // Surfaces seen at a grazing angle stretch the footprint, up to 1 / this
+    private static final double MIN_VIEW_COSINE = 0.25;
+
+    private static class Frame {
+        final int width, height;
+        // The hit point of every pixel, 3 values per pixel
+        final double[] positions;
+        final float[] normals;
+        // The diffuse light of every pixel, red, green and blue one after another
+        final double[] lights;
+        // The solid hit by every pixel, or null if nothing was
+        final Solid[] solids;
+        // The number of frames for which the light of every pixel was reused
+        final int[] ages;
+
+        Frame(int width, int height) {
+            this.width = width;
+            this.height = height;
+            positions = new double[3 * width * height];
+            normals = new float[3 * width * height];
+            lights = new double[3 * width * height];
+            solids = new Solid[width * height];
+            ages = new int[width * height];
+        }
+    }
+
+    private Frame previous, current;
+    // The view of the last frame, or null if there is none
+    private Camera previousCamera;
+    private long frameNumber;
+    private final ThreadLocal<double[]> pixels = ThreadLocal.withInitial(() -> new double[2]);
+
+    /**
+     * Prepares the buffer of a new frame of the given size. The size may differ from the size of the last frame.
+     */
+    public void startFrame(int width, int height) {
+        if (current == null || current.width != width || current.height != height) {
+            current = new Frame(width, height);
+        }
+    }
+
+    /**
+     * Makes the frame that was set since startFrame the last frame
+     * @param camera The camera that rendered it. A copy is kept, so the camera may move on.
+     */
+    public void finishFrame(Camera camera) {
+        Frame swap = previous;
+        previous = current;
+        current = swap;
+        previousCamera = new Camera(camera);
+        ++frameNumber;
+    }
+
+    /**
+     * Forgets the last frame. Has to be called when the solids, the lights or the materials change.
+     */
+    public void clear() {
+        previous = null;
+        previousCamera = null;
+    }
+
+    /**
+     * Returns the number of frames finished so far, which tells the frames apart
+     */
+    public long getFrameNumber() {
+        return frameNumber;
+    }
+
+    /**
+     * Looks for the diffuse light of a point in the last frame
+     * @param position A point of a surface seen by a pixel of the new frame
+     * @param normal The normal of the surface at the point
+     * @param solid The solid the point belongs to
+     * @param maxAge The light is not reused if it already was in this many frames
+     * @param out Receives the light if it can be reused
+     * @return The number of frames for which the light was reused so far, or -1 if it cannot be reused
+     */
+    public int reproject(Vector3D position, Vector3D normal, Solid solid, int maxAge, LightIntensity out) {
+        Frame frame = previous;
+        if (frame == null) {
+            return -1;
+        }
+        double[] pixel = pixels.get();
+        if (!previousCamera.getPixelForPoint(position, pixel)) {
+            return -1;
+        }
+        int x = (int) Math.floor(pixel[0] * frame.width / previousCamera.getWidth());
+        int y = (int) Math.floor(pixel[1] * frame.height / previousCamera.getHeight());
+        if (x < 0 || y < 0 || x >= frame.width || y >= frame.height) {
+            return -1;
+        }
+        int i = y * frame.width + x;
+        if (frame.solids[i] != solid || frame.ages[i] >= maxAge) {
+            return -1;
+        }
+        if (normal.x * frame.normals[3 * i] + normal.y * frame.normals[3 * i + 1]
+                + normal.z * frame.normals[3 * i + 2] < MIN_NORMAL_COSINE) {
+            return -1;
+        }
+        Vector3D eye = previousCamera.getPosition();
+        double viewX = position.x - eye.x, viewY = position.y - eye.y, viewZ = position.z - eye.z;
+        double distance = Math.sqrt(Vector3D.dot(viewX, viewY, viewZ, viewX, viewY, viewZ));
+        double viewCosine = Math.abs(Vector3D.dot(viewX, viewY, viewZ, normal.x, normal.y, normal.z)) / distance;
+        // The pixels of the last frame may have been larger, if it was rendered at a lower resolution
+        double pixelAngle = previousCamera.getPixelAngle() * previousCamera.getWidth() / frame.width;
+        double tolerance = POSITION_TOLERANCE * distance * pixelAngle / Math.max(viewCosine, MIN_VIEW_COSINE);
+        double dx = position.x - frame.positions[3 * i];
+        double dy = position.y - frame.positions[3 * i + 1];
+        double dz = position.z - frame.positions[3 * i + 2];
+        if (dx * dx + dy * dy + dz * dz > tolerance * tolerance) {
+            return -1;
+        }
+        out.red = frame.lights[3 * i];
+        out.green = frame.lights[3 * i + 1];
+        out.blue = frame.lights[3 * i + 2];
+        return frame.ages[i];
+    }
+
+    /**
+     * Stores a pixel of the new frame
+     * @param position The point the pixel hit, ignored if solid is null
+     * @param normal The normal of the surface at the point, ignored if solid is null
+     * @param solid The solid the pixel hit, or null if nothing was
+     * @param light The diffuse light of the pixel
+     * @param age The number of frames for which the light was reused, see getStartAge for light that was just traced
+     */
+    public void set(int x, int y, Vector3D position, Vector3D normal, Solid solid, LightIntensity light, int age) {
+        Frame frame = current;
+        int i = y * frame.width + x;
+        frame.solids[i] = solid;
+        frame.ages[i] = age;
+        frame.lights[3 * i] = light.red;
+        frame.lights[3 * i + 1] = light.green;
+        frame.lights[3 * i + 2] = light.blue;
+        if (solid != null) {
+            frame.positions[3 * i] = position.x;
+            frame.positions[3 * i + 1] = position.y;
+            frame.positions[3 * i + 2] = position.z;
+            frame.normals[3 * i] = (float) normal.x;
+            frame.normals[3 * i + 1] = (float) normal.y;
+            frame.normals[3 * i + 2] = (float) normal.z;
+        }
+    }
+
+    /**
+     * Returns the age with which the light of a pixel that was just traced is stored. Pixels traced in the same frame -
+     * like all of the first one - would otherwise all expire in the same frame, which would be as slow as tracing the
+     * whole image. Starting them at different ages, up to half of maxAge, spreads the tracing over several frames.
+     */
+    public int getStartAge(int x, int y, int maxAge) {
+        long hash = Sampler.mix(frameNumber * 0x100000000L + (long) y * 0x10000 + x);
+        return (int) ((hash >>> 1) % (maxAge / 2 + 1));
+    }
+}
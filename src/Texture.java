@@ -0,0 +1,186 @@
+import java.awt.image.BufferedImage;
+
+/**
+ * An image used to color the surface of a solid. The image is decoded once, when the texture is created, into float
+ * RGB values (255 is mapped to 1, like in LightIntensity.setColor), so sampling it is just reading an array.
+ *
+ * Every texture has a chain of mipmaps: each level is half the size of the previous one, with every texel being the
+ * average of four texels of the level above. A sample covering many texels of the full image reads a smaller level
+ * instead, which avoids the noise of picking one texel out of many.
+ */
+public class Texture {
+    /**
+     * How the texels around the sampled point are combined
+     */
+    public enum Filter {
+        // The closest texel
+        NEAREST,
+        // Weighted average of the four closest texels
+        BILINEAR
+    }
+
+    // Every level stores the red, green and blue values of its texels one after another, row by row
+    private final float[][] levels;
+    private final int[] widths;
+    private final int[] heights;
+
+    public Texture(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int levelCount = 1;
+        while ((width >> (levelCount - 1)) > 1 || (height >> (levelCount - 1)) > 1) {
+            ++levelCount;
+        }
+        levels = new float[levelCount][];
+        widths = new int[levelCount];
+        heights = new int[levelCount];
+
+        int[] argb = image.getRGB(0, 0, width, height, null, 0, width);
+        float[] texels = new float[3 * width * height];
+        for (int i = 0; i < argb.length; ++i) {
+            texels[3 * i] = ((argb[i] >> 16) & 0xff) / 255f;
+            texels[3 * i + 1] = ((argb[i] >> 8) & 0xff) / 255f;
+            texels[3 * i + 2] = (argb[i] & 0xff) / 255f;
+        }
+        levels[0] = texels;
+        widths[0] = width;
+        heights[0] = height;
+        for (int level = 1; level < levelCount; ++level) {
+            downsample(level);
+        }
+    }
+
+    /**
+     * Creates a texture from mipmap levels decoded earlier, see getLevel
+     */
+    Texture(float[][] levels, int[] widths, int[] heights) {
+        this.levels = levels;
+        this.widths = widths;
+        this.heights = heights;
+    }
+
+    // Builds a level by averaging 2x2 blocks of the previous one. If the previous level has an odd number of rows or
+    // columns, the last one is folded into the last texels of the new level, which then average up to 3x3 texels.
+    private void downsample(int level) {
+        float[] source = levels[level - 1];
+        int sourceWidth = widths[level - 1];
+        int sourceHeight = heights[level - 1];
+        int width = Math.max(1, sourceWidth / 2);
+        int height = Math.max(1, sourceHeight / 2);
+        float[] texels = new float[3 * width * height];
+        for (int y = 0; y < height; ++y) {
+            int yStart = 2 * y;
+            int yEnd = y == height - 1 ? sourceHeight : yStart + 2;
+            for (int x = 0; x < width; ++x) {
+                int xStart = 2 * x;
+                int xEnd = x == width - 1 ? sourceWidth : xStart + 2;
+                float weight = 1f / ((yEnd - yStart) * (xEnd - xStart));
+                for (int c = 0; c < 3; ++c) {
+                    float sum = 0;
+                    for (int sy = yStart; sy < yEnd; ++sy) {
+                        for (int sx = xStart; sx < xEnd; ++sx) {
+                            sum += source[3 * (sy * sourceWidth + sx) + c];
+                        }
+                    }
+                    texels[3 * (y * width + x) + c] = sum * weight;
+                }
+            }
+        }
+        levels[level] = texels;
+        widths[level] = width;
+        heights[level] = height;
+    }
+
+    public int getWidth() {
+        return widths[0];
+    }
+
+    public int getHeight() {
+        return heights[0];
+    }
+
+    public int getLevelCount() {
+        return levels.length;
+    }
+
+    /**
+     * Returns the texels of a mipmap level, red, green and blue one after another, row by row. Not to be modified.
+     */
+    float[] getLevel(int level) {
+        return levels[level];
+    }
+
+    int getLevelWidth(int level) {
+        return widths[level];
+    }
+
+    int getLevelHeight(int level) {
+        return heights[level];
+    }
+
+    /**
+     * Picks the mipmap level for a sample covering texelsPerSample texels of the full image: the level on which the
+     * sample covers about one texel.
+     */
+    public int selectLevel(double texelsPerSample) {
+        if (!(texelsPerSample > 1)) {
+            return 0;
+        }
+        int level = (int) Math.round(Math.log(texelsPerSample) / Math.log(2));
+        return Math.min(level, levels.length - 1);
+    }
+
+    /**
+     * Reads the color of the texture at the given point, without allocating anything
+     * @param u The horizontal coordinate, from 0 (left edge) to 1 (right edge). Values outside are clamped.
+     * @param v The vertical coordinate, from 0 (top edge) to 1 (bottom edge). Values outside are clamped.
+     * @param texelsPerSample How many texels of the full image the sample covers, see selectLevel. 0 samples the full
+     *                        image.
+     * @param filter How the texels around the point are combined
+     * @param result Receives the color
+     */
+    public void sample(double u, double v, double texelsPerSample, Filter filter, LightIntensity result) {
+        int level = selectLevel(texelsPerSample);
+        float[] texels = levels[level];
+        int width = widths[level];
+        int height = heights[level];
+
+        if (filter == Filter.NEAREST) {
+            int i = 3 * (clamp((int) Math.floor(u * width), width) + width * clamp((int) Math.floor(v * height), height));
+            result.red = texels[i];
+            result.green = texels[i + 1];
+            result.blue = texels[i + 2];
+            return;
+        }
+
+        // The centers of the texels are at half coordinates
+        double x = u * width - 0.5;
+        double y = v * height - 0.5;
+        int x0 = (int) Math.floor(x);
+        int y0 = (int) Math.floor(y);
+        double fx = x - x0;
+        double fy = y - y0;
+        int left = clamp(x0, width);
+        int right = clamp(x0 + 1, width);
+        int top = width * clamp(y0, height);
+        int bottom = width * clamp(y0 + 1, height);
+        double wTopLeft = (1 - fx) * (1 - fy);
+        double wTopRight = fx * (1 - fy);
+        double wBottomLeft = (1 - fx) * fy;
+        double wBottomRight = fx * fy;
+        int topLeft = 3 * (top + left);
+        int topRight = 3 * (top + right);
+        int bottomLeft = 3 * (bottom + left);
+        int bottomRight = 3 * (bottom + right);
+        result.red = wTopLeft * texels[topLeft] + wTopRight * texels[topRight]
+                + wBottomLeft * texels[bottomLeft] + wBottomRight * texels[bottomRight];
+        result.green = wTopLeft * texels[topLeft + 1] + wTopRight * texels[topRight + 1]
+                + wBottomLeft * texels[bottomLeft + 1] + wBottomRight * texels[bottomRight + 1];
+        result.blue = wTopLeft * texels[topLeft + 2] + wTopRight * texels[topRight + 2]
+                + wBottomLeft * texels[bottomLeft + 2] + wBottomRight * texels[bottomRight + 2];
+    }
+
+    private static int clamp(int coordinate, int size) {
+        return Math.min(Math.max(coordinate, 0), size - 1);
+    }
+}
@@ -0,0 +1,294 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Splits an image into square tiles and renders them on a dedicated pool of worker threads.
+ *
+ * Tiles are ordered along a space filling curve (Morton or Hilbert), so that neighbouring tiles in the order are also
+ * neighbours in the image. The ordered list is then split recursively on a work-stealing fork-join pool: every worker
+ * starts with a contiguous chunk of the curve, and once it runs out of tiles it steals half of the remaining work from a
+ * busy worker. This way expensive regions of the image (e.g. glass) do not leave the other cores idle at the end of a
+ * frame.
+ */
+public class TileScheduler implements AutoCloseable {
+    /**
+     * The order in which tiles are laid out before being split between workers
+     */
+    public enum TileOrder {
+        ROW_MAJOR,
+        MORTON,
+        HILBERT
+    }
+
+    /**
+     * Renders a single tile. Called concurrently from multiple worker threads, each time with a different tile.
+     */
+    public interface TileRenderer {
+        void renderTile(Tile tile);
+    }
+
+    /**
+     * A rectangular part of the image. Pixels x..x+width-1, y..y+height-1 belong to the tile.
+     */
+    public static class Tile {
+        public final int x, y, width, height;
+        // Position of the tile along the curve
+        public final int index;
+        // How long it took to render the tile, in nanoseconds. Filled in after the tile is rendered.
+        public long renderTimeNanos;
+        // Name of the worker thread that rendered the tile
+        public String workerName;
+
+        Tile(int x, int y, int width, int height, int index) {
+            this.x = x;
+            this.y = y;
+            this.width = width;
+            this.height = height;
+            this.index = index;
+        }
+    }
+
+    private final ForkJoinPool pool;
+    private final int threadCount;
+    private int tileSize;
+    private TileOrder tileOrder;
+    private List<Tile> lastTiles = Collections.emptyList();
+    private long lastFrameNanos;
+
+    /**
+     * @param threadCount Number of worker threads. The pool never grows beyond that.
+     * @param tileSize The length of the side of a tile in pixels
+     * @param tileOrder The order in which the tiles are laid out
+     */
+    public TileScheduler(int threadCount, int tileSize, TileOrder tileOrder) {
+        if (threadCount < 1) {
+            throw new IllegalArgumentException("threadCount needs to be >= 1");
+        }
+        this.threadCount = threadCount;
+        setTileSize(tileSize);
+        this.tileOrder = tileOrder;
+        this.pool = new ForkJoinPool(threadCount, pool -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName("render-worker-" + thread.getPoolIndex());
+            // The workers should not keep the program alive
+            thread.setDaemon(true);
+            return thread;
+        }, null, false);
+    }
+
+    /**
+     * Creates a scheduler with one worker per available processor
+     */
+    public TileScheduler(int tileSize, TileOrder tileOrder) {
+        this(Runtime.getRuntime().availableProcessors(), tileSize, tileOrder);
+    }
+
+    public int getThreadCount() {
+        return threadCount;
+    }
+
+    public int getTileSize() {
+        return tileSize;
+    }
+
+    public void setTileSize(int tileSize) {
+        if (tileSize < 1) {
+            throw new IllegalArgumentException("tileSize needs to be >= 1");
+        }
+        this.tileSize = tileSize;
+    }
+
+    public TileOrder getTileOrder() {
+        return tileOrder;
+    }
+
+    public void setTileOrder(TileOrder tileOrder) {
+        this.tileOrder = tileOrder;
+    }
+
+    /**
+     * Renders all tiles of a width x height image and waits until they are done.
+     * @param width Width of the image in pixels
+     * @param height Height of the image in pixels
+     * @param renderer Called once for every tile, from the worker threads
+     * @return The rendered tiles in curve order, with their timings filled in
+     */
+    public List<Tile> render(int width, int height, TileRenderer renderer) {
+        List<Tile> tiles = makeTiles(width, height);
+        long start = System.nanoTime();
+        if (!tiles.isEmpty()) {
+            pool.invoke(new RenderTilesTask(tiles, 0, tiles.size(), renderer));
+        }
+        lastFrameNanos = System.nanoTime() - start;
+        lastTiles = Collections.unmodifiableList(tiles);
+        return lastTiles;
+    }
+
+    /**
+     * Runs a task on the worker threads and waits for its result. Parallel work outside of the frames, like building
+     * the BVH, goes through here too, so that it stays within the same number of threads.
+     */
+    public <T> T invoke(ForkJoinTask<T> task) {
+        return pool.invoke(task);
+    }
+
+    /**
+     * Returns the tiles of the last rendered frame, with their timings
+     */
+    public List<Tile> getLastTiles() {
+        return lastTiles;
+    }
+
+    /**
+     * Returns the wall-clock time of the last rendered frame in nanoseconds
+     */
+    public long getLastFrameNanos() {
+        return lastFrameNanos;
+    }
+
+    /**
+     * Summarizes the tile timings of the last frame in a single line. Useful for spotting load imbalance: if the
+     * slowest tile takes a large share of the frame time, the tiles should be made smaller.
+     */
+    public String getTimingSummary() {
+        if (lastTiles.isEmpty()) {
+            return "No frame rendered";
+        }
+        long total = 0;
+        Tile slowest = lastTiles.get(0);
+        long[] times = new long[lastTiles.size()];
+        for (int i = 0; i < times.length; ++i) {
+            Tile tile = lastTiles.get(i);
+            times[i] = tile.renderTimeNanos;
+            total += tile.renderTimeNanos;
+            if (tile.renderTimeNanos > slowest.renderTimeNanos) {
+                slowest = tile;
+            }
+        }
+        Arrays.sort(times);
+        double frameMs = lastFrameNanos / 1e6;
+        return String.format(
+                "frame %.1f ms, %d tiles of %dpx on %d threads, tile ms: median %.2f, mean %.2f, max %.2f at (%d, %d), " +
+                        "utilization %.0f%%",
+                frameMs, times.length, tileSize, threadCount,
+                times[times.length / 2] / 1e6, total / 1e6 / times.length, slowest.renderTimeNanos / 1e6,
+                slowest.x, slowest.y,
+                100.0 * total / ((double) lastFrameNanos * threadCount));
+    }
+
+    /**
+     * Stops the worker threads. The scheduler cannot be used afterwards.
+     */
+    @Override
+    public void close() {
+        pool.shutdown();
+    }
+
+    private List<Tile> makeTiles(int width, int height) {
+        int tilesX = (width + tileSize - 1) / tileSize;
+        int tilesY = (height + tileSize - 1) / tileSize;
+
+        List<int[]> gridPositions = new ArrayList<>(tilesX * tilesY);
+        for (int ty = 0; ty < tilesY; ++ty) {
+            for (int tx = 0; tx < tilesX; ++tx) {
+                gridPositions.add(new int[] {tx, ty});
+            }
+        }
+
+        if (tileOrder == TileOrder.MORTON) {
+            gridPositions.sort(Comparator.comparingLong(p -> mortonIndex(p[0], p[1])));
+        } else if (tileOrder == TileOrder.HILBERT) {
+            int curveSize = Integer.highestOneBit(Math.max(Math.max(tilesX, tilesY), 1) * 2 - 1);
+            gridPositions.sort(Comparator.comparingLong(p -> hilbertIndex(curveSize, p[0], p[1])));
+        }
+
+        List<Tile> tiles = new ArrayList<>(gridPositions.size());
+        for (int[] p : gridPositions) {
+            int x = p[0] * tileSize;
+            int y = p[1] * tileSize;
+            tiles.add(new Tile(x, y, Math.min(tileSize, width - x), Math.min(tileSize, height - y), tiles.size()));
+        }
+        return tiles;
+    }
+
+    /**
+     * Interleaves the bits of x and y (Z-order curve)
+     */
+    static long mortonIndex(int x, int y) {
+        return spreadBits(x) | (spreadBits(y) << 1);
+    }
+
+    // Inserts a zero between each of the lower 32 bits of v
+    private static long spreadBits(int v) {
+        long x = v & 0xFFFFFFFFL;
+        x = (x | (x << 16)) & 0x0000FFFF0000FFFFL;
+        x = (x | (x << 8)) & 0x00FF00FF00FF00FFL;
+        x = (x | (x << 4)) & 0x0F0F0F0F0F0F0F0FL;
+        x = (x | (x << 2)) & 0x3333333333333333L;
+        x = (x | (x << 1)) & 0x5555555555555555L;
+        return x;
+    }
+
+    /**
+     * Returns the distance of (x, y) along a Hilbert curve filling an n x n grid. n needs to be a power of two.
+     */
+    static long hilbertIndex(int n, int x, int y) {
+        long d = 0;
+        for (int s = n / 2; s > 0; s /= 2) {
+            int rx = (x & s) > 0 ? 1 : 0;
+            int ry = (y & s) > 0 ? 1 : 0;
+            d += (long) s * s * ((3 * rx) ^ ry);
+
+            // Rotate the quadrant so that the curve inside it has the right orientation
+            if (ry == 0) {
+                if (rx == 1) {
+                    x = s - 1 - x;
+                    y = s - 1 - y;
+                }
+                int tmp = x;
+                x = y;
+                y = tmp;
+            }
+        }
+        return d;
+    }
+
+    /**
+     * Renders tiles[start..end). Ranges are halved until single tiles remain, and the halves that a worker did not get
+     * to yet can be stolen by idle workers.
+     */
+    @SuppressWarnings("serial") // Tasks are never serialized
+    private static class RenderTilesTask extends RecursiveAction {
+        private final List<Tile> tiles;
+        private final int start, end;
+        private final TileRenderer renderer;
+
+        RenderTilesTask(List<Tile> tiles, int start, int end, TileRenderer renderer) {
+            this.tiles = tiles;
+            this.start = start;
+            this.end = end;
+            this.renderer = renderer;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start == 1) {
+                Tile tile = tiles.get(start);
+                long tileStart = System.nanoTime();
+                renderer.renderTile(tile);
+                tile.renderTimeNanos = System.nanoTime() - tileStart;
+                tile.workerName = Thread.currentThread().getName();
+                return;
+            }
+            int mid = (start + end) >>> 1;
+            invokeAll(new RenderTilesTask(tiles, start, mid, renderer), new RenderTilesTask(tiles, mid, end, renderer));
+        }
+    }
+}
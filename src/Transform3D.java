@@ -1,9 +1,7 @@
-import javafx.geometry.Point3D;
-
 public class Transform3D {
     double matrix[][] = new double[4][4];
 
-    private double getAffineVectorCoord(Point3D vector, int index) {
+    private double getAffineVectorCoord(Vector3D vector, int index) {
         switch (index) {
             case 0:
                 return vector.getX();
@@ -22,14 +20,14 @@ public class Transform3D {
      * @param toTransform The point to transform
      * @return The point after the transformation
      */
-    public Point3D transform(Point3D toTransform) {
+    public Vector3D transform(Vector3D toTransform) {
         double[] affineCoords = new double[4];
         for (int y = 0; y < 4; ++y) {
             for (int x = 0; x < 4; ++x) {
                 affineCoords[y] += matrix[x][y] * getAffineVectorCoord(toTransform, x);
             }
         }
-        return new Point3D(
+        return new Vector3D(
                 affineCoords[0]/affineCoords[3],
                 affineCoords[1]/affineCoords[3],
                 affineCoords[2]/affineCoords[3]
@@ -43,12 +41,12 @@ public class Transform3D {
      * @param angle The angle of the rotation. The input will be treated as if it was in radians.
      * @return The rotation matrix
      */
-    public static Transform3D rotateCCWAroundAxis(Point3D axisStart, Point3D axisEnd, double angle) {
+    public static Transform3D rotateCCWAroundAxis(Vector3D axisStart, Vector3D axisEnd, double angle) {
         double cos = Math.cos(angle);
         double sin = Math.sin(angle);
 
         // Unit vector from origin
-        Point3D a = axisEnd.subtract(axisStart).normalize();
+        Vector3D a = axisEnd.subtract(axisStart).normalize();
 
         // According to the book
         Transform3D result = new Transform3D();
@@ -104,7 +102,7 @@ public class Transform3D {
      * @param translation
      * @return
      */
-    public static Transform3D getTranslateInstance(Point3D translation) {
+    public static Transform3D getTranslateInstance(Vector3D translation) {
         Transform3D result = new Transform3D();
         result.matrix[0][0] = 1;
         result.matrix[3][0] = translation.getX();
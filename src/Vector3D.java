@@ -0,0 +1,215 @@
+/**
+ * A vector (or a point) in 3-space.
+ *
+ * The methods named after operations (add, subtract, multiply, normalize...) return a new vector and leave this one
+ * unchanged, so Vector3D can be passed around as a value. The set/...InPlace methods and the static kernels operating
+ * on primitive doubles do not allocate - they are meant for the ray tracing hot path, where creating a new object for
+ * every step of the math would keep the garbage collector busy.
+ */
+public final class Vector3D {
+    public double x, y, z;
+
+    public Vector3D() {}
+
+    public Vector3D(double x, double y, double z) {
+        this.x = x;
+        this.y = y;
+        this.z = z;
+    }
+
+    public Vector3D(Vector3D other) {
+        this(other.x, other.y, other.z);
+    }
+
+    public double getX() {
+        return x;
+    }
+
+    public double getY() {
+        return y;
+    }
+
+    public double getZ() {
+        return z;
+    }
+
+    /**
+     * Returns the component along the given axis (0 - x, 1 - y, 2 - z)
+     */
+    public double get(int axis) {
+        switch (axis) {
+            case 0:
+                return x;
+            case 1:
+                return y;
+            case 2:
+                return z;
+        }
+        throw new IllegalArgumentException("Axis out of bounds");
+    }
+
+    // Operations returning new vectors
+
+    public Vector3D add(Vector3D other) {
+        return new Vector3D(x + other.x, y + other.y, z + other.z);
+    }
+
+    public Vector3D add(double dx, double dy, double dz) {
+        return new Vector3D(x + dx, y + dy, z + dz);
+    }
+
+    public Vector3D subtract(Vector3D other) {
+        return new Vector3D(x - other.x, y - other.y, z - other.z);
+    }
+
+    public Vector3D subtract(double dx, double dy, double dz) {
+        return new Vector3D(x - dx, y - dy, z - dz);
+    }
+
+    public Vector3D multiply(double factor) {
+        return new Vector3D(x * factor, y * factor, z * factor);
+    }
+
+    public double dotProduct(Vector3D other) {
+        return dot(x, y, z, other.x, other.y, other.z);
+    }
+
+    public Vector3D crossProduct(Vector3D other) {
+        return new Vector3D(
+                y * other.z - z * other.y,
+                z * other.x - x * other.z,
+                x * other.y - y * other.x);
+    }
+
+    public double magnitude() {
+        return Math.sqrt(dot(x, y, z, x, y, z));
+    }
+
+    /**
+     * Returns a unit vector with the same direction as this one. The zero vector is returned unchanged.
+     */
+    public Vector3D normalize() {
+        return new Vector3D(this).normalizeInPlace();
+    }
+
+    public double distance(Vector3D other) {
+        return Math.sqrt(distanceSquared(this, other));
+    }
+
+    // Operations modifying this vector. They return this, so that they can be chained.
+
+    public Vector3D set(double x, double y, double z) {
+        this.x = x;
+        this.y = y;
+        this.z = z;
+        return this;
+    }
+
+    public Vector3D set(Vector3D other) {
+        return set(other.x, other.y, other.z);
+    }
+
+    public Vector3D addInPlace(Vector3D other) {
+        x += other.x;
+        y += other.y;
+        z += other.z;
+        return this;
+    }
+
+    public Vector3D subtractInPlace(Vector3D other) {
+        x -= other.x;
+        y -= other.y;
+        z -= other.z;
+        return this;
+    }
+
+    public Vector3D multiplyInPlace(double factor) {
+        x *= factor;
+        y *= factor;
+        z *= factor;
+        return this;
+    }
+
+    /**
+     * this += factor * other
+     */
+    public Vector3D addScaledInPlace(Vector3D other, double factor) {
+        x += factor * other.x;
+        y += factor * other.y;
+        z += factor * other.z;
+        return this;
+    }
+
+    /**
+     * Scales this vector to unit length. The zero vector is left unchanged.
+     */
+    public Vector3D normalizeInPlace() {
+        double lengthSquared = dot(x, y, z, x, y, z);
+        if (lengthSquared > 0) {
+            multiplyInPlace(1.0 / Math.sqrt(lengthSquared));
+        }
+        return this;
+    }
+
+    // Static kernels working on primitives
+
+    public static double dot(double ax, double ay, double az, double bx, double by, double bz) {
+        return ax * bx + ay * by + az * bz;
+    }
+
+    public static double dot(Vector3D a, Vector3D b) {
+        return a.x * b.x + a.y * b.y + a.z * b.z;
+    }
+
+    /**
+     * out = a x b. out may be the same object as a or b.
+     */
+    public static Vector3D cross(Vector3D a, Vector3D b, Vector3D out) {
+        return out.set(
+                a.y * b.z - a.z * b.y,
+                a.z * b.x - a.x * b.z,
+                a.x * b.y - a.y * b.x);
+    }
+
+    /**
+     * Multiply-add: out = a + factor * b. out may be the same object as a or b.
+     */
+    public static Vector3D scaleAdd(Vector3D a, double factor, Vector3D b, Vector3D out) {
+        return out.set(a.x + factor * b.x, a.y + factor * b.y, a.z + factor * b.z);
+    }
+
+    /**
+     * out = a - b. out may be the same object as a or b.
+     */
+    public static Vector3D subtract(Vector3D a, Vector3D b, Vector3D out) {
+        return out.set(a.x - b.x, a.y - b.y, a.z - b.z);
+    }
+
+    public static double distanceSquared(Vector3D a, Vector3D b) {
+        double dx = a.x - b.x;
+        double dy = a.y - b.y;
+        double dz = a.z - b.z;
+        return dx * dx + dy * dy + dz * dz;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof Vector3D)) {
+            return false;
+        }
+        Vector3D other = (Vector3D) obj;
+        return x == other.x && y == other.y && z == other.z;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = Double.hashCode(x);
+        result = 31 * result + Double.hashCode(y);
+        return 31 * result + Double.hashCode(z);
+    }
+
+    @Override
+    public String toString() {
+        return "Vector3D [x = " + x + ", y = " + y + ", z = " + z + "]";
+    }
+}
@@ -0,0 +1,230 @@
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Intersection kernels using the incubating Vector API. Every lane of a vector holds a different primitive (one ray
+ * against a leaf), or a different ray (a packet against one primitive), so a single instruction does the same step of
+ * the math for 4 primitives. 256 bit vectors are used even on AVX-512 machines: the leaves hold only a few primitives,
+ * so 8 lanes would mostly test padding, and JDK 17 compiles fewer of the 512 bit operations to vector instructions.
+ *
+ * Only loaded through IntersectionKernels.get(), when asked for with -Draytracer.vectorKernels=true. It is kept apart
+ * from the other sources, since compiling it needs --add-modules jdk.incubator.vector as well, which only the
+ * vector-kernels and benchmarks Maven profiles add. The operations are done in the same order as in Sphere and
+ * RectFace, so the results do not differ from the scalar code.
+ *
+ * The vectors are only kept in registers if every method they pass through is inlined by the JIT. Otherwise they are
+ * boxed into objects. The intersection math is written out in every kernel instead of being shared through helper
+ * methods, lanes are looked up with vector operations instead of mask bits, and misses are filtered out with blends
+ * instead of combined masks, but on JDK 17 some of the vectors are still boxed: the kernels allocate about 140 bytes
+ * per closest hit query and are slower than the scalar ones. That is why they are not the default.
+ */
+class VectorIntersectionKernels extends IntersectionKernels {
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_256;
+    private static final int LANES = SPECIES.length();
+    // 0, 1, 2... in the lanes
+    private static final DoubleVector LANE_INDICES = DoubleVector.zero(SPECIES).addIndex(1);
+    private static final DoubleVector ZERO = DoubleVector.zero(SPECIES);
+    private static final DoubleVector ONE = DoubleVector.broadcast(SPECIES, 1);
+    private static final DoubleVector INFINITY = DoubleVector.broadcast(SPECIES, Double.POSITIVE_INFINITY);
+    private static final DoubleVector NAN = DoubleVector.broadcast(SPECIES, Double.NaN);
+
+    @Override
+    int getLaneCount() {
+        return LANES;
+    }
+
+    @Override
+    String getDescription() {
+        return "Vector API, " + LANES + " lanes";
+    }
+
+    private static DoubleVector broadcast(double value) {
+        return DoubleVector.broadcast(SPECIES, value);
+    }
+
+    @Override
+    int findClosestSphere(PackedPrimitives p, int start, int end, Ray ray, double tMin, double tMax) {
+        DoubleVector ox = broadcast(ray.origin.x), oy = broadcast(ray.origin.y), oz = broadcast(ray.origin.z);
+        DoubleVector dx = broadcast(ray.unitDirection.x);
+        DoubleVector dy = broadcast(ray.unitDirection.y);
+        DoubleVector dz = broadcast(ray.unitDirection.z);
+        DoubleVector tMinVector = broadcast(tMin);
+        int closest = -1;
+        for (int i = start; i < end; i += LANES) {
+            // Same math as ScalarIntersectionKernels.sphereDistance
+            DoubleVector cox = ox.sub(DoubleVector.fromArray(SPECIES, p.sphereCenterX, i));
+            DoubleVector coy = oy.sub(DoubleVector.fromArray(SPECIES, p.sphereCenterY, i));
+            DoubleVector coz = oz.sub(DoubleVector.fromArray(SPECIES, p.sphereCenterZ, i));
+            DoubleVector b = cox.mul(dx).add(coy.mul(dy)).add(coz.mul(dz)).mul(2);
+            DoubleVector c = cox.mul(cox).add(coy.mul(coy)).add(coz.mul(coz))
+                    .sub(DoubleVector.fromArray(SPECIES, p.sphereRadiusSquared, i));
+            // A negative delta gives a NaN square root, which then fails every comparison with the distance
+            DoubleVector sqrtDelta = b.mul(b).sub(c.mul(4)).lanewise(VectorOperators.SQRT);
+            DoubleVector negT = b.neg().sub(sqrtDelta).div(2);
+            DoubleVector posT = b.neg().add(sqrtDelta).div(2);
+            DoubleVector t = negT.blend(posT, negT.compare(VectorOperators.LE, tMinVector));
+
+            // Misses become infinite: NaN is the only value not equal to itself. Only compares and blends are used,
+            // because combining masks with and/not is not compiled to vector instructions on JDK 17.
+            DoubleVector hitDistances = t.blend(INFINITY, t.compare(VectorOperators.NE, t));
+            hitDistances = hitDistances.blend(INFINITY, hitDistances.compare(VectorOperators.LE, tMinVector));
+            hitDistances = hitDistances.blend(INFINITY, hitDistances.compare(VectorOperators.GE, broadcast(tMax)));
+            double chunkClosest = hitDistances.reduceLanes(VectorOperators.MIN);
+            if (chunkClosest < tMax) {
+                // Of equal distances the first lane wins, like in the scalar loop
+                closest = i + (int) LANE_INDICES
+                        .blend(INFINITY, hitDistances.compare(VectorOperators.NE, broadcast(chunkClosest)))
+                        .reduceLanes(VectorOperators.MIN);
+                tMax = chunkClosest;
+            }
+        }
+        return closest;
+    }
+
+    @Override
+    int findClosestRect(PackedPrimitives p, int start, int end, Ray ray, double tMin, double tMax) {
+        DoubleVector ox = broadcast(ray.origin.x), oy = broadcast(ray.origin.y), oz = broadcast(ray.origin.z);
+        DoubleVector dx = broadcast(ray.unitDirection.x);
+        DoubleVector dy = broadcast(ray.unitDirection.y);
+        DoubleVector dz = broadcast(ray.unitDirection.z);
+        DoubleVector tMinVector = broadcast(tMin);
+        int closest = -1;
+        for (int i = start; i < end; i += LANES) {
+            // Same math as ScalarIntersectionKernels.rectDistance
+            DoubleVector nx = DoubleVector.fromArray(SPECIES, p.rectNormalX, i);
+            DoubleVector ny = DoubleVector.fromArray(SPECIES, p.rectNormalY, i);
+            DoubleVector nz = DoubleVector.fromArray(SPECIES, p.rectNormalZ, i);
+            DoubleVector t = DoubleVector.fromArray(SPECIES, p.rectPlaneOffset, i)
+                    .sub(ox.mul(nx).add(oy.mul(ny)).add(oz.mul(nz)))
+                    .div(dx.mul(nx).add(dy.mul(ny)).add(dz.mul(nz)));
+            DoubleVector vx = ox.add(t.mul(dx)).sub(DoubleVector.fromArray(SPECIES, p.rectCornerX, i));
+            DoubleVector vy = oy.add(t.mul(dy)).sub(DoubleVector.fromArray(SPECIES, p.rectCornerY, i));
+            DoubleVector vz = oz.add(t.mul(dz)).sub(DoubleVector.fromArray(SPECIES, p.rectCornerZ, i));
+            DoubleVector u = vx.mul(DoubleVector.fromArray(SPECIES, p.rectInverseRightX, i))
+                    .add(vy.mul(DoubleVector.fromArray(SPECIES, p.rectInverseRightY, i)))
+                    .add(vz.mul(DoubleVector.fromArray(SPECIES, p.rectInverseRightZ, i)));
+            DoubleVector v = vx.mul(DoubleVector.fromArray(SPECIES, p.rectInverseDownX, i))
+                    .add(vy.mul(DoubleVector.fromArray(SPECIES, p.rectInverseDownY, i)))
+                    .add(vz.mul(DoubleVector.fromArray(SPECIES, p.rectInverseDownZ, i)));
+            t = t.blend(NAN, u.compare(VectorOperators.LT, ZERO));
+            t = t.blend(NAN, u.compare(VectorOperators.GT, ONE));
+            t = t.blend(NAN, v.compare(VectorOperators.LT, ZERO));
+            t = t.blend(NAN, v.compare(VectorOperators.GT, ONE));
+            // Misses become infinite: NaN is the only value not equal to itself. Only compares and blends are used,
+            // because combining masks with and/not is not compiled to vector instructions on JDK 17.
+            DoubleVector hitDistances = t.blend(INFINITY, t.compare(VectorOperators.NE, t));
+            hitDistances = hitDistances.blend(INFINITY, hitDistances.compare(VectorOperators.LE, tMinVector));
+            hitDistances = hitDistances.blend(INFINITY, hitDistances.compare(VectorOperators.GE, broadcast(tMax)));
+            double chunkClosest = hitDistances.reduceLanes(VectorOperators.MIN);
+            if (chunkClosest < tMax) {
+                closest = i + (int) LANE_INDICES
+                        .blend(INFINITY, hitDistances.compare(VectorOperators.NE, broadcast(chunkClosest)))
+                        .reduceLanes(VectorOperators.MIN);
+                tMax = chunkClosest;
+            }
+        }
+        return closest;
+    }
+
+    // A leaf fits into one or two vectors, so stopping at the first hit would not save much over finding the closest
+
+    @Override
+    boolean hitsAnySphere(PackedPrimitives p, int start, int end, Ray ray, double minDistance, double maxDistance) {
+        return findClosestSphere(p, start, end, ray, minDistance, maxDistance) >= 0;
+    }
+
+    @Override
+    boolean hitsAnyRect(PackedPrimitives p, int start, int end, Ray ray, double minDistance, double maxDistance) {
+        return findClosestRect(p, start, end, ray, minDistance, maxDistance) >= 0;
+    }
+
+    @Override
+    void occludeBySphere(RayPacket packet, PackedPrimitives p, int i) {
+        DoubleVector cx = broadcast(p.sphereCenterX[i]);
+        DoubleVector cy = broadcast(p.sphereCenterY[i]);
+        DoubleVector cz = broadcast(p.sphereCenterZ[i]);
+        DoubleVector radiusSquared = broadcast(p.sphereRadiusSquared[i]);
+        for (int r = 0; r < packet.getPaddedCount(); r += LANES) {
+            DoubleVector minDistance = DoubleVector.fromArray(SPECIES, packet.minDistance, r);
+            DoubleVector dx = DoubleVector.fromArray(SPECIES, packet.directionX, r);
+            DoubleVector dy = DoubleVector.fromArray(SPECIES, packet.directionY, r);
+            DoubleVector dz = DoubleVector.fromArray(SPECIES, packet.directionZ, r);
+            DoubleVector cox = DoubleVector.fromArray(SPECIES, packet.originX, r).sub(cx);
+            DoubleVector coy = DoubleVector.fromArray(SPECIES, packet.originY, r).sub(cy);
+            DoubleVector coz = DoubleVector.fromArray(SPECIES, packet.originZ, r).sub(cz);
+            DoubleVector b = cox.mul(dx).add(coy.mul(dy)).add(coz.mul(dz)).mul(2);
+            DoubleVector c = cox.mul(cox).add(coy.mul(coy)).add(coz.mul(coz)).sub(radiusSquared);
+            DoubleVector sqrtDelta = b.mul(b).sub(c.mul(4)).lanewise(VectorOperators.SQRT);
+            DoubleVector negT = b.neg().sub(sqrtDelta).div(2);
+            DoubleVector posT = b.neg().add(sqrtDelta).div(2);
+            DoubleVector t = negT.blend(posT, negT.compare(VectorOperators.LE, minDistance));
+
+            // Misses become infinite: NaN is the only value not equal to itself. Only compares and blends are used,
+            // because combining masks with and/not is not compiled to vector instructions on JDK 17.
+            DoubleVector hitDistances = t.blend(INFINITY, t.compare(VectorOperators.NE, t));
+            hitDistances = hitDistances.blend(INFINITY, hitDistances.compare(VectorOperators.LE, minDistance));
+            hitDistances = hitDistances.blend(INFINITY, hitDistances.compare(VectorOperators.GE,
+                    DoubleVector.fromArray(SPECIES, packet.maxDistance, r)));
+            if (hitDistances.compare(VectorOperators.LT, INFINITY).anyTrue()) {
+                hitDistances.intoArray(packet.distances, r);
+                markOccluded(packet, r);
+            }
+        }
+    }
+
+    @Override
+    void occludeByRect(RayPacket packet, PackedPrimitives p, int i) {
+        DoubleVector cornerX = broadcast(p.rectCornerX[i]);
+        DoubleVector cornerY = broadcast(p.rectCornerY[i]);
+        DoubleVector cornerZ = broadcast(p.rectCornerZ[i]);
+        DoubleVector inverseRightX = broadcast(p.rectInverseRightX[i]);
+        DoubleVector inverseRightY = broadcast(p.rectInverseRightY[i]);
+        DoubleVector inverseRightZ = broadcast(p.rectInverseRightZ[i]);
+        DoubleVector inverseDownX = broadcast(p.rectInverseDownX[i]);
+        DoubleVector inverseDownY = broadcast(p.rectInverseDownY[i]);
+        DoubleVector inverseDownZ = broadcast(p.rectInverseDownZ[i]);
+        DoubleVector nx = broadcast(p.rectNormalX[i]);
+        DoubleVector ny = broadcast(p.rectNormalY[i]);
+        DoubleVector nz = broadcast(p.rectNormalZ[i]);
+        DoubleVector planeOffset = broadcast(p.rectPlaneOffset[i]);
+        for (int r = 0; r < packet.getPaddedCount(); r += LANES) {
+            DoubleVector ox = DoubleVector.fromArray(SPECIES, packet.originX, r);
+            DoubleVector oy = DoubleVector.fromArray(SPECIES, packet.originY, r);
+            DoubleVector oz = DoubleVector.fromArray(SPECIES, packet.originZ, r);
+            DoubleVector dx = DoubleVector.fromArray(SPECIES, packet.directionX, r);
+            DoubleVector dy = DoubleVector.fromArray(SPECIES, packet.directionY, r);
+            DoubleVector dz = DoubleVector.fromArray(SPECIES, packet.directionZ, r);
+            DoubleVector t = planeOffset.sub(ox.mul(nx).add(oy.mul(ny)).add(oz.mul(nz)))
+                    .div(dx.mul(nx).add(dy.mul(ny)).add(dz.mul(nz)));
+            DoubleVector vx = ox.add(t.mul(dx)).sub(cornerX);
+            DoubleVector vy = oy.add(t.mul(dy)).sub(cornerY);
+            DoubleVector vz = oz.add(t.mul(dz)).sub(cornerZ);
+            DoubleVector u = vx.mul(inverseRightX).add(vy.mul(inverseRightY)).add(vz.mul(inverseRightZ));
+            DoubleVector v = vx.mul(inverseDownX).add(vy.mul(inverseDownY)).add(vz.mul(inverseDownZ));
+            t = t.blend(NAN, u.compare(VectorOperators.LT, ZERO));
+            t = t.blend(NAN, u.compare(VectorOperators.GT, ONE));
+            t = t.blend(NAN, v.compare(VectorOperators.LT, ZERO));
+            t = t.blend(NAN, v.compare(VectorOperators.GT, ONE));
+            // Misses become infinite: NaN is the only value not equal to itself. Only compares and blends are used,
+            // because combining masks with and/not is not compiled to vector instructions on JDK 17.
+            DoubleVector hitDistances = t.blend(INFINITY, t.compare(VectorOperators.NE, t));
+            hitDistances = hitDistances.blend(INFINITY, hitDistances.compare(VectorOperators.LE, DoubleVector.fromArray(SPECIES, packet.minDistance, r)));
+            hitDistances = hitDistances.blend(INFINITY, hitDistances.compare(VectorOperators.GE,
+                    DoubleVector.fromArray(SPECIES, packet.maxDistance, r)));
+            if (hitDistances.compare(VectorOperators.LT, INFINITY).anyTrue()) {
+                hitDistances.intoArray(packet.distances, r);
+                markOccluded(packet, r);
+            }
+        }
+    }
+
+    // Marks the rays first..first+LANES whose distances (stored in packet.distances) are within their segments
+    private static void markOccluded(RayPacket packet, int first) {
+        for (int r = first; r < first + LANES; ++r) {
+            if (packet.distances[r] > packet.minDistance[r] && packet.distances[r] < packet.maxDistance[r]) {
+                packet.markOccluded(r);
+            }
+        }
+    }
+}